@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.p4bench;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * In-memory stand-ins for the ONOS services used by the components under test.
+ * <p>
+ * Every method of the stub returns a neutral value unless the given answer
+ * handles it; only the few calls a benchmark depends on need an answer.
+ */
+public final class Stubs {
+
+    /** Returned by an answer to fall back to the neutral value. */
+    public static final Object DEFAULT = new Object();
+
+    private Stubs() {
+    }
+
+    /**
+     * Answers the calls made to a stub.
+     */
+    @FunctionalInterface
+    public interface Answer {
+        /**
+         * Answers a call.
+         *
+         * @param method method called
+         * @param args   arguments of the call, null if none
+         * @return value returned by the call, or {@link #DEFAULT}
+         */
+        Object answer(Method method, Object[] args);
+    }
+
+    /**
+     * Creates a stub where every call returns a neutral value.
+     *
+     * @param type service interface
+     * @param <T>  service type
+     * @return stub
+     */
+    public static <T> T of(Class<T> type) {
+        return of(type, (m, a) -> DEFAULT);
+    }
+
+    /**
+     * Creates a stub that delegates its calls to an answer.
+     *
+     * @param type   service interface
+     * @param answer answer to the calls
+     * @param <T>    service type
+     * @return stub
+     */
+    public static <T> T of(Class<T> type, Answer answer) {
+        Object stub = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + "Stub";
+                default:
+                    Object value = answer.answer(method, args);
+                    return value == DEFAULT ? neutral(method) : value;
+            }
+        });
+        return type.cast(stub);
+    }
+
+    // Zero, false, empty or completed, depending on the return type
+    private static Object neutral(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == Object.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == char.class) {
+            return (char) 0;
+        } else if (type == double.class) {
+            return 0.0;
+        } else if (type == float.class) {
+            return 0.0f;
+        } else if (type == Optional.class) {
+            return Optional.empty();
+        } else if (type == CompletableFuture.class) {
+            return CompletableFuture.completedFuture(null);
+        } else if (type.isAssignableFrom(List.class)) {
+            return Collections.emptyList();
+        } else if (type.isAssignableFrom(Set.class)) {
+            return Collections.emptySet();
+        } else if (type.isAssignableFrom(Map.class)) {
+            return Collections.emptyMap();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.onlab.metrics.MetricsManager;
+import org.onlab.packet.Data;
+import org.onlab.packet.DeserializationException;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.ICMP;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.UDP;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.core.CoreService;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.OutboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.net.packet.PacketProcessor;
+import org.onosproject.net.packet.PacketService;
+import org.onosproject.p4bench.Stubs;
+import org.onosproject.p4common.FlowRuleBatchService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.service.component.ComponentContext;
+
+import java.nio.ByteBuffer;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.onosproject.severalpingp4.SeveralPingP4Const.DETECTION_MODE;
+import static org.onosproject.severalpingp4.SeveralPingP4Const.MAX_PINGS;
+
+/**
+ * Throughput and allocation of {@code PingPacketProcessor.process} on
+ * synthetic packet-ins.
+ * <p>
+ * Each thread owns an ICMP echo request and a UDP frame and, for every
+ * operation, draws a pair out of the given number of (src, dst) pairs and
+ * writes its MAC addresses into one of them, ICMP for the given share of the
+ * operations. Every pair is therefore reachable whatever its cardinality, and
+ * the benchmark itself does not allocate per operation. Pairs are received
+ * from one of a few devices. Run with {@code -t N} to share the component
+ * between N threads.
+ * <p>
+ * With the default limit no pair is ever banned, so ICMP frames take the
+ * counting path; a low limit bans the pairs during warmup and measures the
+ * blocked path instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PingPacketProcessorBenchmark {
+
+    private static final int DEVICES = 4;
+    private static final int PORTS = 8;
+    private static final long SRC_MAC = 0x020000000000L;
+    private static final long DST_MAC = 0x040000000000L;
+
+    /** Percentage of the frames that are ICMP echo requests. */
+    @Param({"100", "50", "5"})
+    public int icmpPercent;
+
+    /** Number of distinct (src, dst) pairs in the frames. */
+    @Param({"16", "4096", "1000000"})
+    public int pairs;
+
+    /** Detection mode of the component. */
+    @Param({"packet", "sketch"})
+    public String mode;
+
+    /** Pings allowed per pair and ban period; the default is never reached. */
+    @Param({"2147483647", "7"})
+    public int maxPings;
+
+    private SeveralPingP4 app;
+    private PacketProcessor processor;
+    private ConnectPoint[] receivedFrom;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        app = new SeveralPingP4();
+        app.coreService = Stubs.of(CoreService.class, (m, a) -> "registerApplication".equals(m.getName()) ?
+                new DefaultApplicationId(1, (String) a[0]) : Stubs.DEFAULT);
+        app.flowRuleService = Stubs.of(FlowRuleService.class);
+        app.packetService = Stubs.of(PacketService.class);
+        app.ruleBatchService = Stubs.of(FlowRuleBatchService.class);
+        app.hostService = Stubs.of(HostService.class);
+        app.deviceService = Stubs.of(DeviceService.class);
+        app.cfgService = Stubs.of(ComponentConfigService.class);
+        app.metricsService = new MetricsManager();
+
+        Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put(DETECTION_MODE, mode);
+        properties.put(MAX_PINGS, maxPings);
+        app.activate(Stubs.of(ComponentContext.class, (m, a) -> "getProperties".equals(m.getName()) ?
+                properties : Stubs.DEFAULT));
+        processor = app.new PingPacketProcessor();
+
+        receivedFrom = new ConnectPoint[DEVICES * PORTS];
+        for (int i = 0; i < receivedFrom.length; i++) {
+            receivedFrom[i] = new ConnectPoint(DeviceId.deviceId("device:s" + (i % DEVICES + 1)),
+                                               PortNumber.portNumber(1 + i % PORTS));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.deactivate();
+    }
+
+    // Echo request or UDP datagram of 56 data bytes for a pair
+    private static ByteBuffer frame(int pair, boolean icmp) {
+        IPv4 ip = new IPv4();
+        ip.setSourceAddress(0x0a000000 | pair);
+        ip.setDestinationAddress(0x0b000000 | pair);
+        ip.setTtl((byte) 64);
+        if (icmp) {
+            ICMP echo = new ICMP();
+            echo.setIcmpType(ICMP.TYPE_ECHO_REQUEST);
+            echo.setPayload(new Data(new byte[60]));
+            ip.setProtocol(IPv4.PROTOCOL_ICMP);
+            ip.setPayload(echo);
+        } else {
+            UDP udp = new UDP();
+            udp.setSourcePort(5000);
+            udp.setDestinationPort(5001);
+            udp.setPayload(new Data(new byte[56]));
+            ip.setProtocol(IPv4.PROTOCOL_UDP);
+            ip.setPayload(udp);
+        }
+        Ethernet eth = new Ethernet();
+        eth.setSourceMACAddress(MacAddress.valueOf(SRC_MAC | pair));
+        eth.setDestinationMACAddress(MacAddress.valueOf(DST_MAC | pair));
+        eth.setEtherType(Ethernet.TYPE_IPV4);
+        eth.setPayload(ip);
+        return ByteBuffer.wrap(eth.serialize());
+    }
+
+    // Writes the pair into the low 32 bits of both MAC addresses of a frame
+    private static void setPair(ByteBuffer frame, int pair) {
+        frame.putInt(2, pair);
+        frame.putInt(8, pair);
+    }
+
+    /**
+     * Per-thread frames, random state and the packet context reused for them.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final BenchPacketContext context = new BenchPacketContext();
+        private final ByteBuffer icmpFrame = frame(0, true);
+        private final ByteBuffer udpFrame = frame(0, false);
+        private long seed;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            seed = Thread.currentThread().getId() * 0x9e3779b97f4a7c15L | 1;
+        }
+
+        // Next value of a xorshift generator, never zero
+        private long next() {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            return seed;
+        }
+    }
+
+    @Benchmark
+    public boolean process(Cursor cursor) {
+        long random = cursor.next();
+        int pair = (int) ((random >>> 1) % pairs);
+        boolean icmp = (int) ((random >>> 40) % 100) < icmpPercent;
+        ByteBuffer frame = icmp ? cursor.icmpFrame : cursor.udpFrame;
+        setPair(frame, pair);
+        BenchPacketContext context = cursor.context;
+        context.reset(receivedFrom[pair % receivedFrom.length], frame);
+        processor.process(context);
+        return context.isHandled();
+    }
+
+    // Packet context and inbound packet reset for each frame instead of allocated
+    private static final class BenchPacketContext implements PacketContext, InboundPacket {
+        private ConnectPoint receivedFrom;
+        private ByteBuffer frame;
+        private boolean handled;
+
+        private void reset(ConnectPoint receivedFrom, ByteBuffer frame) {
+            this.receivedFrom = receivedFrom;
+            this.frame = frame;
+            this.handled = false;
+        }
+
+        @Override
+        public long time() {
+            return 0;
+        }
+
+        @Override
+        public InboundPacket inPacket() {
+            return this;
+        }
+
+        @Override
+        public OutboundPacket outPacket() {
+            return null;
+        }
+
+        @Override
+        public TrafficTreatment.Builder treatmentBuilder() {
+            return null;
+        }
+
+        @Override
+        public void send() {
+        }
+
+        @Override
+        public boolean block() {
+            boolean wasHandled = handled;
+            handled = true;
+            return !wasHandled;
+        }
+
+        @Override
+        public boolean isHandled() {
+            return handled;
+        }
+
+        @Override
+        public ConnectPoint receivedFrom() {
+            return receivedFrom;
+        }
+
+        @Override
+        public Ethernet parsed() {
+            try {
+                return Ethernet.deserializer().deserialize(frame.array(), 0, frame.limit());
+            } catch (DeserializationException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public ByteBuffer unparsed() {
+            // DefaultInboundPacket hands out the buffer itself as well
+            return frame;
+        }
+
+        @Override
+        public Optional<Long> cookie() {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+import org.onlab.metrics.MetricsManager;
+import org.onlab.packet.ChassisId;
+import org.onosproject.app.ApplicationService;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.core.CoreService;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.AbstractProjectableModel;
+import org.onosproject.net.DefaultDevice;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.driver.DriverService;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.pi.model.PiActionId;
+import org.onosproject.net.pi.model.PiMatchFieldId;
+import org.onosproject.net.pi.model.PiTableId;
+import org.onosproject.net.pi.runtime.PiAction;
+import org.onosproject.net.pi.service.PiPipeconfService;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.p4bench.Stubs;
+import org.onosproject.p4common.FlowRuleBatchService;
+import org.onosproject.traficban.rest.AppWebResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.service.component.ComponentContext;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and allocation of {@code QosRestManager.addRule} and
+ * {@code deleteRule} with in-memory device and flow rule stand-ins.
+ * <p>
+ * Every device starts with a table of unrelated entries, as a switch already
+ * forwarding traffic would. Rules are added and deleted in pairs so the
+ * tables keep their size across iterations. Each call waits for its operation
+ * to complete, so the device writes fanned out over the executor threads are
+ * part of the measure. The benchmarks are meant to run on a single thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QosRestManagerBenchmark {
+
+    private static final int BASE_ENTRIES = 64;
+    private static final String TABLE0 = "ingress.table0_control.table0";
+    private static final String DROP = "ingress.table0_control.drop";
+
+    /** Number of stratum devices known to the device service. */
+    @Param({"1", "10", "100", "1000"})
+    public int devices;
+
+    /** Threads writing to devices in parallel. */
+    @Param({"1", "8"})
+    public int threads;
+
+    private QosRestManager manager;
+    private final Map<DeviceId, List<FlowEntry>> tables = new ConcurrentHashMap<>();
+    private final AppWebResource.QosJson icmpDrop = new AppWebResource.QosJson("icmp", TABLE0, DROP, "");
+    private int nextRule = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Devices look their driver up when asked for a behaviour; none is bound here
+        AbstractProjectableModel.setDriverService(this, Stubs.of(DriverService.class));
+
+        List<Device> available = new ArrayList<>();
+        ProviderId provider = new ProviderId("p4runtime", "org.onosproject.bench");
+        for (int i = 1; i <= devices; i++) {
+            DeviceId deviceId = DeviceId.deviceId("device:s" + i);
+            available.add(new DefaultDevice(provider, deviceId, Device.Type.SWITCH,
+                                            "bmv2", "1.0", "1.0", "0", new ChassisId(i)));
+            List<FlowEntry> table = new CopyOnWriteArrayList<>();
+            for (int n = 0; n < BASE_ENTRIES; n++) {
+                table.add(new DefaultFlowEntry(forwardingRule(deviceId, n)));
+            }
+            tables.put(deviceId, table);
+        }
+
+        manager = new QosRestManager();
+        manager.deviceService = Stubs.of(DeviceService.class, (m, a) ->
+                "getAvailableDevices".equals(m.getName()) || "getDevices".equals(m.getName()) ?
+                        available : Stubs.DEFAULT);
+        manager.flowRuleService = Stubs.of(FlowRuleService.class, (m, a) ->
+                "getFlowEntries".equals(m.getName()) ? tables.get((DeviceId) a[0]) : Stubs.DEFAULT);
+        // No pipeconf: templates are compiled unchecked, once for every device
+        manager.pipeconfService = Stubs.of(PiPipeconfService.class);
+        manager.ruleBatchService = Stubs.of(FlowRuleBatchService.class, (m, a) -> {
+            switch (m.getName()) {
+                case "install":
+                    tables.get(((FlowRule) a[0]).deviceId()).add(new DefaultFlowEntry((FlowRule) a[0]));
+                    return CompletableFuture.completedFuture(null);
+                case "remove":
+                    tables.get(((FlowRule) a[0]).deviceId()).removeIf(e -> e.id().equals(((FlowRule) a[0]).id()));
+                    return CompletableFuture.completedFuture(null);
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        manager.coreService = Stubs.of(CoreService.class, (m, a) -> "registerApplication".equals(m.getName()) ?
+                new DefaultApplicationId(1, (String) a[0]) : Stubs.DEFAULT);
+        manager.applicationService = Stubs.of(ApplicationService.class);
+        manager.cfgService = Stubs.of(ComponentConfigService.class);
+        manager.metricsService = new MetricsManager();
+        Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put("FANOUT_THREADS", threads);
+        manager.activate(Stubs.of(ComponentContext.class, (m, a) -> "getProperties".equals(m.getName()) ?
+                properties : Stubs.DEFAULT));
+
+        // Rule that every addExistingRule call finds already installed
+        manager.addRule("existing", icmpDrop).completion().join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.deactivate();
+    }
+
+    // Unrelated entry forwarding one destination port
+    private static FlowRule forwardingRule(DeviceId deviceId, int n) {
+        PiCriterion match = PiCriterion.builder()
+                .matchTernary(PiMatchFieldId.of("local_metadata.l4_dst_port"), 1000 + n, 0xffff)
+                .build();
+        return DefaultFlowRule.builder()
+                .forDevice(deviceId).fromApp(new DefaultApplicationId(2, "org.onosproject.fwd"))
+                .makePermanent().withPriority(10)
+                .forTable(PiTableId.of(TABLE0))
+                .withSelector(DefaultTrafficSelector.builder().matchPi(match).build())
+                .withTreatment(DefaultTrafficTreatment.builder()
+                                       .piTableAction(PiAction.builder()
+                                                              .withId(PiActionId.of(DROP)).build())
+                                       .build())
+                .build();
+    }
+
+    @Benchmark
+    public void addThenDeleteRule() {
+        String idRule = "rule" + (nextRule++ & 1023);
+        manager.addRule(idRule, icmpDrop).completion().join();
+        manager.deleteRule(idRule).completion().join();
+    }
+
+    @Benchmark
+    public void addExistingRule() {
+        manager.addRule("existing", icmpDrop).completion().join();
+    }
+
+    @Benchmark
+    public void deleteMissingRule() {
+        manager.deleteRule("missing").completion().join();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.p4common;
+
+import org.onosproject.net.DeviceId;
+
+/**
+ * Snapshot of the flow rule confirmation latencies of one device.
+ */
+public final class DeviceLatency {
+
+    private final DeviceId deviceId;
+    private final LatencyStats installs;
+    private final LatencyStats removals;
+    private final int pending;
+    private final long unconfirmed;
+    private final long failed;
+
+    DeviceLatency(DeviceId deviceId, LatencyStats installs, LatencyStats removals,
+                  int pending, long unconfirmed, long failed) {
+        this.deviceId = deviceId;
+        this.installs = installs;
+        this.removals = removals;
+        this.pending = pending;
+        this.unconfirmed = unconfirmed;
+        this.failed = failed;
+    }
+
+    /**
+     * Returns the device the latencies belong to.
+     *
+     * @return device id
+     */
+    public DeviceId deviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Returns the time from submitting an install to the rule being ADDED.
+     *
+     * @return install latencies
+     */
+    public LatencyStats installs() {
+        return installs;
+    }
+
+    /**
+     * Returns the time from submitting a removal to the rule being REMOVED.
+     *
+     * @return removal latencies
+     */
+    public LatencyStats removals() {
+        return removals;
+    }
+
+    /**
+     * Returns the number of operations waiting for the device to confirm.
+     *
+     * @return pending operations
+     */
+    public int pending() {
+        return pending;
+    }
+
+    /**
+     * Returns the number of operations the device never confirmed in time.
+     *
+     * @return unconfirmed operations
+     */
+    public long unconfirmed() {
+        return unconfirmed;
+    }
+
+    /**
+     * Returns the number of operations the device rejected.
+     *
+     * @return failed operations
+     */
+    public long failed() {
+        return failed;
+    }
+}
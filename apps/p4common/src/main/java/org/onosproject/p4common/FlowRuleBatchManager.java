@@ -0,0 +1,266 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.p4common;
+
+import com.google.common.base.Strings;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
+import org.onosproject.net.flow.FlowRuleService;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.onlab.util.Tools.groupedThreads;
+import static org.onosproject.p4common.P4CommonConst.*;
+
+/**
+ * Coalesces flow rule writes per device into batched FlowRuleOperations.
+ */
+@Component(immediate = true,
+        service = FlowRuleBatchService.class,
+        property = {
+                BATCH_WINDOW_MS + ":Integer=" + BATCH_WINDOW_MS_DEFAULT,
+                BATCH_SIZE + ":Integer=" + BATCH_SIZE_DEFAULT,
+        })
+public class FlowRuleBatchManager implements FlowRuleBatchService {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final String CHANGE_PROPERTIES =
+            "Propiedades cambiadas a: ventana de {} ms y lotes de {} reglas";
+    private static final String MSG_BATCH_FAILED =
+            "Fallaron {} de {} operaciones del lote para {}";
+
+    /** Configure how long operations are held to form a batch; default is 20 ms. */
+    private int BATCH_WINDOW_MS = BATCH_WINDOW_MS_DEFAULT;
+
+    /** Configure the number of operations that flushes a batch early; default is 256. */
+    private int BATCH_SIZE = BATCH_SIZE_DEFAULT;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected FlowRuleService flowRuleService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService cfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected FlowRuleLatencyService latencyService;
+
+    private final ConcurrentMap<DeviceId, DeviceBatch> batches = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher;
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private volatile int lastBatchSize = 0;
+    private volatile int maxBatchSize = 0;
+    private volatile long lastLatency = 0;
+    private volatile long maxLatency = 0;
+
+    @Activate
+    public void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        modified(context);
+        flusher = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("onos/p4common", "rule-batcher", log));
+        log.info("Started");
+    }
+
+    @Deactivate
+    public void deactivate() {
+        // Write whatever is still queued before going away
+        batches.values().forEach(DeviceBatch::flush);
+        batches.clear();
+        flusher.shutdown();
+        cfgService.unregisterProperties(getClass(), false);
+        log.info("Stopped");
+    }
+
+    @Modified
+    public void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+
+        String s = Tools.get(properties, "BATCH_WINDOW_MS");
+        BATCH_WINDOW_MS = Strings.isNullOrEmpty(s) ? BATCH_WINDOW_MS_DEFAULT : Integer.parseInt(s.trim());
+
+        s = Tools.get(properties, "BATCH_SIZE");
+        BATCH_SIZE = Strings.isNullOrEmpty(s) ? BATCH_SIZE_DEFAULT : Integer.parseInt(s.trim());
+
+        log.info(CHANGE_PROPERTIES, BATCH_WINDOW_MS, BATCH_SIZE);
+    }
+
+    @Override
+    public CompletableFuture<Void> install(FlowRule rule) {
+        return enqueue(new FlowRuleOperation(rule, FlowRuleOperation.Type.ADD));
+    }
+
+    @Override
+    public CompletableFuture<Void> remove(FlowRule rule) {
+        return enqueue(new FlowRuleOperation(rule, FlowRuleOperation.Type.REMOVE));
+    }
+
+    @Override
+    public long batchCount() {
+        return batchCount.get();
+    }
+
+    @Override
+    public int lastBatchSize() {
+        return lastBatchSize;
+    }
+
+    @Override
+    public int maxBatchSize() {
+        return maxBatchSize;
+    }
+
+    @Override
+    public long lastBatchLatencyMillis() {
+        return lastLatency;
+    }
+
+    @Override
+    public long maxBatchLatencyMillis() {
+        return maxLatency;
+    }
+
+    private CompletableFuture<Void> enqueue(FlowRuleOperation operation) {
+        PendingOperation pending = new PendingOperation(operation);
+        // The latency of the write counts from here, batch window included
+        latencyService.stamp(operation.rule(), operation.type() == FlowRuleOperation.Type.ADD);
+        batches.computeIfAbsent(operation.rule().deviceId(), DeviceBatch::new).add(pending);
+        return pending.future;
+    }
+
+    // Records the size and latency of a confirmed batch
+    private void recordBatch(int size, long startNanos) {
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        batchCount.incrementAndGet();
+        lastBatchSize = size;
+        maxBatchSize = Math.max(maxBatchSize, size);
+        lastLatency = latency;
+        maxLatency = Math.max(maxLatency, latency);
+    }
+
+    // Operation waiting in a batch and the future of its caller
+    private static final class PendingOperation {
+        private final FlowRuleOperation operation;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingOperation(FlowRuleOperation operation) {
+            this.operation = operation;
+        }
+    }
+
+    // Operations queued for one device
+    private final class DeviceBatch {
+        private final DeviceId deviceId;
+        private List<PendingOperation> pending = new ArrayList<>();
+        private boolean scheduled = false;
+
+        private DeviceBatch(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        private void add(PendingOperation operation) {
+            boolean flushNow;
+            synchronized (this) {
+                pending.add(operation);
+                flushNow = pending.size() >= BATCH_SIZE;
+                if (!flushNow && !scheduled) {
+                    scheduled = true;
+                    flusher.schedule(this::flush, BATCH_WINDOW_MS, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (flushNow) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            List<PendingOperation> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new ArrayList<>();
+                scheduled = false;
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            // Operations on the same rule go to separate stages to keep their order
+            FlowRuleOperations.Builder builder = FlowRuleOperations.builder();
+            Set<FlowId> stage = new HashSet<>();
+            for (PendingOperation p : batch) {
+                if (!stage.add(p.operation.rule().id())) {
+                    builder.newStage();
+                    stage.clear();
+                    stage.add(p.operation.rule().id());
+                }
+                builder.operation(p.operation);
+            }
+
+            long start = System.nanoTime();
+            flowRuleService.apply(builder.build(new FlowRuleOperationsContext() {
+                @Override
+                public void onSuccess(FlowRuleOperations ops) {
+                    recordBatch(batch.size(), start);
+                    batch.forEach(p -> p.future.complete(null));
+                }
+
+                @Override
+                public void onError(FlowRuleOperations ops) {
+                    recordBatch(batch.size(), start);
+                    Set<FlowId> failed = new HashSet<>();
+                    ops.stages().forEach(s -> s.forEach(op -> failed.add(op.rule().id())));
+                    log.warn(MSG_BATCH_FAILED, failed.size(), batch.size(), deviceId);
+                    for (PendingOperation p : batch) {
+                        if (failed.contains(p.operation.rule().id())) {
+                            latencyService.failed(p.operation.rule());
+                            p.future.completeExceptionally(
+                                    new IllegalStateException("Flow rule operation failed: " + p.operation));
+                        } else {
+                            p.future.complete(null);
+                        }
+                    }
+                }
+            }));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.p4common;
+
+import org.onosproject.net.flow.FlowRule;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Rule-write pipeline that coalesces flow rule installs and removals.
+ * <p>
+ * Operations are queued per device and written as a single
+ * {@code FlowRuleOperations} once the batch window elapses or the batch is
+ * full, whichever comes first.
+ */
+public interface FlowRuleBatchService {
+
+    /**
+     * Queues the installation of a flow rule.
+     *
+     * @param rule flow rule to install
+     * @return future completed when the batch holding the rule is confirmed,
+     * or completed exceptionally if the rule could not be installed
+     */
+    CompletableFuture<Void> install(FlowRule rule);
+
+    /**
+     * Queues the removal of a flow rule.
+     *
+     * @param rule flow rule to remove
+     * @return future completed when the batch holding the rule is confirmed,
+     * or completed exceptionally if the rule could not be removed
+     */
+    CompletableFuture<Void> remove(FlowRule rule);
+
+    /**
+     * Returns the number of batches written since activation.
+     *
+     * @return number of batches
+     */
+    long batchCount();
+
+    /**
+     * Returns the number of operations in the last batch written.
+     *
+     * @return size of the last batch
+     */
+    int lastBatchSize();
+
+    /**
+     * Returns the largest batch written since activation.
+     *
+     * @return largest batch size
+     */
+    int maxBatchSize();
+
+    /**
+     * Returns the time between writing the last completed batch and its
+     * confirmation.
+     *
+     * @return latency of the last batch in milliseconds
+     */
+    long lastBatchLatencyMillis();
+
+    /**
+     * Returns the largest batch latency observed since activation.
+     *
+     * @return largest latency in milliseconds
+     */
+    long maxBatchLatencyMillis();
+}
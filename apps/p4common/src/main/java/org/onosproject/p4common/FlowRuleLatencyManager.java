@@ -0,0 +1,268 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.p4common;
+
+import com.google.common.base.Strings;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleService;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.onlab.util.Tools.groupedThreads;
+import static org.onosproject.p4common.P4CommonConst.*;
+
+/**
+ * Tracks the time from submitting a flow rule write to the device confirming it.
+ * <p>
+ * Writes made through {@link FlowRuleBatchService} are stamped when they are
+ * queued, so their latency includes the batch window. Writes an application
+ * makes straight through FlowRuleService are stamped when the core reports
+ * the request, once that application has submitted through the batching
+ * service. The RULE_ADDED or RULE_REMOVED event of the rule
+ * closes its stamp into the histograms of its device.
+ */
+@Component(immediate = true,
+        service = FlowRuleLatencyService.class,
+        property = {
+                CONFIRM_TIMEOUT_MS + ":Integer=" + CONFIRM_TIMEOUT_MS_DEFAULT,
+        })
+public class FlowRuleLatencyManager implements FlowRuleLatencyService {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final String CHANGE_PROPERTIES =
+            "Propiedades cambiadas a: confirmacion esperada durante {} ms";
+    private static final String MSG_UNCONFIRMED =
+            "{} operaciones sin confirmar tras {} ms";
+
+    //Operaciones sin confirmar que se conservan para su consulta
+    private static final int RECENT_UNCONFIRMED = 256;
+    //Periodo de la busqueda de operaciones sin confirmar
+    private static final long SWEEP_MS = 1000;
+
+    /** Configure how long a write may wait for its device to confirm it; default is 5000 ms. */
+    private int CONFIRM_TIMEOUT_MS = CONFIRM_TIMEOUT_MS_DEFAULT;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected FlowRuleService flowRuleService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService cfgService;
+
+    private final ConcurrentMap<FlowId, Stamp> stamps = new ConcurrentHashMap<>();
+    private final ConcurrentMap<DeviceId, DeviceStats> devices = new ConcurrentHashMap<>();
+    // Applications whose writes are tracked
+    private final Set<Short> apps = ConcurrentHashMap.newKeySet();
+    private final Deque<String> recentUnconfirmed = new ArrayDeque<>();
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+    private ScheduledExecutorService sweeper;
+
+    @Activate
+    public void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        modified(context);
+        sweeper = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("onos/p4common", "latency-sweeper", log));
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_MS, SWEEP_MS, TimeUnit.MILLISECONDS);
+        flowRuleService.addListener(flowRuleListener);
+        log.info("Started");
+    }
+
+    @Deactivate
+    public void deactivate() {
+        flowRuleService.removeListener(flowRuleListener);
+        sweeper.shutdownNow();
+        stamps.clear();
+        devices.clear();
+        apps.clear();
+        cfgService.unregisterProperties(getClass(), false);
+        log.info("Stopped");
+    }
+
+    @Modified
+    public void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+
+        String s = Tools.get(properties, "CONFIRM_TIMEOUT_MS");
+        CONFIRM_TIMEOUT_MS = Strings.isNullOrEmpty(s) ? CONFIRM_TIMEOUT_MS_DEFAULT : Integer.parseInt(s.trim());
+
+        log.info(CHANGE_PROPERTIES, CONFIRM_TIMEOUT_MS);
+    }
+
+    @Override
+    public void stamp(FlowRule rule, boolean install) {
+        apps.add(rule.appId());
+        stamps.put(rule.id(), new Stamp(rule, install));
+    }
+
+    @Override
+    public void failed(FlowRule rule) {
+        if (stamps.remove(rule.id()) != null) {
+            stats(rule.deviceId()).failed.incrementAndGet();
+        }
+    }
+
+    @Override
+    public List<DeviceLatency> latencies() {
+        Map<DeviceId, Integer> pending = new HashMap<>();
+        stamps.values().forEach(s -> pending.merge(s.rule.deviceId(), 1, Integer::sum));
+        List<DeviceLatency> latencies = new ArrayList<>();
+        devices.forEach((deviceId, stats) -> latencies.add(new DeviceLatency(
+                deviceId, new LatencyStats(stats.installs), new LatencyStats(stats.removals),
+                pending.getOrDefault(deviceId, 0), stats.unconfirmed.get(), stats.failed.get())));
+        return latencies;
+    }
+
+    @Override
+    public long quantileMicros(DeviceId deviceId, boolean install, double quantile) {
+        DeviceStats stats = devices.get(deviceId);
+        if (stats == null) {
+            return -1;
+        }
+        return (install ? stats.installs : stats.removals).quantile(quantile);
+    }
+
+    @Override
+    public List<String> unconfirmed() {
+        synchronized (recentUnconfirmed) {
+            return new ArrayList<>(recentUnconfirmed);
+        }
+    }
+
+    private DeviceStats stats(DeviceId deviceId) {
+        return devices.computeIfAbsent(deviceId, d -> new DeviceStats());
+    }
+
+    // Closes the stamp of a rule if it is waiting for this kind of confirmation
+    private void confirm(FlowRule rule, boolean install) {
+        Stamp stamp = stamps.get(rule.id());
+        if (stamp != null && stamp.install == install && stamps.remove(rule.id(), stamp)) {
+            DeviceStats stats = stats(rule.deviceId());
+            (install ? stats.installs : stats.removals).record(System.nanoTime() - stamp.nanos);
+        }
+    }
+
+    // Flags and drops the writes that waited too long for their device
+    private void sweep() {
+        try {
+            long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(CONFIRM_TIMEOUT_MS);
+            int flagged = 0;
+            for (Stamp stamp : stamps.values()) {
+                if (stamp.nanos - deadline < 0 && stamps.remove(stamp.rule.id(), stamp)) {
+                    stats(stamp.rule.deviceId()).unconfirmed.incrementAndGet();
+                    synchronized (recentUnconfirmed) {
+                        if (recentUnconfirmed.size() >= RECENT_UNCONFIRMED) {
+                            recentUnconfirmed.removeFirst();
+                        }
+                        recentUnconfirmed.addLast(stamp.toString());
+                    }
+                    flagged++;
+                }
+            }
+            if (flagged > 0) {
+                log.warn(MSG_UNCONFIRMED, flagged, CONFIRM_TIMEOUT_MS);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Fallo al buscar operaciones sin confirmar", e);
+        }
+    }
+
+    // Write waiting for its device
+    private static final class Stamp {
+        private final FlowRule rule;
+        private final boolean install;
+        private final long nanos = System.nanoTime();
+        private final long submitted = System.currentTimeMillis();
+
+        private Stamp(FlowRule rule, boolean install) {
+            this.rule = rule;
+            this.install = install;
+        }
+
+        @Override
+        public String toString() {
+            return (install ? "install " : "remove ") + rule.id() + " en " + rule.deviceId() +
+                    " tabla " + rule.table() + " enviada a las " + submitted;
+        }
+    }
+
+    // Latencies and failures of one device
+    private static final class DeviceStats {
+        private final LatencyHistogram installs = new LatencyHistogram();
+        private final LatencyHistogram removals = new LatencyHistogram();
+        private final AtomicLong unconfirmed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+    }
+
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public boolean isRelevant(FlowRuleEvent event) {
+            return apps.contains(event.subject().appId());
+        }
+
+        @Override
+        public void event(FlowRuleEvent event) {
+            FlowRule rule = event.subject();
+            switch (event.type()) {
+                case RULE_ADD_REQUESTED:
+                case RULE_REMOVE_REQUESTED:
+                    // A stamp from the batching service is older; only a write of the other kind replaces it
+                    boolean install = event.type() == FlowRuleEvent.Type.RULE_ADD_REQUESTED;
+                    stamps.compute(rule.id(), (id, stamp) ->
+                            stamp != null && stamp.install == install ? stamp : new Stamp(rule, install));
+                    break;
+                case RULE_ADDED:
+                    // Not RULE_UPDATED: it comes with every stats poll of a rule already ADDED,
+                    // which would confirm a re-install before the device has it
+                    confirm(rule, true);
+                    break;
+                case RULE_REMOVED:
+                    confirm(rule, false);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.p4common;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+
+import java.util.List;
+
+/**
+ * Measures how long devices take to confirm flow rule writes.
+ * <p>
+ * A write is stamped when it is submitted and matched to the RULE_ADDED or
+ * RULE_REMOVED event of its rule; writes left unconfirmed for too long are
+ * flagged and dropped.
+ */
+public interface FlowRuleLatencyService {
+
+    /**
+     * Stamps a flow rule write as submitted now.
+     *
+     * @param rule    flow rule written
+     * @param install true for an install, false for a removal
+     */
+    void stamp(FlowRule rule, boolean install);
+
+    /**
+     * Drops the stamp of a write the device rejected.
+     *
+     * @param rule flow rule written
+     */
+    void failed(FlowRule rule);
+
+    /**
+     * Returns the latencies of every device seen so far.
+     *
+     * @return latencies, one per device
+     */
+    List<DeviceLatency> latencies();
+
+    /**
+     * Returns the confirmation latency a given fraction of the writes on a
+     * device did not exceed, for deriving batch windows and timeouts.
+     *
+     * @param deviceId device
+     * @param install  true for installs, false for removals
+     * @param quantile fraction of the writes, from 0 to 1
+     * @return latency in microseconds, -1 if the device has confirmed none
+     */
+    long quantileMicros(DeviceId deviceId, boolean install, double quantile);
+
+    /**
+     * Returns the most recent writes flagged as never confirmed, oldest first.
+     *
+     * @return formatted writes
+     */
+    List<String> unconfirmed();
+}
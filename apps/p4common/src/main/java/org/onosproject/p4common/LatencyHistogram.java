@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.p4common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with fixed log-linear buckets, in microseconds.
+ * <p>
+ * Each power of two is split into 16 buckets, so a quantile is off by at
+ * most 1/16 of its value. Recording increments one bucket and allocates
+ * nothing; reading walks every bucket, so quantiles are for reporting and
+ * occasional decisions, not for each sample.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Values from 2^MAGNITUDES us, about 12 days, go to the last bucket
+    private static final int MAGNITUDES = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray((MAGNITUDES - SUB_BITS + 1) * SUB_BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos latency in nanoseconds
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        buckets.incrementAndGet(index(micros));
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+            // Another thread raised the maximum; check again
+        }
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     *
+     * @return samples
+     */
+    long count() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the largest latency recorded.
+     *
+     * @return maximum in microseconds
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns the latency a given fraction of the samples does not exceed.
+     *
+     * @param quantile fraction of the samples, from 0 to 1
+     * @return upper bound of the bucket holding the quantile in microseconds, -1 if no samples
+     */
+    long quantile(double quantile) {
+        long count = count();
+        if (count == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+        if (magnitude >= MAGNITUDES) {
+            return buckets.length() - 1;
+        }
+        return (magnitude - SUB_BITS + 1) * SUB_BUCKETS +
+                (int) ((micros >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBound(int index) {
+        int block = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        if (block == 0) {
+            return sub;
+        }
+        int shift = block - 1;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
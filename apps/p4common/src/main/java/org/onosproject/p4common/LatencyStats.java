@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.p4common;
+
+/**
+ * Summary of the latencies of one kind of flow rule operation on a device.
+ */
+public final class LatencyStats {
+
+    private final long count;
+    private final long p50Micros;
+    private final long p90Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    LatencyStats(LatencyHistogram histogram) {
+        this.count = histogram.count();
+        this.p50Micros = histogram.quantile(0.5);
+        this.p90Micros = histogram.quantile(0.9);
+        this.p99Micros = histogram.quantile(0.99);
+        this.maxMicros = histogram.max();
+    }
+
+    /**
+     * Returns the number of operations confirmed by the device.
+     *
+     * @return confirmed operations
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Returns the median latency.
+     *
+     * @return median in microseconds, -1 if no samples
+     */
+    public long p50Micros() {
+        return p50Micros;
+    }
+
+    /**
+     * Returns the latency 90% of the operations do not exceed.
+     *
+     * @return 90th percentile in microseconds, -1 if no samples
+     */
+    public long p90Micros() {
+        return p90Micros;
+    }
+
+    /**
+     * Returns the latency 99% of the operations do not exceed.
+     *
+     * @return 99th percentile in microseconds, -1 if no samples
+     */
+    public long p99Micros() {
+        return p99Micros;
+    }
+
+    /**
+     * Returns the largest latency recorded.
+     *
+     * @return maximum in microseconds, 0 if no samples
+     */
+    public long maxMicros() {
+        return maxMicros;
+    }
+}
@@ -0,0 +1,16 @@
+package org.onosproject.p4common;
+
+public class P4CommonConst {
+
+    private P4CommonConst() {
+    }
+
+    static final String BATCH_WINDOW_MS = "BATCH_WINDOW_MS";
+    static final int BATCH_WINDOW_MS_DEFAULT = 20;
+
+    static final String BATCH_SIZE = "BATCH_SIZE";
+    static final int BATCH_SIZE_DEFAULT = 256;
+
+    static final String CONFIRM_TIMEOUT_MS = "CONFIRM_TIMEOUT_MS";
+    static final int CONFIRM_TIMEOUT_MS_DEFAULT = 5000;
+}
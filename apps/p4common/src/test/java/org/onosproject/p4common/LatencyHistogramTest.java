@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.p4common;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the log-linear latency histogram.
+ */
+public class LatencyHistogramTest {
+
+    private static final long NANOS_PER_MICRO = 1000;
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(-1, histogram.quantile(0.5));
+
+        LatencyStats stats = new LatencyStats(histogram);
+        assertEquals(-1, stats.p99Micros());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 0; micros < 32; micros++) {
+            histogram.record(micros * NANOS_PER_MICRO);
+        }
+        assertEquals(32, histogram.count());
+        assertEquals(31, histogram.max());
+        assertEquals(0, histogram.quantile(0));
+        assertEquals(15, histogram.quantile(0.5));
+        assertEquals(31, histogram.quantile(1));
+    }
+
+    @Test
+    public void quantilesWithinOneSixteenth() {
+        Random random = new Random(25);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] micros = new long[10000];
+        for (int i = 0; i < micros.length; i++) {
+            // Spread over several powers of two, from microseconds to seconds
+            micros[i] = (long) Math.pow(2, random.nextDouble() * 22);
+            histogram.record(micros[i] * NANOS_PER_MICRO + random.nextInt(1000));
+        }
+        Arrays.sort(micros);
+        for (double q : new double[]{0.01, 0.1, 0.5, 0.9, 0.99, 0.999, 1}) {
+            long exact = micros[(int) Math.ceil(q * micros.length) - 1];
+            long estimate = histogram.quantile(q);
+            assertTrue(q + ": " + estimate + " < " + exact, estimate >= exact);
+            assertTrue(q + ": " + estimate + " > " + exact, estimate <= exact + exact / 16);
+        }
+        assertEquals(micros[micros.length - 1], histogram.max());
+    }
+
+    @Test
+    public void quantileDoesNotPassMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1000 us falls in the bucket 992..1023
+        histogram.record(1000 * NANOS_PER_MICRO);
+        assertEquals(1000, histogram.quantile(0.5));
+        histogram.record(1010 * NANOS_PER_MICRO);
+        assertEquals(1010, histogram.quantile(1));
+        assertEquals(1010, histogram.quantile(0.5));
+    }
+
+    @Test
+    public void extremeValuesAreKept() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(999);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(3, histogram.count());
+        assertEquals(0, histogram.quantile(0.5));
+        assertEquals(Long.MAX_VALUE / NANOS_PER_MICRO, histogram.max());
+        // Values from 2^40 us share the last bucket, reported by its upper bound
+        assertEquals((1L << 40) - 1, histogram.quantile(1));
+    }
+
+    @Test
+    public void concurrentRecordsAreCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int threads = 4;
+        int perThread = 50000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            long base = t * 1000L;
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record((base + i % 1000) * NANOS_PER_MICRO);
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals((long) threads * perThread, histogram.count());
+        assertEquals((threads - 1) * 1000L + 999, histogram.max());
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Table of the (device, src, dst) pairs whose pings are banned.
+ * <p>
+ * Each ban goes through PENDING_INSTALL, ACTIVE and PENDING_REMOVE, and is
+ * indexed both by its packed key and by the id of its drop rule so that flow
+ * rule events can drive the transitions. A pair has at most one ban, hence
+ * exactly one drop rule install and one removal.
+ */
+final class BanTable {
+
+    /**
+     * Lifecycle of a ban.
+     */
+    enum State {
+        /** Drop rule submitted, not yet confirmed by the device. */
+        PENDING_INSTALL,
+        /** Drop rule installed on the device. */
+        ACTIVE,
+        /** Drop rule removal submitted, not yet confirmed by the device. */
+        PENDING_REMOVE
+    }
+
+    private final ConcurrentMap<Key, Ban> bans = new ConcurrentHashMap<>();
+    private final ConcurrentMap<FlowId, Ban> bansByRule = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the ban of a pair.
+     *
+     * @param k0 first half of the pair key
+     * @param k1 second half of the pair key
+     * @return ban, or null if the pair is not banned
+     */
+    Ban get(long k0, long k1) {
+        return bans.get(new Key(k0, k1));
+    }
+
+    /**
+     * Returns the ban that owns a drop rule.
+     *
+     * @param rule drop rule
+     * @return ban, or null if the rule does not belong to any ban
+     */
+    Ban get(FlowRule rule) {
+        return bansByRule.get(rule.id());
+    }
+
+    /**
+     * Registers a new ban in PENDING_INSTALL unless the pair is already banned.
+     *
+     * @param k0   first half of the pair key
+     * @param k1   second half of the pair key
+     * @param rule drop rule of the ban
+     * @return the new ban, or null if the pair was already banned
+     */
+    Ban add(long k0, long k1, FlowRule rule) {
+        Ban ban = new Ban(k0, k1, rule);
+        if (bans.putIfAbsent(ban.key, ban) != null) {
+            return null;
+        }
+        bansByRule.put(rule.id(), ban);
+        return ban;
+    }
+
+    /**
+     * Moves a ban from one state to another.
+     *
+     * @param ban  ban to update
+     * @param from expected current state
+     * @param to   new state
+     * @return true if the ban was in the expected state
+     */
+    boolean transition(Ban ban, State from, State to) {
+        synchronized (ban) {
+            if (ban.state != from || !isCurrent(ban)) {
+                return false;
+            }
+            ban.state = to;
+            return true;
+        }
+    }
+
+    /**
+     * Forgets a ban.
+     *
+     * @param ban ban to remove
+     * @return true if the ban was still registered
+     */
+    boolean remove(Ban ban) {
+        synchronized (ban) {
+            bansByRule.remove(ban.rule.id(), ban);
+            return bans.remove(ban.key, ban);
+        }
+    }
+
+    /**
+     * Returns every registered ban.
+     *
+     * @return bans in any state
+     */
+    Collection<Ban> bans() {
+        return bans.values();
+    }
+
+    /**
+     * Returns the number of registered bans.
+     *
+     * @return number of bans
+     */
+    int size() {
+        return bans.size();
+    }
+
+    /**
+     * Forgets every ban.
+     */
+    void clear() {
+        bans.clear();
+        bansByRule.clear();
+    }
+
+    private boolean isCurrent(Ban ban) {
+        return bans.get(ban.key) == ban;
+    }
+
+    /**
+     * Ban of a pair and its drop rule.
+     */
+    static final class Ban {
+        private final Key key;
+        private final FlowRule rule;
+        private volatile State state = State.PENDING_INSTALL;
+        private volatile TimingWheel.Timeout timeout;
+
+        private Ban(long k0, long k1, FlowRule rule) {
+            this.key = new Key(k0, k1);
+            this.rule = rule;
+        }
+
+        long k0() {
+            return key.k0;
+        }
+
+        long k1() {
+            return key.k1;
+        }
+
+        FlowRule rule() {
+            return rule;
+        }
+
+        State state() {
+            return state;
+        }
+
+        TimingWheel.Timeout timeout() {
+            return timeout;
+        }
+
+        void timeout(TimingWheel.Timeout timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    // Packed (device, src, dst) key
+    private static final class Key {
+        private final long k0;
+        private final long k1;
+
+        private Key(long k0, long k1) {
+            this.k0 = k0;
+            this.k1 = k1;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(k0 * 31 + k1);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return k0 == other.k0 && k1 == other.k1;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.MacAddress;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.pi.model.PiActionId;
+import org.onosproject.net.pi.model.PiActionParamId;
+import org.onosproject.net.pi.model.PiMatchFieldId;
+import org.onosproject.net.pi.model.PiTableId;
+import org.onosproject.net.pi.runtime.PiAction;
+import org.onosproject.net.pi.runtime.PiActionParam;
+import org.onosproject.p4common.FlowRuleBatchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Detects ping floods from the table0 direct counters instead of packet-ins.
+ * <p>
+ * For every device, ICMP entries with the table0_counter direct counter are
+ * installed for each pair of hosts attached to it; they forward to the port of
+ * the destination host, so the pings keep flowing without reaching the
+ * controller. Every local host also gets a lower priority entry of its own,
+ * sending to the CPU as the intercept did, which counts the pings towards
+ * destinations that are not attached to the device. When a device has too
+ * many pairs, only these per-source entries are used.
+ * <p>
+ * Counters of all the entries are read once per poll interval; ONOS refreshes
+ * them with a single batched read of the table per device. A pair (or source)
+ * is banned when more than MAX_PINGS packets were counted in the last
+ * TIME_BAN seconds.
+ */
+final class CounterPoller {
+
+    private final Logger log = LoggerFactory.getLogger(CounterPoller.class);
+
+    /** Largest number of per-pair entries on a device before falling back to per-source entries. */
+    static final int MAX_PAIR_ENTRIES = 256;
+
+    /** Destination of the per-source entries, outside the 48-bit MAC range. */
+    static final long ANY_MAC = -1L;
+
+    private static final PiTableId TABLE0 = PiTableId.of("ingress.table0_control.table0");
+    private static final PiActionId SET_EGRESS_PORT = PiActionId.of("ingress.table0_control.set_egress_port");
+    private static final PiActionId SEND_TO_CPU = PiActionId.of("ingress.table0_control.send_to_cpu");
+    private static final PiActionParamId PORT = PiActionParamId.of("port");
+    private static final int COUNT_PRIORITY = 45000;
+    private static final int SOURCE_PRIORITY = COUNT_PRIORITY - 1;
+
+    /**
+     * Receiver of the bans decided from the counters.
+     */
+    interface Banner {
+        /**
+         * Bans the pings from a source to a destination on a device.
+         *
+         * @param deviceId device
+         * @param src      source MAC as a long
+         * @param dst      destination MAC as a long, or {@link #ANY_MAC}
+         */
+        void ban(DeviceId deviceId, long src, long dst);
+    }
+
+    private final ApplicationId appId;
+    private final HostService hostService;
+    private final FlowRuleService flowRuleService;
+    private final FlowRuleBatchService ruleBatchService;
+    private final Banner banner;
+    private final HostListener hostListener = new InternalHostListener();
+
+    // Counting entries installed per device and the window of each entry
+    private final Map<DeviceId, Set<FlowRule>> entries = new ConcurrentHashMap<>();
+    private final Map<FlowId, Window> windows = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService poller;
+    private volatile int maxPings;
+    private volatile int windowPolls;
+
+    CounterPoller(ApplicationId appId, HostService hostService, FlowRuleService flowRuleService,
+                  FlowRuleBatchService ruleBatchService, Banner banner) {
+        this.appId = appId;
+        this.hostService = hostService;
+        this.flowRuleService = flowRuleService;
+        this.ruleBatchService = ruleBatchService;
+        this.banner = banner;
+    }
+
+    /**
+     * Installs the counting entries and starts polling them.
+     *
+     * @param maxPings   ping budget per ban period
+     * @param timeBan    ban period in seconds
+     * @param pollMillis poll interval in milliseconds
+     */
+    void start(int maxPings, int timeBan, int pollMillis) {
+        hostService.addListener(hostListener);
+        refresh();
+        update(maxPings, timeBan, pollMillis);
+    }
+
+    /**
+     * Changes the ping budget and the poll interval, keeping the entries.
+     *
+     * @param maxPings   ping budget per ban period
+     * @param timeBan    ban period in seconds
+     * @param pollMillis poll interval in milliseconds
+     */
+    synchronized void update(int maxPings, int timeBan, int pollMillis) {
+        this.maxPings = maxPings;
+        this.windowPolls = Math.max(1, (int) Math.ceil(timeBan * 1000.0 / pollMillis));
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("onos/severalpingp4", "counter-poller", log));
+        poller.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling and removes the counting entries.
+     */
+    synchronized void stop() {
+        hostService.removeListener(hostListener);
+        if (poller != null) {
+            poller.shutdownNow();
+            poller = null;
+        }
+        entries.values().forEach(rules -> rules.forEach(ruleBatchService::remove));
+        entries.clear();
+        windows.clear();
+    }
+
+    /**
+     * Returns the number of counting entries installed.
+     *
+     * @return number of entries
+     */
+    int entries() {
+        return windows.size();
+    }
+
+    // Reads every counting entry of the application in one go and checks its window
+    private void poll() {
+        try {
+            for (FlowEntry entry : flowRuleService.getFlowEntriesById(appId)) {
+                Window window = windows.get(entry.id());
+                if (window != null && window.add(entry.packets()) > maxPings) {
+                    window.reset();
+                    banner.ban(entry.deviceId(), window.src, window.dst);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Fallo al leer los contadores de table0", e);
+        }
+    }
+
+    // Recomputes the counting entries of every device from the known hosts
+    private synchronized void refresh() {
+        Map<DeviceId, List<Host>> hostsByDevice = new HashMap<>();
+        for (Host host : hostService.getHosts()) {
+            for (HostLocation location : host.locations()) {
+                hostsByDevice.computeIfAbsent(location.deviceId(), d -> new ArrayList<>()).add(host);
+            }
+        }
+
+        Set<DeviceId> devices = new HashSet<>(entries.keySet());
+        devices.addAll(hostsByDevice.keySet());
+        for (DeviceId deviceId : devices) {
+            List<Host> hosts = hostsByDevice.getOrDefault(deviceId, new ArrayList<>());
+            Map<FlowRule, Window> wanted = new HashMap<>();
+            boolean perPair = hosts.size() * (hosts.size() - 1) <= MAX_PAIR_ENTRIES;
+            for (Host src : hosts) {
+                // Catches the pings of the source not matched by a pair entry
+                wanted.put(sourceRule(deviceId, src.mac()), new Window(src.mac().toLong(), ANY_MAC));
+                if (!perPair) {
+                    continue;
+                }
+                for (Host dst : hosts) {
+                    HostLocation dstLocation = location(dst, deviceId);
+                    if (dst != src && dstLocation != null) {
+                        wanted.put(pairRule(deviceId, src.mac(), dst.mac(), dstLocation.port().toLong()),
+                                   new Window(src.mac().toLong(), dst.mac().toLong()));
+                    }
+                }
+            }
+
+            Set<FlowRule> installed = entries.getOrDefault(deviceId, new HashSet<>());
+            for (FlowRule rule : installed) {
+                if (!wanted.containsKey(rule)) {
+                    windows.remove(rule.id());
+                    ruleBatchService.remove(rule);
+                }
+            }
+            wanted.forEach((rule, window) -> {
+                if (!installed.contains(rule)) {
+                    windows.put(rule.id(), window);
+                    ruleBatchService.install(rule);
+                }
+            });
+            if (wanted.isEmpty()) {
+                entries.remove(deviceId);
+            } else {
+                entries.put(deviceId, new HashSet<>(wanted.keySet()));
+            }
+        }
+    }
+
+    private HostLocation location(Host host, DeviceId deviceId) {
+        return host.locations().stream()
+                .filter(l -> l.deviceId().equals(deviceId))
+                .findFirst().orElse(null);
+    }
+
+    // Counts and forwards the pings of a pair to the port of the destination
+    private FlowRule pairRule(DeviceId deviceId, MacAddress src, MacAddress dst, long port) {
+        PiCriterion match = icmp()
+                .matchTernary(PiMatchFieldId.of("hdr.ethernet.src_addr"), src.toLong(), 0xffffffffffffL)
+                .matchTernary(PiMatchFieldId.of("hdr.ethernet.dst_addr"), dst.toLong(), 0xffffffffffffL)
+                .build();
+        PiAction action = PiAction.builder()
+                .withId(SET_EGRESS_PORT)
+                .withParameter(new PiActionParam(PORT, port))
+                .build();
+        return countingRule(deviceId, COUNT_PRIORITY, match, action);
+    }
+
+    // Counts the pings of a source that no pair entry matched and punts them as the intercept does
+    private FlowRule sourceRule(DeviceId deviceId, MacAddress src) {
+        PiCriterion match = icmp()
+                .matchTernary(PiMatchFieldId.of("hdr.ethernet.src_addr"), src.toLong(), 0xffffffffffffL)
+                .build();
+        return countingRule(deviceId, SOURCE_PRIORITY, match, PiAction.builder().withId(SEND_TO_CPU).build());
+    }
+
+    private PiCriterion.Builder icmp() {
+        return PiCriterion.builder()
+                .matchTernary(PiMatchFieldId.of("hdr.ethernet.ether_type"), Ethernet.TYPE_IPV4, 0xffff)
+                .matchTernary(PiMatchFieldId.of("hdr.ipv4.protocol"), IPv4.PROTOCOL_ICMP, 0xff);
+    }
+
+    private FlowRule countingRule(DeviceId deviceId, int priority, PiCriterion match, PiAction action) {
+        return DefaultFlowRule.builder()
+                .forDevice(deviceId).fromApp(appId).makePermanent().withPriority(priority)
+                .forTable(TABLE0)
+                .withSelector(DefaultTrafficSelector.builder().matchPi(match).build())
+                .withTreatment(DefaultTrafficTreatment.builder().piTableAction(action).build())
+                .build();
+    }
+
+    // Packet counter samples of one entry over the last TIME_BAN seconds
+    private final class Window {
+        private final long src;
+        private final long dst;
+        private long[] samples;
+        private int next = 0;
+        private int filled = 0;
+
+        private Window(long src, long dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        // Adds a sample and returns the packets counted over the window
+        private synchronized long add(long packets) {
+            if (samples == null || samples.length != windowPolls + 1) {
+                samples = new long[windowPolls + 1];
+                next = 0;
+                filled = 0;
+            }
+            samples[next] = packets;
+            next = (next + 1) % samples.length;
+            filled = Math.min(filled + 1, samples.length);
+            long oldest = samples[filled < samples.length ? 0 : next];
+            // A counter that went backwards was reset by a reinstall
+            return Math.max(0, packets - oldest);
+        }
+
+        private synchronized void reset() {
+            filled = 0;
+            next = 0;
+        }
+    }
+
+    // Keeps the counting entries in line with the hosts
+    private class InternalHostListener implements HostListener {
+        @Override
+        public void event(HostEvent event) {
+            if (event.type() == HostEvent.Type.HOST_ADDED || event.type() == HostEvent.Type.HOST_REMOVED ||
+                    event.type() == HostEvent.Type.HOST_MOVED) {
+                refresh();
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.onosproject.net.DeviceId;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Interns device identifiers into small integers so that a (device, src, dst)
+ * triple can be packed into two primitive longs.
+ */
+final class DeviceIndex {
+
+    /** Largest number of devices that fit in the 16 bits left by a MAC address. */
+    static final int MAX_DEVICES = 1 << 16;
+
+    private final ConcurrentMap<DeviceId, Integer> indexes = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<DeviceId> devices = new CopyOnWriteArrayList<>();
+
+    /**
+     * Returns the index of the device, interning it the first time it is seen.
+     *
+     * @param deviceId device identifier
+     * @return device index
+     */
+    int indexOf(DeviceId deviceId) {
+        Integer index = indexes.get(deviceId);
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            index = indexes.get(deviceId);
+            if (index == null) {
+                if (devices.size() >= MAX_DEVICES) {
+                    throw new IllegalStateException("Too many devices: " + deviceId);
+                }
+                devices.add(deviceId);
+                index = devices.size() - 1;
+                indexes.put(deviceId, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Returns the device interned with the given index.
+     *
+     * @param index device index
+     * @return device identifier
+     */
+    DeviceId deviceId(int index) {
+        return devices.get(index);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.onlab.packet.MacAddress;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Host;
+import org.onosproject.net.HostId;
+import org.onosproject.net.HostLocation;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.host.HostListener;
+import org.onosproject.net.host.HostService;
+import org.onosproject.net.meter.Band;
+import org.onosproject.net.meter.DefaultBand;
+import org.onosproject.net.meter.DefaultMeter;
+import org.onosproject.net.meter.Meter;
+import org.onosproject.net.meter.MeterOperation;
+import org.onosproject.net.meter.MeterProgrammable;
+import org.onosproject.net.pi.model.PiActionId;
+import org.onosproject.net.pi.model.PiMatchFieldId;
+import org.onosproject.net.pi.model.PiTableId;
+import org.onosproject.net.pi.runtime.PiAction;
+import org.onosproject.net.pi.runtime.PiFieldMatch;
+import org.onosproject.net.pi.runtime.PiMatchKey;
+import org.onosproject.net.pi.runtime.PiMeterCellId;
+import org.onosproject.net.pi.runtime.PiTableEntry;
+import org.onosproject.p4common.FlowRuleBatchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Polices each host in the data plane with the direct host meter of basic.p4.
+ * <p>
+ * Every known host gets a host_meter_table entry on the devices it is attached
+ * to, matching its source MAC with the read_meter action, and the direct
+ * host_meter cell of that entry is configured with HOST_METER_KBPS. Packets
+ * coloured red are dropped by the switch, so no packet has to reach the
+ * controller.
+ * <p>
+ * The meter counts bytes and is keyed on the source MAC only, so it bounds
+ * all the traffic of the host, not just ICMP. Its rate is therefore a byte
+ * budget of its own rather than one derived from MAX_PINGS: a handful of
+ * echo frames per ban period is a few bytes per second, which would drop
+ * every other packet of the host.
+ */
+final class HostMeterPolicer {
+
+    private final Logger log = LoggerFactory.getLogger(HostMeterPolicer.class);
+
+    private static final String MSG_METER_FAILED =
+            "No se pudo configurar el medidor del host {} en {}";
+
+    private static final PiTableId HOST_METER_TABLE = PiTableId.of("ingress.host_meter_control.host_meter_table");
+    private static final PiMatchFieldId SRC_ADDR = PiMatchFieldId.of("hdr.ethernet.src_addr");
+    private static final PiActionId READ_METER = PiActionId.of("ingress.host_meter_control.read_meter");
+    private static final int MAC_BITS = 48;
+    private static final int METER_PRIORITY = 10;
+
+    private final ApplicationId appId;
+    private final HostService hostService;
+    private final DeviceService deviceService;
+    private final FlowRuleBatchService ruleBatchService;
+    private final HostListener hostListener = new InternalHostListener();
+
+    // Host meter entries installed per host
+    private final Map<HostId, List<FlowRule>> entries = new ConcurrentHashMap<>();
+
+    // Committed and peak rate in kilobits per second; the burst is one second of traffic
+    private volatile long rate;
+
+    HostMeterPolicer(ApplicationId appId, HostService hostService, DeviceService deviceService,
+                     FlowRuleBatchService ruleBatchService) {
+        this.appId = appId;
+        this.hostService = hostService;
+        this.deviceService = deviceService;
+        this.ruleBatchService = ruleBatchService;
+    }
+
+    /**
+     * Starts policing every known host and the ones discovered later.
+     *
+     * @param kbps traffic budget of each host in kilobits per second
+     */
+    void start(int kbps) {
+        rate = kbps;
+        hostService.addListener(hostListener);
+        hostService.getHosts().forEach(this::police);
+    }
+
+    /**
+     * Stops policing and removes the host meter entries.
+     */
+    void stop() {
+        hostService.removeListener(hostListener);
+        entries.values().forEach(rules -> rules.forEach(ruleBatchService::remove));
+        entries.clear();
+    }
+
+    /**
+     * Reconfigures the meter of every policed host with a new budget.
+     *
+     * @param kbps traffic budget of each host in kilobits per second
+     */
+    void update(int kbps) {
+        rate = kbps;
+        entries.values().forEach(rules -> rules.forEach(this::configure));
+    }
+
+    /**
+     * Returns the number of hosts being policed.
+     *
+     * @return number of hosts
+     */
+    int hosts() {
+        return entries.size();
+    }
+
+    private void police(Host host) {
+        List<FlowRule> rules = host.locations().stream()
+                .map(HostLocation::deviceId)
+                .distinct()
+                .map(deviceId -> meterRule(deviceId, host.mac()))
+                .collect(Collectors.toList());
+        List<FlowRule> previous = entries.put(host.id(), rules);
+        if (previous != null) {
+            previous.stream().filter(r -> !rules.contains(r)).forEach(ruleBatchService::remove);
+        }
+        // The direct meter cell exists once its table entry is installed
+        rules.forEach(rule -> ruleBatchService.install(rule).thenRun(() -> configure(rule)));
+    }
+
+    private void forget(HostId hostId) {
+        List<FlowRule> rules = entries.remove(hostId);
+        if (rules != null) {
+            rules.forEach(ruleBatchService::remove);
+        }
+    }
+
+    private FlowRule meterRule(DeviceId deviceId, MacAddress mac) {
+        PiCriterion match = PiCriterion.builder()
+                .matchLpm(SRC_ADDR, mac.toBytes(), MAC_BITS)
+                .build();
+        return DefaultFlowRule.builder()
+                .forDevice(deviceId).fromApp(appId).makePermanent().withPriority(METER_PRIORITY)
+                .forTable(HOST_METER_TABLE)
+                .withSelector(DefaultTrafficSelector.builder().matchPi(match).build())
+                .withTreatment(DefaultTrafficTreatment.builder()
+                                       .piTableAction(PiAction.builder().withId(READ_METER).build())
+                                       .build())
+                .build();
+    }
+
+    // Direct meter cell of the host meter entry of a rule
+    private static PiMeterCellId cellId(FlowRule rule) {
+        // Same table entry the flow rule translates to
+        PiFieldMatch srcMatch = ((PiCriterion) rule.selector().criteria().iterator().next())
+                .fieldMatch(SRC_ADDR)
+                .orElseThrow(IllegalStateException::new);
+        PiTableEntry entry = PiTableEntry.builder()
+                .forTable(HOST_METER_TABLE)
+                .withMatchKey(PiMatchKey.builder().addFieldMatch(srcMatch).build())
+                .withAction(PiAction.builder().withId(READ_METER).build())
+                .build();
+        return PiMeterCellId.ofDirect(entry);
+    }
+
+    // Writes the meter cell configuration of a host meter entry to its device
+    private void configure(FlowRule rule) {
+        Device device = deviceService.getDevice(rule.deviceId());
+        if (device == null || !device.is(MeterProgrammable.class)) {
+            log.warn(MSG_METER_FAILED, rule.selector(), rule.deviceId());
+            return;
+        }
+        long kbps = rate;
+        Band committed = DefaultBand.builder().ofType(Band.Type.NONE).withRate(kbps).burstSize(kbps).build();
+        Band peak = DefaultBand.builder().ofType(Band.Type.NONE).withRate(kbps).burstSize(kbps).build();
+        Meter meter = DefaultMeter.builder()
+                .forDevice(rule.deviceId()).fromApp(appId)
+                .withCellId(cellId(rule))
+                .withUnit(Meter.Unit.KB_PER_SEC)
+                .burst()
+                .withBands(Arrays.asList(committed, peak))
+                .build();
+        device.as(MeterProgrammable.class)
+                .performMeterOperation(new MeterOperation(meter, MeterOperation.Type.MODIFY))
+                .thenAccept(ok -> {
+                    if (!ok) {
+                        log.warn(MSG_METER_FAILED, rule.selector(), rule.deviceId());
+                    }
+                });
+    }
+
+    // Follows hosts as they appear, move and disappear
+    private class InternalHostListener implements HostListener {
+        @Override
+        public void event(HostEvent event) {
+            switch (event.type()) {
+                case HOST_ADDED:
+                case HOST_MOVED:
+                case HOST_UPDATED:
+                    police(event.subject());
+                    break;
+                case HOST_REMOVED:
+                    forget(event.subject().id());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
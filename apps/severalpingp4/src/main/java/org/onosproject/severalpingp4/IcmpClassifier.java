@@ -0,0 +1,130 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Classifies raw Ethernet frames without deserializing them.
+ * <p>
+ * Header fields are read at fixed offsets from the frame buffer with absolute
+ * gets, so the buffer position is left untouched. Up to two VLAN tags are
+ * skipped; anything the classifier cannot decide returns {@link #UNKNOWN} and
+ * must be handled by the full parser.
+ */
+final class IcmpClassifier {
+
+    /** The frame could not be classified and needs full parsing. */
+    static final int UNKNOWN = -1;
+    /** The frame is not an ICMP packet. */
+    static final int NOT_ICMP = -2;
+
+    private static final int ETH_HEADER = 14;
+    private static final int VLAN_HEADER = 4;
+    private static final int ETHERTYPE_OFFSET = 12;
+    private static final int SRC_MAC_OFFSET = 6;
+    private static final int IPV4_MIN_HEADER = 20;
+    private static final int MAX_VLAN_TAGS = 2;
+    private static final int TYPE_VLAN = Ethernet.TYPE_VLAN & 0xffff;
+    private static final int TYPE_QINQ = Ethernet.TYPE_QINQ & 0xffff;
+
+    private IcmpClassifier() {
+    }
+
+    /**
+     * Classifies a frame.
+     *
+     * @param frame raw frame, starting at its position
+     * @return the ICMP type (0 to 255) if the frame is ICMP, {@link #NOT_ICMP}
+     * if it is not, or {@link #UNKNOWN} if it needs full parsing
+     */
+    static int classify(ByteBuffer frame) {
+        if (frame == null) {
+            return UNKNOWN;
+        }
+        int base = frame.position();
+        int limit = frame.limit();
+        if (limit - base < ETH_HEADER) {
+            return UNKNOWN;
+        }
+
+        int typeOffset = base + ETHERTYPE_OFFSET;
+        int etherType = frame.getShort(typeOffset) & 0xffff;
+        for (int tags = 0; isVlan(etherType); tags++) {
+            typeOffset += VLAN_HEADER;
+            if (tags == MAX_VLAN_TAGS || typeOffset + 2 > limit) {
+                return UNKNOWN;
+            }
+            etherType = frame.getShort(typeOffset) & 0xffff;
+        }
+        if (etherType != Ethernet.TYPE_IPV4) {
+            return NOT_ICMP;
+        }
+
+        int l3 = typeOffset + 2;
+        if (limit - l3 < IPV4_MIN_HEADER) {
+            return UNKNOWN;
+        }
+        int versionIhl = frame.get(l3) & 0xff;
+        int ihl = (versionIhl & 0x0f) * 4;
+        if (versionIhl >>> 4 != 4 || ihl < IPV4_MIN_HEADER) {
+            return UNKNOWN;
+        }
+        if (frame.get(l3 + 9) != IPv4.PROTOCOL_ICMP) {
+            return NOT_ICMP;
+        }
+        // Non-first fragments carry no ICMP header
+        if ((frame.getShort(l3 + 6) & 0x1fff) != 0) {
+            return NOT_ICMP;
+        }
+        int l4 = l3 + ihl;
+        if (l4 >= limit) {
+            return UNKNOWN;
+        }
+        return frame.get(l4) & 0xff;
+    }
+
+    /**
+     * Reads the destination MAC of a frame.
+     *
+     * @param frame raw frame, starting at its position
+     * @return destination MAC as a long
+     */
+    static long dstMac(ByteBuffer frame) {
+        return mac(frame, frame.position());
+    }
+
+    /**
+     * Reads the source MAC of a frame.
+     *
+     * @param frame raw frame, starting at its position
+     * @return source MAC as a long
+     */
+    static long srcMac(ByteBuffer frame) {
+        return mac(frame, frame.position() + SRC_MAC_OFFSET);
+    }
+
+    private static long mac(ByteBuffer frame, int offset) {
+        return ((long) (frame.getShort(offset) & 0xffff) << 32) | (frame.getInt(offset + 2) & 0xffffffffL);
+    }
+
+    private static boolean isVlan(int etherType) {
+        return etherType == TYPE_VLAN || etherType == TYPE_QINQ;
+    }
+}
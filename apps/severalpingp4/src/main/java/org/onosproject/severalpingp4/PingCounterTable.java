@@ -0,0 +1,242 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+/**
+ * Concurrent table of ping counts keyed on (device, src MAC, dst MAC).
+ * <p>
+ * The key is packed into two longs: the first holds the device index in its
+ * upper 16 bits and the source MAC in the lower 48, the second holds the
+ * destination MAC. Keys are spread over lock stripes, each one an open
+ * addressing table with linear probing over primitive arrays, so updating a
+ * count does not allocate.
+ */
+final class PingCounterTable {
+
+    private static final long MAC_MASK = 0xffffffffffffL;
+    private static final int STRIPE_BITS = 6;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+    PingCounterTable() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Packs a device index and a source MAC into the first half of a key.
+     *
+     * @param device device index
+     * @param src    source MAC as a long
+     * @return first half of the key
+     */
+    static long key0(int device, long src) {
+        return ((long) device << 48) | (src & MAC_MASK);
+    }
+
+    /**
+     * Extracts the device index from the first half of a key.
+     *
+     * @param k0 first half of the key
+     * @return device index
+     */
+    static int device(long k0) {
+        return (int) (k0 >>> 48);
+    }
+
+    /**
+     * Extracts the source MAC from the first half of a key.
+     *
+     * @param k0 first half of the key
+     * @return source MAC as a long
+     */
+    static long src(long k0) {
+        return k0 & MAC_MASK;
+    }
+
+    /**
+     * Increments the count of the key unless it has already reached the limit.
+     *
+     * @param k0    first half of the key
+     * @param k1    second half of the key
+     * @param limit maximum count
+     * @return count before the call; the count was incremented if lower than the limit
+     */
+    int incrementIfBelow(long k0, long k1, int limit) {
+        long hash = hash(k0, k1);
+        Stripe stripe = stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        synchronized (stripe) {
+            return stripe.incrementIfBelow(k0, k1, (int) hash, limit);
+        }
+    }
+
+    /**
+     * Decrements the count of the key, removing it when it drops to zero.
+     *
+     * @param k0 first half of the key
+     * @param k1 second half of the key
+     */
+    void decrement(long k0, long k1) {
+        long hash = hash(k0, k1);
+        Stripe stripe = stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        synchronized (stripe) {
+            stripe.decrement(k0, k1, (int) hash);
+        }
+    }
+
+    /**
+     * Returns the count of the key.
+     *
+     * @param k0 first half of the key
+     * @param k1 second half of the key
+     * @return current count, zero if absent
+     */
+    int get(long k0, long k1) {
+        long hash = hash(k0, k1);
+        Stripe stripe = stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        synchronized (stripe) {
+            int slot = stripe.find(k0, k1, (int) hash);
+            return slot < 0 ? 0 : stripe.counts[slot];
+        }
+    }
+
+    /**
+     * Returns the number of keys with a non-zero count.
+     *
+     * @return number of tracked keys
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    /**
+     * Removes every key.
+     */
+    void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.keys = new long[2 * INITIAL_CAPACITY];
+                stripe.counts = new int[INITIAL_CAPACITY];
+                stripe.size = 0;
+            }
+        }
+    }
+
+    // 64-bit mix of both halves of the key (murmur3 finalizer)
+    private static long hash(long k0, long k1) {
+        long h = k0 * 0x9e3779b97f4a7c15L ^ k1;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Open addressing table guarded by its own monitor; a zero count marks a free slot
+    private static final class Stripe {
+        private long[] keys = new long[2 * INITIAL_CAPACITY];
+        private int[] counts = new int[INITIAL_CAPACITY];
+        private volatile int size;
+
+        private int find(long k0, long k1, int hash) {
+            int mask = counts.length - 1;
+            for (int i = hash & mask; counts[i] != 0; i = (i + 1) & mask) {
+                if (keys[2 * i] == k0 && keys[2 * i + 1] == k1) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int incrementIfBelow(long k0, long k1, int hash, int limit) {
+            int mask = counts.length - 1;
+            int i = hash & mask;
+            for (; counts[i] != 0; i = (i + 1) & mask) {
+                if (keys[2 * i] == k0 && keys[2 * i + 1] == k1) {
+                    int count = counts[i];
+                    if (count < limit) {
+                        counts[i] = count + 1;
+                    }
+                    return count;
+                }
+            }
+            if (limit <= 0) {
+                return 0;
+            }
+            keys[2 * i] = k0;
+            keys[2 * i + 1] = k1;
+            counts[i] = 1;
+            size++;
+            if (2 * size > counts.length) {
+                resize();
+            }
+            return 0;
+        }
+
+        private void decrement(long k0, long k1, int hash) {
+            int slot = find(k0, k1, hash);
+            if (slot < 0) {
+                return;
+            }
+            if (counts[slot] > 1) {
+                counts[slot]--;
+                return;
+            }
+            // Backward shift deletion keeps probe sequences intact without tombstones
+            int mask = counts.length - 1;
+            int hole = slot;
+            for (int j = (slot + 1) & mask; counts[j] != 0; j = (j + 1) & mask) {
+                int home = (int) hash(keys[2 * j], keys[2 * j + 1]) & mask;
+                boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+                if (movable) {
+                    keys[2 * hole] = keys[2 * j];
+                    keys[2 * hole + 1] = keys[2 * j + 1];
+                    counts[hole] = counts[j];
+                    hole = j;
+                }
+            }
+            counts[hole] = 0;
+            size--;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[oldCounts.length * 2];
+            int mask = counts.length - 1;
+            for (int i = 0; i < oldCounts.length; i++) {
+                if (oldCounts[i] == 0) {
+                    continue;
+                }
+                int j = (int) hash(oldKeys[2 * i], oldKeys[2 * i + 1]) & mask;
+                while (counts[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                keys[2 * j] = oldKeys[2 * i];
+                keys[2 * j + 1] = oldKeys[2 * i + 1];
+                counts[j] = oldCounts[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.onlab.packet.MacAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Ping events recorded off the packet-processing path.
+ * <p>
+ * Packet threads write compact records to a bounded lock-free ring; when it is
+ * full the record is counted and dropped, so they never block. A background
+ * thread drains the ring every few milliseconds, aggregates the records per
+ * event and pair, and once per logging interval logs at most a few lines for
+ * the busiest ones. The last drained records are kept for troubleshooting.
+ */
+final class PingEventLog {
+
+    private final Logger log = LoggerFactory.getLogger(PingEventLog.class);
+
+    /** Ping allowed through. */
+    static final int PINGED = 0;
+    /** Ping blocked for being over the limit. */
+    static final int DROPPED = 1;
+    /** Pair banned. */
+    static final int BANNED = 2;
+    /** Ban lifted. */
+    static final int REENABLED = 3;
+
+    /** Records the ring holds before further ones are discarded. */
+    static final int RING_SIZE = 1 << 14;
+    /** Drained records kept for {@link #recent()}. */
+    static final int RECENT_SIZE = 256;
+
+    private static final String[] MESSAGES = {
+            "{} pings recividos desde {} para {} por {} en los ultimos {} s",
+            "{} pings bloqueados desde {} para {} por {} en los ultimos {} s",
+            "{} baneos de pings desde {} para {} por {} en los ultimos {} s",
+            "{} rehabilitaciones de pings desde {} para {} por {} en los ultimos {} s",
+    };
+    private static final String[] NAMES = {"PINGED", "DROPPED", "BANNED", "REENABLED"};
+    private static final String MSG_MORE =
+            "{} pares mas con {} eventos y {} eventos descartados en los ultimos {} s";
+
+    private static final int MAX_LINES = 10;
+    private static final int MAX_AGGREGATES = 4096;
+    private static final long DRAIN_MS = 100;
+
+    private final DeviceIndex devices;
+    private final long intervalMs;
+
+    // Bounded multi-producer ring; each slot carries the sequence it is ready for
+    private final AtomicLongArray sequences = new AtomicLongArray(RING_SIZE);
+    private final long[] times = new long[RING_SIZE];
+    private final int[] types = new int[RING_SIZE];
+    private final long[] keys0 = new long[RING_SIZE];
+    private final long[] keys1 = new long[RING_SIZE];
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+    private final AtomicLong discarded = new AtomicLong();
+    private long discardedLogged = 0;
+
+    // Last drained records, oldest first once wrapped
+    private final long[] recentTimes = new long[RECENT_SIZE];
+    private final int[] recentTypes = new int[RECENT_SIZE];
+    private final long[] recentKeys0 = new long[RECENT_SIZE];
+    private final long[] recentKeys1 = new long[RECENT_SIZE];
+    private long recentCount = 0;
+
+    // Events of the current logging interval; pairs beyond the bound are only counted
+    private final Map<Aggregate, Aggregate> aggregates = new HashMap<>();
+    private long unaggregated = 0;
+    private long intervalStart = System.currentTimeMillis();
+
+    private ScheduledExecutorService consumer;
+
+    /**
+     * Creates an event log.
+     *
+     * @param devices    index to resolve the device of the packed keys
+     * @param intervalMs aggregation and logging interval in milliseconds
+     */
+    PingEventLog(DeviceIndex devices, long intervalMs) {
+        this.devices = devices;
+        this.intervalMs = intervalMs;
+        for (int i = 0; i < RING_SIZE; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Starts the background consumer.
+     */
+    void start() {
+        consumer = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("onos/severalpingp4", "event-log", log));
+        consumer.scheduleWithFixedDelay(this::drain, DRAIN_MS, DRAIN_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the consumer, logging whatever is left in the ring.
+     */
+    void stop() {
+        if (consumer != null) {
+            consumer.shutdownNow();
+            consumer = null;
+        }
+        drain();
+        flush();
+    }
+
+    /**
+     * Records an event without blocking; it is discarded if the ring is full.
+     *
+     * @param type event type
+     * @param k0   first half of the pair key
+     * @param k1   second half of the pair key
+     */
+    void record(int type, long k0, long k1) {
+        long t;
+        int slot;
+        do {
+            t = tail.get();
+            slot = (int) t & (RING_SIZE - 1);
+            if (sequences.get(slot) != t) {
+                // Slot not yet drained: the ring is full
+                discarded.incrementAndGet();
+                return;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        times[slot] = System.currentTimeMillis();
+        types[slot] = type;
+        keys0[slot] = k0;
+        keys1[slot] = k1;
+        // Publishes the fields above to the consumer
+        sequences.set(slot, t + 1);
+    }
+
+    /**
+     * Returns the number of events discarded because the ring was full since
+     * the log was created.
+     *
+     * @return discarded events
+     */
+    long discarded() {
+        return discarded.get();
+    }
+
+    /**
+     * Returns the most recent events drained from the ring, oldest first.
+     *
+     * @return formatted events
+     */
+    synchronized List<String> recent() {
+        List<String> events = new ArrayList<>();
+        long first = Math.max(0, recentCount - RECENT_SIZE);
+        for (long n = first; n < recentCount; n++) {
+            int i = (int) (n % RECENT_SIZE);
+            events.add(String.format("%tFT%<tT.%<tL %s %s -> %s en %s", recentTimes[i], NAMES[recentTypes[i]],
+                                     MacAddress.valueOf(PingCounterTable.src(recentKeys0[i])),
+                                     MacAddress.valueOf(recentKeys1[i]),
+                                     devices.deviceId(PingCounterTable.device(recentKeys0[i]))));
+        }
+        return events;
+    }
+
+    // Takes every published record and aggregates it per event and pair
+    private synchronized void drain() {
+        while (true) {
+            int slot = (int) head & (RING_SIZE - 1);
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+            int r = (int) (recentCount++ % RECENT_SIZE);
+            recentTimes[r] = times[slot];
+            recentTypes[r] = types[slot];
+            recentKeys0[r] = keys0[slot];
+            recentKeys1[r] = keys1[slot];
+
+            Aggregate key = new Aggregate(types[slot], keys0[slot], keys1[slot]);
+            Aggregate aggregate = aggregates.get(key);
+            if (aggregate != null) {
+                aggregate.count++;
+            } else if (aggregates.size() < MAX_AGGREGATES) {
+                key.count = 1;
+                aggregates.put(key, key);
+            } else {
+                unaggregated++;
+            }
+            // Hands the slot back to the producers for the next lap
+            sequences.set(slot, head + RING_SIZE);
+            head++;
+        }
+
+        if (System.currentTimeMillis() - intervalStart >= intervalMs) {
+            flush();
+        }
+    }
+
+    // Logs the busiest pairs of the interval and starts a new one
+    private synchronized void flush() {
+        long total = discarded.get();
+        long lost = total - discardedLogged;
+        discardedLogged = total;
+        List<Aggregate> sorted = new ArrayList<>(aggregates.values());
+        sorted.sort(Comparator.comparingLong((Aggregate a) -> a.count).reversed());
+        long seconds = (System.currentTimeMillis() - intervalStart) / 1000;
+        long others = unaggregated;
+        for (Aggregate a : sorted.subList(Math.min(MAX_LINES, sorted.size()), sorted.size())) {
+            others += a.count;
+        }
+        for (Aggregate a : sorted.subList(0, Math.min(MAX_LINES, sorted.size()))) {
+            String message = MESSAGES[a.type];
+            Object[] args = {a.count, MacAddress.valueOf(PingCounterTable.src(a.k0)), MacAddress.valueOf(a.k1),
+                    devices.deviceId(PingCounterTable.device(a.k0)), seconds};
+            if (a.type == BANNED || a.type == REENABLED) {
+                log.warn(message, args);
+            } else {
+                log.info(message, args);
+            }
+        }
+        if (others > 0 || lost > 0) {
+            log.warn(MSG_MORE, Math.max(0, sorted.size() - MAX_LINES), others, lost, seconds);
+        }
+        aggregates.clear();
+        unaggregated = 0;
+        intervalStart = System.currentTimeMillis();
+    }
+
+    // Count of the events of one type for one pair within an interval
+    private static final class Aggregate {
+        private final int type;
+        private final long k0;
+        private final long k1;
+        private long count;
+
+        private Aggregate(int type, long k0, long k1) {
+            this.type = type;
+            this.k0 = k0;
+            this.k1 = k1;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode((k0 * 31 + k1) * 31 + type);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Aggregate other = (Aggregate) obj;
+            return type == other.type && k0 == other.k0 && k1 == other.k1;
+        }
+    }
+}
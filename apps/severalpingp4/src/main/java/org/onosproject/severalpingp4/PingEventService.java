@@ -0,0 +1,38 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import java.util.List;
+
+/**
+ * Read access to the ping events recorded by SeveralPingP4.
+ */
+public interface PingEventService {
+
+    /**
+     * Returns the most recent ping events, oldest first.
+     *
+     * @return formatted events
+     */
+    List<String> recentEvents();
+
+    /**
+     * Returns the number of ping events discarded because the event ring was full.
+     *
+     * @return discarded events
+     */
+    long discardedEvents();
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fixed-size estimate of ping counts keyed on (device, src MAC, dst MAC).
+ * <p>
+ * Counts go to a Count-Min sketch of depth rows by width columns. Two sketches
+ * cover the current and the previous window of TIME_BAN seconds; the previous
+ * one is weighted by the part of it still inside the sliding window, so counts
+ * decay instead of dropping at the window boundary. The sketch never
+ * underestimates, so keys whose estimate reaches the promotion threshold are
+ * moved to a small exact table of heavy hitters, whose count confirms the key
+ * before it is banned.
+ * <p>
+ * Memory is two sketches plus the heavy hitter table, whatever the number of
+ * distinct keys. The width should stay above the distinct keys seen per window
+ * or collisions promote innocent keys, which then fail confirmation.
+ */
+final class PingSketch {
+
+    private final int width;
+    private final int depth;
+    private final long windowNanos;
+
+    private volatile AtomicIntegerArray current;
+    private volatile AtomicIntegerArray previous;
+    private volatile long windowStart;
+
+    // Heavy hitters: packed key, exact count since promotion and window of promotion
+    private final long[] hitterKeys;
+    private final int[] hitterCounts;
+    private final long[] hitterWindows;
+    private long windowNumber = 0;
+
+    /**
+     * Creates a sketch.
+     *
+     * @param width        columns per row, rounded up to a power of two
+     * @param depth        number of rows
+     * @param windowMs     length of the sliding window in milliseconds
+     * @param heavyHitters capacity of the exact heavy hitter table
+     */
+    PingSketch(int width, int depth, long windowMs, int heavyHitters) {
+        this.width = Integer.highestOneBit(Math.max(2, width) * 2 - 1);
+        this.depth = Math.max(1, depth);
+        this.windowNanos = Math.max(1, windowMs) * 1_000_000L;
+        this.current = new AtomicIntegerArray(this.width * this.depth);
+        this.previous = new AtomicIntegerArray(this.width * this.depth);
+        this.windowStart = System.nanoTime();
+        this.hitterKeys = new long[2 * heavyHitters];
+        this.hitterCounts = new int[heavyHitters];
+        this.hitterWindows = new long[heavyHitters];
+    }
+
+    /**
+     * Counts one ping of the key.
+     *
+     * @param k0 first half of the key
+     * @param k1 second half of the key
+     * @return estimated pings of the key over the sliding window, this one included
+     */
+    int add(long k0, long k1) {
+        long now = System.nanoTime();
+        if (now - windowStart >= windowNanos) {
+            rotate(now);
+        }
+        double weight = 1.0 - (double) (now - windowStart) / windowNanos;
+        AtomicIntegerArray cur = current;
+        AtomicIntegerArray prev = previous;
+
+        long hash = hash(k0, k1);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int mask = width - 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int cell = row * width + ((h1 + row * h2) & mask);
+            int count = cur.incrementAndGet(cell) + (int) (prev.get(cell) * Math.max(0.0, weight));
+            estimate = Math.min(estimate, count);
+        }
+        return estimate;
+    }
+
+    /**
+     * Counts one ping of a promoted key in the heavy hitter table, promoting
+     * it if absent; when the table is full the smallest count is evicted.
+     *
+     * @param k0 first half of the key
+     * @param k1 second half of the key
+     * @return exact pings of the key since its promotion, this one included
+     */
+    synchronized int confirm(long k0, long k1) {
+        int free = -1;
+        int smallest = -1;
+        for (int i = 0; i < hitterCounts.length; i++) {
+            if (hitterCounts[i] == 0 || windowNumber - hitterWindows[i] > 1) {
+                // Empty, or promoted before the previous window
+                if (free < 0) {
+                    free = i;
+                }
+                hitterCounts[i] = 0;
+            } else if (hitterKeys[2 * i] == k0 && hitterKeys[2 * i + 1] == k1) {
+                return ++hitterCounts[i];
+            } else if (smallest < 0 || hitterCounts[i] < hitterCounts[smallest]) {
+                smallest = i;
+            }
+        }
+        int slot = free >= 0 ? free : smallest;
+        hitterKeys[2 * slot] = k0;
+        hitterKeys[2 * slot + 1] = k1;
+        hitterCounts[slot] = 1;
+        hitterWindows[slot] = windowNumber;
+        return 1;
+    }
+
+    /**
+     * Returns the number of keys in the heavy hitter table.
+     *
+     * @return number of heavy hitters
+     */
+    synchronized int heavyHitters() {
+        int size = 0;
+        for (int i = 0; i < hitterCounts.length; i++) {
+            if (hitterCounts[i] != 0 && windowNumber - hitterWindows[i] <= 1) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of counters held by both sketches.
+     *
+     * @return number of counters
+     */
+    int cells() {
+        return 2 * width * depth;
+    }
+
+    // Starts a new window, recycling the oldest sketch
+    private synchronized void rotate(long now) {
+        long elapsed = now - windowStart;
+        if (elapsed < windowNanos) {
+            return;
+        }
+        AtomicIntegerArray recycled = previous;
+        clear(recycled);
+        if (elapsed >= 2 * windowNanos) {
+            // Idle for a whole window: nothing is left to carry over
+            clear(current);
+        }
+        previous = current;
+        current = recycled;
+        windowStart = now;
+        windowNumber++;
+    }
+
+    private static void clear(AtomicIntegerArray cells) {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+    }
+
+    // 64-bit mix of both halves of the key (murmur3 finalizer)
+    private static long hash(long k0, long k1) {
+        long h = k0 * 0x9e3779b97f4a7c15L ^ k1;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
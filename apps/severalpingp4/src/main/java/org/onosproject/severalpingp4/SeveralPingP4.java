@@ -15,7 +15,13 @@
  */
 package org.onosproject.severalpingp4;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
+import org.onlab.metrics.MetricsComponent;
+import org.onlab.metrics.MetricsFeature;
+import org.onlab.metrics.MetricsService;
 import org.onlab.packet.Ethernet;
 import org.onlab.packet.IPv4;
 import org.onlab.packet.MacAddress;
@@ -25,16 +31,22 @@ import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DeviceService;
 import org.onosproject.net.flow.DefaultFlowRule;
 import org.onosproject.net.flow.DefaultTrafficSelector;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
 import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
 import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficSelector;
 import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.host.HostService;
 import org.onosproject.net.packet.PacketContext;
 import org.onosproject.net.packet.PacketPriority;
 import org.onosproject.net.packet.PacketProcessor;
 import org.onosproject.net.packet.PacketService;
+import org.onosproject.p4common.FlowRuleBatchService;
 import org.onosproject.net.pi.model.PiActionId;
 import org.onosproject.net.pi.model.PiMatchFieldId;
 import org.onosproject.net.pi.model.PiTableId;
@@ -49,12 +61,11 @@ import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.Dictionary;
-import java.util.HashMap;
-import java.util.Objects;
+import java.util.List;
 import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 import static org.onosproject.severalpingp4.SeveralPingP4Const.*;
 
@@ -62,25 +73,35 @@ import static org.onosproject.severalpingp4.SeveralPingP4Const.*;
  * Skeletal ONOS application component.
  */
 @Component(immediate = true,
-        service = SeveralPingP4.class,
+        service = {SeveralPingP4.class, PingEventService.class},
         property = {
                 MAX_PINGS + ":Integer=" + MAX_PINGS_DEFAULT,
                 TIME_BAN + ":Integer=" + TIME_BAN_DEFAULT,
+                TICK_MS + ":Integer=" + TICK_MS_DEFAULT,
+                DETECTION_MODE + ":String=" + DETECTION_MODE_DEFAULT,
+                POLL_MS + ":Integer=" + POLL_MS_DEFAULT,
+                SKETCH_WIDTH + ":Integer=" + SKETCH_WIDTH_DEFAULT,
+                SKETCH_DEPTH + ":Integer=" + SKETCH_DEPTH_DEFAULT,
+                HOST_METER_KBPS + ":Integer=" + HOST_METER_KBPS_DEFAULT,
         })
-public class SeveralPingP4 {
+public class SeveralPingP4 implements PingEventService {
 
     private final Logger log = LoggerFactory.getLogger(SeveralPingP4.class);
 
-    private static final String MSG_PINGED_ONCE =
-            "Ping recivido desde {} para {} por {}";
     private static final String MSG_PINGED_TWICE =
             "Se ha superado el limite de pings establecidos en {} " +
                     "Pings desde {} para {} ha sido recivido por {}; " +
                     "La comunicacion sera baneada durante {} segundos";
-    private static final String MSG_PING_REENABLED =
-            "La comunicacion de pings desde {} para {} por {}";
     private static final String CHANGE_PROPERTIES =
             "Propiedades cambiadas a: {} pings y {} segundos";
+    private static final String CHANGE_MODE =
+            "Modo de deteccion cambiado de {} a {}";
+    private static final String MSG_BAN_FAILED =
+            "No se pudo instalar el baneo de pings desde {} para {} en {}";
+    private static final String MSG_BAD_PROPERTY =
+            "Valor no valido para {}: {}; se usa {}";
+    private static final String MSG_SWEEPER_STOPPED =
+            "Sweeper detenido: {} caducados, {} pendientes descartados";
 
     private static final int PROCES_PRIORITY = 128;
     private static final int DROP_PRIORITY = 50000;
@@ -91,7 +112,41 @@ public class SeveralPingP4 {
     /** Configure the time that 2 hosts are banned in seconds; default is 60 seconds. */
     private int TIME_BAN = TIME_BAN_DEFAULT;
 
+    /** Configure the tick of the expiry wheel in milliseconds; default is 100 ms. */
+    private int TICK_MS = TICK_MS_DEFAULT;
+
+    /**
+     * Configure how pings are limited: "packet" counts ICMP packet-ins in the
+     * controller, "meter" caps the whole traffic of each host at
+     * HOST_METER_KBPS with the basic.p4 host meter in the switch, "counter" polls the table0 direct counters, "sketch" counts
+     * packet-ins in a fixed-size Count-Min sketch; default is packet.
+     */
+    private String DETECTION_MODE = DETECTION_MODE_DEFAULT;
+
+    /** Configure how often table0 counters are polled in milliseconds; default is 1000 ms. */
+    private int POLL_MS = POLL_MS_DEFAULT;
+
+    /** Configure the columns per row of the ping sketch; default is 2048. */
+    private int SKETCH_WIDTH = SKETCH_WIDTH_DEFAULT;
+
+    /** Configure the rows of the ping sketch; default is 4. */
+    private int SKETCH_DEPTH = SKETCH_DEPTH_DEFAULT;
+
+    /**
+     * Configure the traffic budget of each host in "meter" mode in kilobits
+     * per second; the host meter counts every byte the host sends, so this
+     * must sit well above its normal traffic; default is 100000 kbps.
+     */
+    private int HOST_METER_KBPS = HOST_METER_KBPS_DEFAULT;
+
     private static final int SECONDS = 1000;
+    private static final int WHEEL_SIZE = 512;
+    private static final int HEAVY_HITTERS = 64;
+    private static final int EVENT_LOG_MS = 10 * SECONDS;
+    //Componente de las metricas de la aplicacion en el MetricsService
+    private static final String METRICS_COMPONENT = "severalpingp4";
+    //Se mide el tiempo de uno de cada tantos paquetes; potencia de 2
+    private static final int TIMER_SAMPLING = 16;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected CoreService coreService;
@@ -102,6 +157,18 @@ public class SeveralPingP4 {
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected PacketService packetService;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected FlowRuleBatchService ruleBatchService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected HostService hostService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected MetricsService metricsService;
+
     //Servicio para crear propiedades configurables
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected ComponentConfigService cfgService;
@@ -114,70 +181,243 @@ public class SeveralPingP4 {
             .matchTernary(PiMatchFieldId.of("hdr.ethernet.ether_type"), Ethernet.TYPE_IPV4, 0xffff)
             .matchTernary(PiMatchFieldId.of("hdr.ipv4.protocol"), IPv4.PROTOCOL_ICMP, 0xff)
             .build();
+    private final TrafficSelector interceptSelector = DefaultTrafficSelector.builder().matchPi(intercept).build();
 
     // Means to track detected pings from each device on a temporary basis
-    private final HashMap<PingRecord,Integer> pings = new HashMap<PingRecord,Integer>();
-    private final Timer timer = new Timer("severalpingp4-sweeper");
+    private final DeviceIndex devices = new DeviceIndex();
+    private final PingCounterTable pings = new PingCounterTable();
+    private final BanTable bans = new BanTable();
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+    private TimingWheel sweeper;
+    private HostMeterPolicer meterPolicer;
+    private CounterPoller counterPoller;
+    private volatile PingSketch sketch;
+    private final PingEventLog events = new PingEventLog(devices, EVENT_LOG_MS);
+    private volatile boolean active = false;
+
+    // Metrics of the packet path, registered on activation
+    private Timer processTimer;
+    private Meter seenMeter;
+    private Meter blockedMeter;
+    private Meter bannedMeter;
 
     @Activate
     public void activate(ComponentContext context) throws ImmutableByteSequence.ByteSequenceTrimException {
         appId = coreService.registerApplication("org.onosproject.severalpingp4",
                                                 () -> log.info("Periscope down."));
 
-
-        packetService.addProcessor(packetProcessor, PROCES_PRIORITY);
-        packetService.requestPackets(DefaultTrafficSelector.builder().matchPi(intercept).build(),
-                                     PacketPriority.CONTROL, appId, Optional.empty());
-
         cfgService.registerProperties(getClass());
         modified(context);
+
+        // The tick is fixed for the lifetime of the wheel
+        sweeper = new TimingWheel("severalpingp4-sweeper", TICK_MS, WHEEL_SIZE, pings::decrement);
+
+        events.start();
+        registerMetrics();
+        flowRuleService.addListener(flowRuleListener);
+        meterPolicer = new HostMeterPolicer(appId, hostService, deviceService, ruleBatchService);
+        counterPoller = new CounterPoller(appId, hostService, flowRuleService, ruleBatchService,
+                                          this::banFromCounters);
+        startMode(DETECTION_MODE);
+        active = true;
+
         log.info("Started");
     }
 
 
     @Deactivate
     public void deactivate() {
-        packetService.removeProcessor(packetProcessor);
+        active = false;
+        stopMode(DETECTION_MODE);
+        flowRuleService.removeListener(flowRuleListener);
+        long expired = sweeper.expired();
+        long discarded = sweeper.stop();
+        log.info(MSG_SWEEPER_STOPPED, expired, discarded);
+        events.stop();
+        pings.clear();
+        bans.clear();
         flowRuleService.removeFlowRulesById(appId);
+        metricsService.removeMatching((name, metric) -> name.startsWith(METRICS_COMPONENT + "."));
         cfgService.unregisterProperties(getClass(), false);
         log.info("Stopped");
     }
 
+    // Registers the packet path metrics; the gauges are read only when reported
+    private void registerMetrics() {
+        MetricsComponent component = metricsService.registerComponent(METRICS_COMPONENT);
+        MetricsFeature feature = component.registerFeature("pings");
+        processTimer = metricsService.createTimer(component, feature, "process");
+        seenMeter = metricsService.createMeter(component, feature, "seen");
+        blockedMeter = metricsService.createMeter(component, feature, "blocked");
+        bannedMeter = metricsService.createMeter(component, feature, "banned");
+        metricsService.registerMetric(component, feature, "trackedPairs", (Gauge<Integer>) this::trackedPairs);
+        metricsService.registerMetric(component, feature, "pendingTimeouts", (Gauge<Long>) this::pendingTimeouts);
+    }
+
+    // Starts limiting pings in the given mode
+    private void startMode(String mode) {
+        if (MODE_METER.equals(mode)) {
+            // The switch polices each host by itself; no packet-in is requested
+            meterPolicer.start(HOST_METER_KBPS);
+        } else if (MODE_COUNTER.equals(mode)) {
+            // Pings are counted by table0 and polled in bulk
+            counterPoller.start(MAX_PINGS, TIME_BAN, POLL_MS);
+        } else {
+            if (MODE_SKETCH.equals(mode)) {
+                sketch = new PingSketch(SKETCH_WIDTH, SKETCH_DEPTH, TIME_BAN * SECONDS, HEAVY_HITTERS);
+            }
+            packetService.addProcessor(packetProcessor, PROCES_PRIORITY);
+            packetService.requestPackets(interceptSelector, PacketPriority.CONTROL, appId, Optional.empty());
+        }
+    }
+
+    // Stops limiting pings in the given mode
+    private void stopMode(String mode) {
+        if (MODE_METER.equals(mode)) {
+            meterPolicer.stop();
+        } else if (MODE_COUNTER.equals(mode)) {
+            counterPoller.stop();
+        } else {
+            packetService.cancelPackets(interceptSelector, PacketPriority.CONTROL, appId, Optional.empty());
+            packetService.removeProcessor(packetProcessor);
+            sketch = null;
+        }
+    }
+
+    /**
+     * Returns the number of count decays and ban lifts waiting to expire.
+     *
+     * @return queue depth of the expiry wheel
+     */
+    public long pendingTimeouts() {
+        TimingWheel wheel = sweeper;
+        return wheel == null ? 0 : wheel.pending();
+    }
+
+    /**
+     * Returns the number of (device, src, dst) pairs with pings being tracked.
+     *
+     * @return size of the ping counter table
+     */
+    public int trackedPairs() {
+        return pings.size();
+    }
+
+    /**
+     * Returns the number of pairs banned, whatever the state of their drop rule.
+     *
+     * @return number of bans
+     */
+    public int activeBans() {
+        return bans.size();
+    }
+
+    /**
+     * Returns the number of pairs confirmed as heavy hitters by the sketch.
+     *
+     * @return number of heavy hitters, zero unless in sketch mode
+     */
+    public int heavyHitters() {
+        PingSketch current = sketch;
+        return current == null ? 0 : current.heavyHitters();
+    }
+
+    @Override
+    public List<String> recentEvents() {
+        return events.recent();
+    }
+
+    @Override
+    public long discardedEvents() {
+        return events.discarded();
+    }
+
+    /**
+     * Returns the largest batch of timeouts expired in a single tick.
+     *
+     * @return largest expiry batch
+     */
+    public int maxExpiryBatch() {
+        TimingWheel wheel = sweeper;
+        return wheel == null ? 0 : wheel.maxBatch();
+    }
+
 
 
     // Processes the specified ICMP ping packet.
-    private void processPing(PacketContext context, Ethernet eth) {
+    private void processPing(PacketContext context, long src, long dst) {
         DeviceId deviceId = context.inPacket().receivedFrom().deviceId();
-        MacAddress src = eth.getSourceMAC();
-        MacAddress dst = eth.getDestinationMAC();
-        PingRecord ping = new PingRecord(deviceId, src, dst);
-        Integer num_pings = pings.get(ping);
-
-        if (num_pings == null) {
-            num_pings = 0;
+        long k0 = PingCounterTable.key0(devices.indexOf(deviceId), src);
+        long k1 = dst;
+        seenMeter.mark();
+
+        PingSketch current = sketch;
+        if (current != null) {
+            processSketchPing(context, current, deviceId, k0, k1);
+            return;
         }
+
+        // Check and increment happen atomically under the stripe lock
+        int num_pings = pings.incrementIfBelow(k0, k1, MAX_PINGS);
         if (num_pings >= MAX_PINGS) {
-            // Two pings detected; ban further pings and block packet-out
-            log.warn(MSG_PINGED_TWICE, src, dst, deviceId);
-            banPings(deviceId, src, dst);
+            // Limit reached; ban further pings unless already banned and block packet-out
+            if (bans.get(k0, k1) == null) {
+                banPings(deviceId, k0, k1);
+            }
+            events.record(PingEventLog.DROPPED, k0, k1);
+            blockedMeter.mark();
             context.block();
         } else {
             // One ping detected; track it fnor the next minute
-            log.info(MSG_PINGED_ONCE, src, dst, deviceId);
-            pings.put(ping, num_pings + 1);
-            timer.schedule(new PingPruner(ping), TIME_BAN * 1000);
+            events.record(PingEventLog.PINGED, k0, k1);
+            sweeper.scheduleKey(k0, k1, TIME_BAN * SECONDS);
+        }
+    }
+
+    // Counts a ping in the sketch; pairs over the limit are confirmed exactly before the ban.
+    private void processSketchPing(PacketContext context, PingSketch current, DeviceId deviceId, long k0, long k1) {
+        if (bans.get(k0, k1) != null) {
+            events.record(PingEventLog.DROPPED, k0, k1);
+            blockedMeter.mark();
+            context.block();
+            return;
+        }
+        int estimate = current.add(k0, k1);
+        // Promote at half the limit so the exact count covers the rest of it
+        int promotion = Math.max(1, MAX_PINGS / 2);
+        if (estimate >= promotion) {
+            int exact = current.confirm(k0, k1);
+            if (estimate > MAX_PINGS && exact > MAX_PINGS - promotion) {
+                banPings(deviceId, k0, k1);
+                events.record(PingEventLog.DROPPED, k0, k1);
+                blockedMeter.mark();
+                context.block();
+                return;
+            }
         }
+        events.record(PingEventLog.PINGED, k0, k1);
+    }
+
+    // Bans a pair, or a source towards any destination, whose counter went over the limit.
+    private void banFromCounters(DeviceId deviceId, long src, long dst) {
+        banPings(deviceId, PingCounterTable.key0(devices.indexOf(deviceId), src), dst);
     }
 
     // Installs a drop rule for the ICMP pings between given src/dst.
-    private void banPings(DeviceId deviceId, MacAddress src, MacAddress dst) {
+    private void banPings(DeviceId deviceId, long k0, long k1) {
+        MacAddress src = MacAddress.valueOf(PingCounterTable.src(k0));
+        MacAddress dst = MacAddress.valueOf(k1);
+
         //Se define el criterio de intercepcion
-        PiCriterion match = PiCriterion.builder()
+        PiCriterion.Builder criterion = PiCriterion.builder()
                 .matchTernary(PiMatchFieldId.of("hdr.ethernet.ether_type"), Ethernet.TYPE_IPV4, 0xffff)
                 .matchTernary(PiMatchFieldId.of("hdr.ipv4.protocol"), IPv4.PROTOCOL_ICMP, 0xff)
-                .matchTernary(PiMatchFieldId.of("hdr.ethernet.src_addr"), src.toLong(), 0xffffffffffffL)
-                .matchTernary(PiMatchFieldId.of("hdr.ethernet.dst_addr"), dst.toLong(), 0xffffffffffffL)
-                .build();
+                .matchTernary(PiMatchFieldId.of("hdr.ethernet.src_addr"), src.toLong(), 0xffffffffffffL);
+        // Per-source counters ban the source towards any destination
+        if (k1 != CounterPoller.ANY_MAC) {
+            criterion.matchTernary(PiMatchFieldId.of("hdr.ethernet.dst_addr"), dst.toLong(), 0xffffffffffffL);
+        }
+        PiCriterion match = criterion.build();
 
         //Se define la accion a tomar
         PiAction action = PiAction.builder()
@@ -191,88 +431,112 @@ public class SeveralPingP4 {
                 .withTreatment(DefaultTrafficTreatment.builder().piTableAction(action).build())
                 .build();
 
-        // Apply the drop rule...
-        flowRuleService.applyFlowRules(dropRule);
-
-        // Schedule the removal of the drop rule after a minute...
+        // Only the thread that registers the ban installs its rule
+        BanTable.Ban ban = bans.add(k0, k1, dropRule);
+        if (ban == null) {
+            return;
+        }
+        events.record(PingEventLog.BANNED, k0, k1);
+        bannedMeter.mark();
+        if (log.isDebugEnabled()) {
+            log.debug(MSG_PINGED_TWICE, MAX_PINGS, src, dst, deviceId, TIME_BAN);
+        }
 
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                flowRuleService.removeFlowRules(dropRule);
-                log.warn(MSG_PING_REENABLED, src, dst, deviceId);
+        // Schedule the removal of the drop rule after the ban time and apply it
+        ban.timeout(sweeper.schedule(() -> liftBan(ban), TIME_BAN * SECONDS));
+        ruleBatchService.install(dropRule).whenComplete((r, e) -> {
+            if (e != null) {
+                log.warn(MSG_BAN_FAILED, src, dst, deviceId);
             }
-        }, TIME_BAN * SECONDS);
+        });
     }
 
-    // Indicates whether the specified packet corresponds to ICMP ping.
-    private boolean isIcmpPing(Ethernet eth) {
-        return eth.getEtherType() == Ethernet.TYPE_IPV4 &&
-                ((IPv4) eth.getPayload()).getProtocol() == IPv4.PROTOCOL_ICMP;
+    // Removes the drop rule of a ban, whether or not its install was confirmed.
+    private void liftBan(BanTable.Ban ban) {
+        if (bans.transition(ban, BanTable.State.ACTIVE, BanTable.State.PENDING_REMOVE) ||
+                bans.transition(ban, BanTable.State.PENDING_INSTALL, BanTable.State.PENDING_REMOVE)) {
+            // Forget the ban anyway if the removal is never confirmed
+            ban.timeout(sweeper.schedule(() -> forgetBan(ban), TIME_BAN * SECONDS));
+            ruleBatchService.remove(ban.rule());
+        }
     }
 
-
-    // Intercepts packets
-    private class PingPacketProcessor implements PacketProcessor {
-        @Override
-        public void process(PacketContext context) {
-            Ethernet eth = context.inPacket().parsed();
-            if (isIcmpPing(eth)) {
-                processPing(context, eth);
-            }
+    // Drops a ban from the table once its rule is gone.
+    private void forgetBan(BanTable.Ban ban) {
+        if (bans.remove(ban)) {
+            events.record(PingEventLog.REENABLED, ban.k0(), ban.k1());
         }
     }
 
-    // Record of a ping between two end-station MAC addresses
-    private class PingRecord {
-        private final DeviceId deviceId;
-        private final MacAddress src;
-        private final MacAddress dst;
+    // Indicates whether the specified packet corresponds to ICMP ping.
+    private boolean isIcmpPing(Ethernet eth) {
+        return eth != null && eth.getEtherType() == Ethernet.TYPE_IPV4 &&
+                eth.getPayload() instanceof IPv4 &&
+                ((IPv4) eth.getPayload()).getProtocol() == IPv4.PROTOCOL_ICMP;
+    }
 
-        public PingRecord(DeviceId deviceId, MacAddress src, MacAddress dst) {
-            this.deviceId = deviceId;
-            this.src = src;
-            this.dst = dst;
-        }
 
+    // Drives the ban state machine from the device confirmations
+    private class InternalFlowRuleListener implements FlowRuleListener {
         @Override
-        public int hashCode() {
-            return Objects.hash(deviceId, src, dst);
+        public boolean isRelevant(FlowRuleEvent event) {
+            return event.subject().appId() == appId.id();
         }
 
         @Override
-        public boolean equals(Object obj) {
-            if (this == obj) {
-                return true;
+        public void event(FlowRuleEvent event) {
+            BanTable.Ban ban = bans.get(event.subject());
+            if (ban == null) {
+                return;
             }
-            if (obj == null || getClass() != obj.getClass()) {
-                return false;
+            switch (event.type()) {
+                case RULE_ADDED:
+                    bans.transition(ban, BanTable.State.PENDING_INSTALL, BanTable.State.ACTIVE);
+                    break;
+                case RULE_REMOVED:
+                    TimingWheel.Timeout timeout = ban.timeout();
+                    if (timeout != null) {
+                        timeout.cancel();
+                    }
+                    forgetBan(ban);
+                    break;
+                default:
+                    break;
             }
-            final PingRecord other = (PingRecord) obj;
-            return Objects.equals(this.deviceId, other.deviceId) && Objects.equals(this.src, other.src) && Objects.equals(this.dst, other.dst);
         }
     }
 
-    // Prunes the given ping record from the specified device.
-    // Eliminamos en 1 el numero de pings del HashMap una vez ha pasado el tiempo predefinido
-    private class PingPruner extends TimerTask {
-        private final PingRecord ping;
-
-        public PingPruner(PingRecord ping) {
-            this.ping = ping;
-        }
+    // Intercepts packets; package-private so the benchmarks can drive it
+    class PingPacketProcessor implements PacketProcessor {
+        // Racy across packet threads; it only picks the packets that are timed
+        private int processed = 0;
 
         @Override
-        public void run() {
-            Integer num_pings = pings.get(ping);
+        public void process(PacketContext context) {
+            if (context.isHandled()) {
+                return;
+            }
+            // Most packets skip the clock reads and the reservoir update of the timer
+            if ((++processed & (TIMER_SAMPLING - 1)) != 0) {
+                classify(context);
+                return;
+            }
+            long start = System.nanoTime();
+            classify(context);
+            processTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
 
-            if (num_pings != null) {
-                if(num_pings == 0)
-                {
-                    pings.remove(ping);
-                }
-                else {
-                    pings.put(ping, num_pings - 1);
+        private void classify(PacketContext context) {
+            // Fast path: read the headers straight from the raw frame
+            ByteBuffer frame = context.inPacket().unparsed();
+            int icmpType = IcmpClassifier.classify(frame);
+            if (icmpType >= 0) {
+                processPing(context, IcmpClassifier.srcMac(frame), IcmpClassifier.dstMac(frame));
+            } else if (icmpType == IcmpClassifier.UNKNOWN) {
+                // Slow path: truncated or unusual frames go through the full parser
+                Ethernet eth = context.inPacket().parsed();
+                if (isIcmpPing(eth)) {
+                    processPing(context, eth.getSourceMAC().toLong(), eth.getDestinationMAC().toLong());
                 }
             }
         }
@@ -288,7 +552,55 @@ public class SeveralPingP4 {
         s = Tools.get(properties, "TIME_BAN");
         TIME_BAN = Strings.isNullOrEmpty(s) ? TIME_BAN_DEFAULT : Integer.parseInt(s.trim());
 
+        s = Tools.get(properties, "TICK_MS");
+        TICK_MS = Strings.isNullOrEmpty(s) ? TICK_MS_DEFAULT : Integer.parseInt(s.trim());
+        if (TICK_MS <= 0) {
+            // The wheel cannot be built with it and the component would not start
+            log.warn(MSG_BAD_PROPERTY, "TICK_MS", TICK_MS, TICK_MS_DEFAULT);
+            TICK_MS = TICK_MS_DEFAULT;
+        }
+
+        s = Tools.get(properties, "DETECTION_MODE");
+        String mode = Strings.isNullOrEmpty(s) ? DETECTION_MODE_DEFAULT : s.trim();
+
+        s = Tools.get(properties, "POLL_MS");
+        POLL_MS = Strings.isNullOrEmpty(s) ? POLL_MS_DEFAULT : Integer.parseInt(s.trim());
+        if (POLL_MS <= 0) {
+            // The poller cannot be scheduled with it and counter mode would not start
+            log.warn(MSG_BAD_PROPERTY, "POLL_MS", POLL_MS, POLL_MS_DEFAULT);
+            POLL_MS = POLL_MS_DEFAULT;
+        }
+
+        s = Tools.get(properties, "SKETCH_WIDTH");
+        SKETCH_WIDTH = Strings.isNullOrEmpty(s) ? SKETCH_WIDTH_DEFAULT : Integer.parseInt(s.trim());
+
+        s = Tools.get(properties, "SKETCH_DEPTH");
+        SKETCH_DEPTH = Strings.isNullOrEmpty(s) ? SKETCH_DEPTH_DEFAULT : Integer.parseInt(s.trim());
+
+        s = Tools.get(properties, "HOST_METER_KBPS");
+        HOST_METER_KBPS = Strings.isNullOrEmpty(s) ? HOST_METER_KBPS_DEFAULT : Integer.parseInt(s.trim());
+        if (HOST_METER_KBPS <= 0) {
+            log.warn(MSG_BAD_PROPERTY, "HOST_METER_KBPS", HOST_METER_KBPS, HOST_METER_KBPS_DEFAULT);
+            HOST_METER_KBPS = HOST_METER_KBPS_DEFAULT;
+        }
+
         log.info(CHANGE_PROPERTIES, MAX_PINGS, TIME_BAN);
+
+        if (!active) {
+            DETECTION_MODE = mode;
+        } else if (!mode.equals(DETECTION_MODE)) {
+            log.info(CHANGE_MODE, DETECTION_MODE, mode);
+            stopMode(DETECTION_MODE);
+            DETECTION_MODE = mode;
+            startMode(DETECTION_MODE);
+        } else if (MODE_METER.equals(DETECTION_MODE)) {
+            meterPolicer.update(HOST_METER_KBPS);
+        } else if (MODE_COUNTER.equals(DETECTION_MODE)) {
+            counterPoller.update(MAX_PINGS, TIME_BAN, POLL_MS);
+        } else if (MODE_SKETCH.equals(DETECTION_MODE)) {
+            // A new size or window needs a new sketch; counts start over
+            sketch = new PingSketch(SKETCH_WIDTH, SKETCH_DEPTH, TIME_BAN * SECONDS, HEAVY_HITTERS);
+        }
     }
 
 
@@ -10,4 +10,26 @@ public class SeveralPingP4Const {
 
     static final String TIME_BAN = "TIME_BAN";
     static final int TIME_BAN_DEFAULT = 60;
+
+    static final String TICK_MS = "TICK_MS";
+    static final int TICK_MS_DEFAULT = 100;
+
+    static final String DETECTION_MODE = "DETECTION_MODE";
+    static final String MODE_PACKET = "packet";
+    static final String MODE_METER = "meter";
+    static final String MODE_COUNTER = "counter";
+    static final String MODE_SKETCH = "sketch";
+    static final String DETECTION_MODE_DEFAULT = MODE_PACKET;
+
+    static final String POLL_MS = "POLL_MS";
+    static final int POLL_MS_DEFAULT = 1000;
+
+    static final String SKETCH_WIDTH = "SKETCH_WIDTH";
+    static final int SKETCH_WIDTH_DEFAULT = 2048;
+
+    static final String SKETCH_DEPTH = "SKETCH_DEPTH";
+    static final int SKETCH_DEPTH_DEFAULT = 4;
+
+    static final String HOST_METER_KBPS = "HOST_METER_KBPS";
+    static final int HOST_METER_KBPS_DEFAULT = 100000;
 }
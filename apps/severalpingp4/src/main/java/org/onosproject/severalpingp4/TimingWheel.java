@@ -0,0 +1,387 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timing wheel that expires ping counts and lifts bans.
+ * <p>
+ * Scheduling and cancelling a timeout are O(1): the timeout is linked into the
+ * bucket of its deadline tick. A single worker thread sweeps one bucket per
+ * tick and runs every expired task of that bucket as one batch.
+ * <p>
+ * Besides cancellable tasks, the wheel has a keyed lane for the per-packet
+ * count decay: a pair of longs is appended to a primitive array in the bucket,
+ * so scheduling it does not allocate, and it is handed back to the
+ * {@link KeyExpiry} handler when it expires.
+ */
+final class TimingWheel {
+
+    private final Logger log = LoggerFactory.getLogger(TimingWheel.class);
+
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final KeyExpiry keyExpiry;
+
+    // Last tick whose bucket has been swept; only advanced under that bucket's lock
+    private volatile long processedTick = 0;
+
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private volatile int lastBatch = 0;
+    private volatile int maxBatch = 0;
+
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts a timing wheel.
+     *
+     * @param name          name of the worker thread
+     * @param tickMillis    duration of a tick in milliseconds
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     * @param keyExpiry     handler of the expired keyed timeouts
+     */
+    TimingWheel(String name, long tickMillis, int ticksPerWheel, KeyExpiry keyExpiry) {
+        if (tickMillis <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("tick and wheel size must be positive");
+        }
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(ticksPerWheel - 1 > 0 ? (ticksPerWheel - 1) << 1 : 1);
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.keyExpiry = keyExpiry;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules a task to run once after the given delay.
+     *
+     * @param task        task to run on the wheel thread
+     * @param delayMillis delay in milliseconds
+     * @return handle that can be used to cancel the task
+     */
+    Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task);
+        long ticks = ticks(delayMillis);
+        for (;;) {
+            long now = processedTick;
+            long deadline = now + ticks;
+            Bucket bucket = buckets[(int) (deadline & mask)];
+            synchronized (bucket) {
+                // Retry if the worker swept past our reference tick meanwhile
+                if (processedTick == now) {
+                    timeout.deadline = deadline;
+                    bucket.add(timeout);
+                    pending.incrementAndGet();
+                    return timeout;
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules the expiry of a key after the given delay without allocating.
+     * Keyed timeouts cannot be cancelled.
+     *
+     * @param k0          first half of the key
+     * @param k1          second half of the key
+     * @param delayMillis delay in milliseconds
+     */
+    void scheduleKey(long k0, long k1, long delayMillis) {
+        long ticks = ticks(delayMillis);
+        for (;;) {
+            long now = processedTick;
+            long deadline = now + ticks;
+            Bucket bucket = buckets[(int) (deadline & mask)];
+            synchronized (bucket) {
+                if (processedTick == now) {
+                    bucket.addKey(deadline, k0, k1);
+                    pending.incrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private long ticks(long delayMillis) {
+        return Math.max(1, (TimeUnit.MILLISECONDS.toNanos(delayMillis) + tickNanos - 1) / tickNanos);
+    }
+
+    /**
+     * Stops the worker thread and discards every pending timeout.
+     *
+     * @return number of timeouts that were discarded
+     */
+    long stop() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(TimeUnit.NANOSECONDS.toMillis(tickNanos) * 2 + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long discarded = 0;
+        for (Bucket bucket : buckets) {
+            synchronized (bucket) {
+                discarded += bucket.clear();
+            }
+        }
+        pending.set(0);
+        return discarded;
+    }
+
+    /**
+     * Returns the number of timeouts waiting to expire.
+     *
+     * @return queue depth of the wheel
+     */
+    long pending() {
+        return pending.get();
+    }
+
+    /**
+     * Returns the number of timeouts expired since the wheel was started.
+     *
+     * @return total expired timeouts
+     */
+    long expired() {
+        return expired.get();
+    }
+
+    /**
+     * Returns the size of the last non-empty expiry batch.
+     *
+     * @return last batch size
+     */
+    int lastBatch() {
+        return lastBatch;
+    }
+
+    /**
+     * Returns the largest expiry batch seen so far.
+     *
+     * @return largest batch size
+     */
+    int maxBatch() {
+        return maxBatch;
+    }
+
+    // Worker loop: waits for each tick and runs its expired timeouts as a batch
+    private void run() {
+        final long start = System.nanoTime();
+        final List<Timeout> batch = new ArrayList<>();
+        final KeyBatch keyBatch = new KeyBatch();
+        while (running) {
+            long tick = processedTick + 1;
+            long sleepNanos = start + tick * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            Bucket bucket = buckets[(int) (tick & mask)];
+            synchronized (bucket) {
+                bucket.expire(tick, batch, keyBatch);
+                processedTick = tick;
+            }
+            int size = batch.size() + keyBatch.size;
+            if (size == 0) {
+                continue;
+            }
+            pending.addAndGet(-size);
+            expired.addAndGet(size);
+            lastBatch = size;
+            maxBatch = Math.max(maxBatch, size);
+            for (int i = 0; i < keyBatch.size; i++) {
+                try {
+                    keyExpiry.expired(keyBatch.keys[2 * i], keyBatch.keys[2 * i + 1]);
+                } catch (RuntimeException e) {
+                    log.warn("Fallo en una tarea de {}", name, e);
+                }
+            }
+            for (Timeout timeout : batch) {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    log.warn("Fallo en una tarea de {}", name, e);
+                }
+            }
+            batch.clear();
+            keyBatch.size = 0;
+        }
+    }
+
+    /**
+     * Handler of the keyed timeouts, invoked on the wheel thread.
+     */
+    interface KeyExpiry {
+        /**
+         * Notifies that a keyed timeout has expired.
+         *
+         * @param k0 first half of the key
+         * @param k1 second half of the key
+         */
+        void expired(long k0, long k1);
+    }
+
+    // Reusable buffer of the keys expired in one tick
+    private static final class KeyBatch {
+        private long[] keys = new long[64];
+        private int size;
+
+        private void add(long k0, long k1) {
+            if (2 * size + 2 > keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
+            keys[2 * size] = k0;
+            keys[2 * size + 1] = k1;
+            size++;
+        }
+    }
+
+    /**
+     * Handle of a task scheduled on the wheel.
+     */
+    final class Timeout {
+        private final Runnable task;
+        private long deadline;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Cancels the task if it has not expired yet.
+         *
+         * @return true if the task was cancelled by this call
+         */
+        boolean cancel() {
+            Bucket b = bucket;
+            if (b == null) {
+                return false;
+            }
+            synchronized (b) {
+                if (bucket != b) {
+                    return false;
+                }
+                b.remove(this);
+            }
+            pending.decrementAndGet();
+            return true;
+        }
+    }
+
+    // Intrusive doubly-linked list of the timeouts hashed to one slot, plus
+    // the keyed timeouts stored as (deadline, k0, k1) triples
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+        private long[] keyed = new long[0];
+        private int keyedLength;
+
+        private void addKey(long deadline, long k0, long k1) {
+            if (keyedLength + 3 > keyed.length) {
+                keyed = Arrays.copyOf(keyed, Math.max(48, keyed.length * 2));
+            }
+            keyed[keyedLength++] = deadline;
+            keyed[keyedLength++] = k0;
+            keyed[keyedLength++] = k1;
+        }
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        private void expire(long tick, List<Timeout> batch, KeyBatch keyBatch) {
+            int kept = 0;
+            for (int i = 0; i < keyedLength; i += 3) {
+                if (keyed[i] <= tick) {
+                    keyBatch.add(keyed[i + 1], keyed[i + 2]);
+                } else {
+                    keyed[kept++] = keyed[i];
+                    keyed[kept++] = keyed[i + 1];
+                    keyed[kept++] = keyed[i + 2];
+                }
+            }
+            keyedLength = kept;
+
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.deadline <= tick) {
+                    remove(timeout);
+                    batch.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+
+        private int clear() {
+            int count = keyedLength / 3;
+            keyedLength = 0;
+            while (head != null) {
+                remove(head);
+                count++;
+            }
+            return count;
+        }
+    }
+}
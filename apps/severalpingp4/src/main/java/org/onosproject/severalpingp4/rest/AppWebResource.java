@@ -0,0 +1,52 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4.rest;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.onosproject.rest.AbstractWebResource;
+import org.onosproject.severalpingp4.PingEventService;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * SeveralPingP4 web resource.
+ */
+@Path("pings")
+public class AppWebResource extends AbstractWebResource {
+
+    /**
+     * Gets the most recent ping events, oldest first, and the number of
+     * events discarded because the event ring was full.
+     *
+     * @return 200 OK with the events
+     */
+    @GET
+    @Path("events")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getEvents() {
+        PingEventService eventService = get(PingEventService.class);
+        ObjectNode node = mapper().createObjectNode();
+        ArrayNode eventsNode = node.putArray("events");
+        eventService.recentEvents().forEach(eventsNode::add);
+        node.put("discarded", eventService.discardedEvents());
+        return ok(node).build();
+    }
+}
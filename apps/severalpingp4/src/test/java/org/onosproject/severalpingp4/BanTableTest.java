@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.junit.Test;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the ban table and its pair and rule indexes.
+ */
+public class BanTableTest {
+
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "org.onosproject.severalpingp4");
+    private static final DeviceId DEVICE = DeviceId.deviceId("device:s1");
+
+    private final BanTable table = new BanTable();
+
+    private static FlowRule rule(int priority) {
+        return DefaultFlowRule.builder()
+                .forDevice(DEVICE)
+                .withSelector(DefaultTrafficSelector.emptySelector())
+                .withTreatment(DefaultTrafficTreatment.emptyTreatment())
+                .withPriority(priority)
+                .fromApp(APP_ID)
+                .makePermanent()
+                .build();
+    }
+
+    @Test
+    public void addsOncePerPair() {
+        FlowRule rule = rule(10);
+        BanTable.Ban ban = table.add(1, 2, rule);
+        assertNotNull(ban);
+        assertNull(table.add(1, 2, rule(11)));
+        assertSame(ban, table.get(1, 2));
+        assertSame(ban, table.get(rule));
+        assertNull(table.get(1, 3));
+        assertEquals(1, table.size());
+        assertEquals(BanTable.State.PENDING_INSTALL, ban.state());
+    }
+
+    @Test
+    public void transitionsFollowTheLifecycle() {
+        BanTable.Ban ban = table.add(1, 2, rule(10));
+        assertFalse(table.transition(ban, BanTable.State.ACTIVE, BanTable.State.PENDING_REMOVE));
+        assertTrue(table.transition(ban, BanTable.State.PENDING_INSTALL, BanTable.State.ACTIVE));
+        assertTrue(table.transition(ban, BanTable.State.ACTIVE, BanTable.State.PENDING_REMOVE));
+        assertTrue(table.remove(ban));
+        assertFalse(table.transition(ban, BanTable.State.PENDING_REMOVE, BanTable.State.ACTIVE));
+        assertFalse(table.remove(ban));
+        assertNull(table.get(1, 2));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void staleBanDoesNotRemoveItsSuccessor() {
+        BanTable.Ban first = table.add(1, 2, rule(10));
+        table.remove(first);
+        BanTable.Ban second = table.add(1, 2, rule(11));
+        assertFalse(table.remove(first));
+        assertSame(second, table.get(1, 2));
+    }
+
+    @Test
+    public void removalKeepsOtherPairsReachable() {
+        List<Long> keys = new ArrayList<>();
+        List<BanTable.Ban> added = new ArrayList<>();
+        for (long k = 0; k < 5000; k++) {
+            keys.add(k);
+            added.add(table.add(k, ~k, rule((int) (k % 60000) + 1)));
+        }
+        Collections.shuffle(keys, new Random(11));
+        for (int i = 0; i < keys.size() / 2; i++) {
+            long k = keys.get(i);
+            assertTrue(table.remove(added.get((int) k)));
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            long k = keys.get(i);
+            BanTable.Ban expected = i < keys.size() / 2 ? null : added.get((int) k);
+            assertSame(expected, table.get(k, ~k));
+        }
+        assertEquals(keys.size() / 2, table.size());
+        assertEquals(keys.size() / 2, table.bans().size());
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        FlowRule rule = rule(10);
+        table.add(1, 2, rule);
+        table.clear();
+        assertNull(table.get(1, 2));
+        assertNull(table.get(rule));
+        assertEquals(0, table.size());
+    }
+}
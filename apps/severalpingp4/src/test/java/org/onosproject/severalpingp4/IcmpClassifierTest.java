@@ -0,0 +1,143 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.junit.Test;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.ICMP;
+import org.onlab.packet.IPv4;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the fixed-offset ICMP classifier on hand-built frames.
+ */
+public class IcmpClassifierTest {
+
+    private static final long DST_MAC = 0x0a0000000001L;
+    private static final long SRC_MAC = 0xfe00000000ffL;
+    private static final int IHL_MIN = 5;
+
+    @Test
+    public void untaggedEchoRequest() {
+        assertEquals(ICMP.TYPE_ECHO_REQUEST, IcmpClassifier.classify(frame(0, IHL_MIN, IPv4.PROTOCOL_ICMP, 0)));
+    }
+
+    @Test
+    public void singleAndDoubleTagged() {
+        assertEquals(ICMP.TYPE_ECHO_REQUEST, IcmpClassifier.classify(frame(1, IHL_MIN, IPv4.PROTOCOL_ICMP, 0)));
+        assertEquals(ICMP.TYPE_ECHO_REQUEST, IcmpClassifier.classify(frame(2, IHL_MIN, IPv4.PROTOCOL_ICMP, 0)));
+    }
+
+    @Test
+    public void tripleTaggedIsUnknown() {
+        assertEquals(IcmpClassifier.UNKNOWN, IcmpClassifier.classify(frame(3, IHL_MIN, IPv4.PROTOCOL_ICMP, 0)));
+    }
+
+    @Test
+    public void nonIpv4IsNotIcmp() {
+        ByteBuffer frame = frame(0, IHL_MIN, IPv4.PROTOCOL_ICMP, 0);
+        frame.putShort(12, Ethernet.TYPE_ARP);
+        assertEquals(IcmpClassifier.NOT_ICMP, IcmpClassifier.classify(frame));
+
+        frame = frame(1, IHL_MIN, IPv4.PROTOCOL_ICMP, 0);
+        frame.putShort(16, Ethernet.TYPE_IPV6);
+        assertEquals(IcmpClassifier.NOT_ICMP, IcmpClassifier.classify(frame));
+    }
+
+    @Test
+    public void otherProtocolIsNotIcmp() {
+        assertEquals(IcmpClassifier.NOT_ICMP, IcmpClassifier.classify(frame(0, IHL_MIN, IPv4.PROTOCOL_UDP, 0)));
+        assertEquals(IcmpClassifier.NOT_ICMP, IcmpClassifier.classify(frame(1, IHL_MIN, IPv4.PROTOCOL_TCP, 0)));
+    }
+
+    @Test
+    public void onlyFirstFragmentIsClassified() {
+        // More fragments set, offset 0: the ICMP header is there
+        assertEquals(ICMP.TYPE_ECHO_REQUEST,
+                     IcmpClassifier.classify(frame(0, IHL_MIN, IPv4.PROTOCOL_ICMP, 0x2000)));
+        assertEquals(IcmpClassifier.NOT_ICMP, IcmpClassifier.classify(frame(0, IHL_MIN, IPv4.PROTOCOL_ICMP, 0x2001)));
+        assertEquals(IcmpClassifier.NOT_ICMP, IcmpClassifier.classify(frame(0, IHL_MIN, IPv4.PROTOCOL_ICMP, 0x00b9)));
+    }
+
+    @Test
+    public void optionsMoveTheIcmpHeader() {
+        ByteBuffer frame = frame(0, 7, IPv4.PROTOCOL_ICMP, 0);
+        assertEquals(ICMP.TYPE_ECHO_REPLY, frame.get(14 + 20));
+        assertEquals(ICMP.TYPE_ECHO_REQUEST, IcmpClassifier.classify(frame));
+    }
+
+    @Test
+    public void badHeaderIsUnknown() {
+        assertEquals(IcmpClassifier.UNKNOWN, IcmpClassifier.classify(frame(0, 4, IPv4.PROTOCOL_ICMP, 0)));
+        ByteBuffer frame = frame(0, IHL_MIN, IPv4.PROTOCOL_ICMP, 0);
+        frame.put(14, (byte) 0x65);
+        assertEquals(IcmpClassifier.UNKNOWN, IcmpClassifier.classify(frame));
+        assertEquals(IcmpClassifier.UNKNOWN, IcmpClassifier.classify(null));
+    }
+
+    @Test
+    public void truncatedFramesAreUnknown() {
+        ByteBuffer full = frame(2, 6, IPv4.PROTOCOL_ICMP, 0);
+        int icmp = 14 + 2 * 4 + 24;
+        // Short of the Ethernet header, inside a tag, inside the IPv4 header, at the ICMP type
+        for (int length : new int[]{0, 13, 17, 14 + 8 + 19, icmp}) {
+            ByteBuffer frame = full.duplicate();
+            frame.limit(length);
+            assertEquals("length " + length, IcmpClassifier.UNKNOWN, IcmpClassifier.classify(frame));
+        }
+        full.limit(icmp + 1);
+        assertEquals(ICMP.TYPE_ECHO_REQUEST, IcmpClassifier.classify(full));
+    }
+
+    @Test
+    public void readsFromThePositionWithoutMovingIt() {
+        ByteBuffer frame = frame(1, IHL_MIN, IPv4.PROTOCOL_ICMP, 0);
+        ByteBuffer shifted = ByteBuffer.allocate(frame.capacity() + 5);
+        shifted.position(5);
+        shifted.put(frame);
+        shifted.position(5);
+        assertEquals(ICMP.TYPE_ECHO_REQUEST, IcmpClassifier.classify(shifted));
+        assertEquals(DST_MAC, IcmpClassifier.dstMac(shifted));
+        assertEquals(SRC_MAC, IcmpClassifier.srcMac(shifted));
+        assertEquals(5, shifted.position());
+    }
+
+    // Ethernet frame with the given VLAN tags and an IPv4 header of ihl words
+    private static ByteBuffer frame(int tags, int ihl, byte protocol, int flagsOffset) {
+        ByteBuffer frame = ByteBuffer.allocate(14 + tags * 4 + ihl * 4 + 8);
+        frame.putShort((short) (DST_MAC >>> 32)).putInt((int) DST_MAC);
+        frame.putShort((short) (SRC_MAC >>> 32)).putInt((int) SRC_MAC);
+        for (int i = 0; i < tags; i++) {
+            frame.putShort(i == 0 && tags > 1 ? Ethernet.TYPE_QINQ : Ethernet.TYPE_VLAN).putShort((short) (100 + i));
+        }
+        frame.putShort(Ethernet.TYPE_IPV4);
+        int l3 = frame.position();
+        frame.put((byte) (0x40 | ihl));
+        frame.position(l3 + 6);
+        frame.putShort((short) flagsOffset);
+        frame.put((byte) 64).put(protocol);
+        // Options, if any, are filled with a byte that is not the ICMP type
+        for (int i = l3 + 20; i < l3 + ihl * 4; i++) {
+            frame.put(i, ICMP.TYPE_ECHO_REPLY);
+        }
+        frame.put(l3 + Math.max(ihl, 1) * 4, ICMP.TYPE_ECHO_REQUEST);
+        frame.clear();
+        return frame;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.junit.Test;
+import org.onosproject.net.DeviceId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the striped ping counter table and the device index.
+ */
+public class PingCounterTableTest {
+
+    private final PingCounterTable table = new PingCounterTable();
+
+    @Test
+    public void countsUpToTheLimit() {
+        long k0 = PingCounterTable.key0(3, 0x0a0b0c0d0e0fL);
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i, table.incrementIfBelow(k0, 2, 7));
+        }
+        assertEquals(7, table.incrementIfBelow(k0, 2, 7));
+        assertEquals(7, table.get(k0, 2));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void zeroLimitDoesNotInsert() {
+        assertEquals(0, table.incrementIfBelow(1, 2, 0));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void decrementRemovesAtZero() {
+        table.incrementIfBelow(1, 2, 7);
+        table.incrementIfBelow(1, 2, 7);
+        table.decrement(1, 2);
+        assertEquals(1, table.get(1, 2));
+        table.decrement(1, 2);
+        assertEquals(0, table.get(1, 2));
+        assertEquals(0, table.size());
+        // Absent keys are ignored
+        table.decrement(1, 2);
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void backwardShiftDeletionKeepsEveryOtherKeyReachable() {
+        // Enough keys to grow the stripes and form long probe runs
+        int n = 20000;
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            table.incrementIfBelow(i, i * 31L, 7);
+            if (i % 3 == 0) {
+                table.incrementIfBelow(i, i * 31L, 7);
+            }
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(7));
+        for (int i : order.subList(0, n / 2)) {
+            table.decrement(i, i * 31L);
+        }
+        for (int i : order.subList(0, n / 2)) {
+            assertEquals(i % 3 == 0 ? 1 : 0, table.get(i, i * 31L));
+        }
+        for (int i : order.subList(n / 2, n)) {
+            assertEquals(i % 3 == 0 ? 2 : 1, table.get(i, i * 31L));
+        }
+        int expected = n / 2;
+        for (int i : order.subList(0, n / 2)) {
+            expected += i % 3 == 0 ? 1 : 0;
+        }
+        assertEquals(expected, table.size());
+    }
+
+    @Test
+    public void clearEmptiesTheTable() {
+        for (int i = 0; i < 1000; i++) {
+            table.incrementIfBelow(i, i, 7);
+        }
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(0, table.get(5, 5));
+    }
+
+    @Test
+    public void keyPacksDeviceAndSource() {
+        long k0 = PingCounterTable.key0(0xffff, 0xffffffffffffL);
+        assertEquals(0xffff, PingCounterTable.device(k0));
+        assertEquals(0xffffffffffffL, PingCounterTable.src(k0));
+        assertEquals(0x1234, PingCounterTable.device(PingCounterTable.key0(0x1234, -1L)));
+    }
+
+    @Test
+    public void deviceIndexInternsDevices() {
+        DeviceIndex index = new DeviceIndex();
+        DeviceId s1 = DeviceId.deviceId("device:s1");
+        DeviceId s2 = DeviceId.deviceId("device:s2");
+        assertEquals(0, index.indexOf(s1));
+        assertEquals(1, index.indexOf(s2));
+        assertEquals(0, index.indexOf(DeviceId.deviceId("device:s1")));
+        assertEquals(s2, index.deviceId(1));
+    }
+}
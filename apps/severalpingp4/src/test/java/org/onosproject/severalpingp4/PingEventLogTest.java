@@ -0,0 +1,77 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.junit.Test;
+import org.onosproject.net.DeviceId;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the bounded ping event ring, drained by hand instead of by the
+ * background consumer.
+ */
+public class PingEventLogTest {
+
+    private static final long INTERVAL_MS = 60000;
+
+    private final DeviceIndex devices = new DeviceIndex();
+    private final int device = devices.indexOf(DeviceId.deviceId("device:s1"));
+    private final PingEventLog events = new PingEventLog(devices, INTERVAL_MS);
+
+    @Test
+    public void fullRingDiscards() {
+        for (int i = 0; i < PingEventLog.RING_SIZE; i++) {
+            events.record(PingEventLog.PINGED, PingCounterTable.key0(device, 1), i);
+        }
+        assertEquals(0, events.discarded());
+        events.record(PingEventLog.PINGED, PingCounterTable.key0(device, 1), 0);
+        events.record(PingEventLog.DROPPED, PingCounterTable.key0(device, 1), 0);
+        assertEquals(2, events.discarded());
+
+        // Draining hands the slots back to the producers
+        events.stop();
+        events.record(PingEventLog.BANNED, PingCounterTable.key0(device, 1), 2);
+        assertEquals(2, events.discarded());
+    }
+
+    @Test
+    public void recentKeepsTheLastDrainedRecords() {
+        int total = PingEventLog.RECENT_SIZE + 10;
+        for (int i = 0; i < total; i++) {
+            events.record(PingEventLog.PINGED, PingCounterTable.key0(device, 1), i);
+        }
+        events.stop();
+        List<String> recent = events.recent();
+        assertEquals(PingEventLog.RECENT_SIZE, recent.size());
+        // Oldest first: the first ten records were overwritten
+        assertTrue(recent.get(0), recent.get(0).endsWith("00:00:00:00:00:0A en device:s1"));
+        assertTrue(recent.get(recent.size() - 1).contains(" -> 00:00:00:00:01:09 "));
+    }
+
+    @Test
+    public void recentFormatsTheEvent() {
+        events.record(PingEventLog.BANNED, PingCounterTable.key0(device, 0x0a0b0c0d0e0fL), 0x010203040506L);
+        events.stop();
+        List<String> recent = events.recent();
+        assertEquals(1, recent.size());
+        assertTrue(recent.get(0),
+                   recent.get(0).endsWith(" BANNED 0A:0B:0C:0D:0E:0F -> 01:02:03:04:05:06 en device:s1"));
+    }
+}
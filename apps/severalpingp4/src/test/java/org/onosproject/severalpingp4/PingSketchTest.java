@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the Count-Min ping sketch and its heavy hitter table.
+ */
+public class PingSketchTest {
+
+    private static final long WINDOW_MS = 600000;
+
+    @Test
+    public void neverUnderestimates() {
+        // Far more keys than columns, so most cells are shared
+        PingSketch sketch = new PingSketch(64, 3, WINDOW_MS, 8);
+        Random random = new Random(5);
+        int keys = 2000;
+        int[] counts = new int[keys];
+        for (int i = 0; i < 50000; i++) {
+            int key = random.nextInt(keys);
+            counts[key]++;
+            int estimate = sketch.add(PingCounterTable.key0(1, key), key * 7L);
+            assertTrue("key " + key, estimate >= counts[key]);
+        }
+    }
+
+    @Test
+    public void isExactWithoutCollisions() {
+        PingSketch sketch = new PingSketch(4096, 4, WINDOW_MS, 8);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, sketch.add(1, 2));
+        }
+    }
+
+    @Test
+    public void roundsWidthUpToAPowerOfTwo() {
+        assertEquals(2 * 128 * 3, new PingSketch(100, 3, WINDOW_MS, 8).cells());
+        assertEquals(2 * 128 * 3, new PingSketch(128, 3, WINDOW_MS, 8).cells());
+    }
+
+    @Test
+    public void confirmCountsExactly() {
+        PingSketch sketch = new PingSketch(64, 2, WINDOW_MS, 2);
+        assertEquals(1, sketch.confirm(1, 2));
+        assertEquals(2, sketch.confirm(1, 2));
+        assertEquals(1, sketch.confirm(3, 4));
+        assertEquals(2, sketch.heavyHitters());
+    }
+
+    @Test
+    public void fullTableEvictsTheSmallestCount() {
+        PingSketch sketch = new PingSketch(64, 2, WINDOW_MS, 2);
+        sketch.confirm(1, 2);
+        sketch.confirm(1, 2);
+        sketch.confirm(3, 4);
+        // (3, 4) has the smallest count and makes room for (5, 6)
+        assertEquals(1, sketch.confirm(5, 6));
+        assertEquals(3, sketch.confirm(1, 2));
+        assertEquals(1, sketch.confirm(3, 4));
+        assertEquals(2, sketch.heavyHitters());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.severalpingp4;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the hashed timing wheel.
+ */
+public class TimingWheelTest {
+
+    private static final int TICK_MS = 10;
+
+    private final List<String> runs = new CopyOnWriteArrayList<>();
+    private TimingWheel wheel;
+
+    @After
+    public void tearDown() {
+        if (wheel != null) {
+            wheel.stop();
+        }
+    }
+
+    @Test
+    public void expiresInDeadlineOrder() throws InterruptedException {
+        wheel = new TimingWheel("test", TICK_MS, 64, (k0, k1) -> { });
+        CountDownLatch done = new CountDownLatch(3);
+        wheel.schedule(() -> record("c", done), 90);
+        wheel.schedule(() -> record("a", done), 30);
+        wheel.schedule(() -> record("b", done), 60);
+        assertEquals(3, wheel.pending());
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a", "b", "c"), runs);
+        assertEquals(0, wheel.pending());
+        assertEquals(3, wheel.expired());
+    }
+
+    @Test
+    public void cancelledTaskNeverRuns() throws InterruptedException {
+        wheel = new TimingWheel("test", TICK_MS, 64, (k0, k1) -> { });
+        CountDownLatch done = new CountDownLatch(1);
+        TimingWheel.Timeout cancelled = wheel.schedule(() -> runs.add("cancelled"), 30);
+        wheel.schedule(() -> record("kept", done), 60);
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(1, wheel.pending());
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("kept"), runs);
+    }
+
+    @Test
+    public void delayLongerThanTheWheelWaitsForItsRound() throws InterruptedException {
+        // Four buckets of 10 ms: a 150 ms delay goes round the wheel several times
+        wheel = new TimingWheel("test", TICK_MS, 4, (k0, k1) -> { });
+        CountDownLatch done = new CountDownLatch(2);
+        long start = System.nanoTime();
+        long[] elapsed = new long[2];
+        wheel.schedule(() -> {
+            elapsed[0] = System.nanoTime() - start;
+            record("short", done);
+        }, 20);
+        wheel.schedule(() -> {
+            elapsed[1] = System.nanoTime() - start;
+            record("long", done);
+        }, 150);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("short", "long"), runs);
+        assertTrue(elapsed[1] >= TimeUnit.MILLISECONDS.toNanos(150 - TICK_MS));
+    }
+
+    @Test
+    public void keyedTimeoutsReachTheHandler() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(2);
+        wheel = new TimingWheel("test", TICK_MS, 8, (k0, k1) -> record(k0 + ":" + k1, done));
+        wheel.scheduleKey(1, 2, 50);
+        wheel.scheduleKey(3, 4, 20);
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("3:4", "1:2"), runs);
+    }
+
+    @Test
+    public void stopDiscardsPendingTimeouts() {
+        wheel = new TimingWheel("test", TICK_MS, 8, (k0, k1) -> { });
+        wheel.schedule(() -> runs.add("never"), 10000);
+        wheel.scheduleKey(1, 2, 10000);
+        assertEquals(2, wheel.stop());
+        assertEquals(0, wheel.pending());
+        wheel = null;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveTick() {
+        new TimingWheel("test", 0, 8, (k0, k1) -> { });
+    }
+
+    private void record(String name, CountDownLatch done) {
+        runs.add(name);
+        done.countDown();
+    }
+}
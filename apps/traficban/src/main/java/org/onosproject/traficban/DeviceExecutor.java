@@ -0,0 +1,287 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.traficban;
+
+import org.onosproject.net.DeviceId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Runs per-device work on a bounded pool of threads.
+ * <p>
+ * The tasks of a device are started one at a time and in submission order;
+ * tasks of different devices start in parallel. A task counts against its
+ * device until the future it returns completes, i.e. until the device has
+ * answered. A device holds at most a fixed number of tasks queued or waiting
+ * for an answer: past it, submitters wait for room for a while and the task
+ * is then rejected, so a slow switch pushes back on its callers instead of
+ * piling work up.
+ */
+final class DeviceExecutor {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    // Tasks a lane runs before letting other devices use the thread
+    private static final int DRAIN_BATCH = 64;
+
+    private final ThreadPoolExecutor pool;
+    private final ConcurrentMap<DeviceId, Lane> lanes = new ConcurrentHashMap<>();
+    private final long submitTimeoutMs;
+    private final ObjLongConsumer<DeviceId> fanoutObserver;
+    private volatile int queueDepth;
+
+    /**
+     * Creates an executor.
+     *
+     * @param threads         pool size
+     * @param queueDepth      tasks queued or awaiting an answer per device
+     * @param submitTimeoutMs time a submitter waits for room before the task is rejected
+     * @param fanoutObserver  told of the nanoseconds from the submission of each task to the
+     *                        completion of its future
+     */
+    DeviceExecutor(int threads, int queueDepth, long submitTimeoutMs, ObjLongConsumer<DeviceId> fanoutObserver) {
+        // Each device queues at most one drain on the pool, so its queue is bounded by the devices
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                                           groupedThreads("onos/traficban", "fanout-%d", log));
+        this.queueDepth = queueDepth;
+        this.submitTimeoutMs = submitTimeoutMs;
+        this.fanoutObserver = fanoutObserver;
+    }
+
+    /**
+     * Changes the pool size and the depth of the device queues.
+     *
+     * @param threads    pool size
+     * @param queueDepth tasks queued or awaiting an answer per device
+     */
+    void resize(int threads, int queueDepth) {
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+        } else {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+        }
+        this.queueDepth = queueDepth;
+        lanes.values().forEach(Lane::wakeUp);
+    }
+
+    /**
+     * Queues a task behind the other tasks of its device, waiting for room if
+     * the device queue is full.
+     *
+     * @param deviceId device the task works on
+     * @param task     task; returns a future for the work it starts
+     * @return future completed with the future of the task, or exceptionally
+     * with RejectedExecutionException if the device queue stayed full
+     */
+    CompletableFuture<Void> submit(DeviceId deviceId, Supplier<CompletableFuture<Void>> task) {
+        return lanes.computeIfAbsent(deviceId, Lane::new).submit(task);
+    }
+
+    /**
+     * Returns the timings of every device seen so far.
+     *
+     * @return timings, one per device
+     */
+    List<DeviceTiming> timings() {
+        List<DeviceTiming> timings = new ArrayList<>();
+        lanes.values().forEach(lane -> timings.add(lane.timing()));
+        return timings;
+    }
+
+    /**
+     * Returns the pool size.
+     *
+     * @return threads
+     */
+    int threads() {
+        return pool.getMaximumPoolSize();
+    }
+
+    /**
+     * Returns the depth of the device queues.
+     *
+     * @return tasks queued or awaiting an answer per device
+     */
+    int queueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Stops the pool; queued tasks are not run and their futures fail.
+     */
+    void shutdown() {
+        pool.shutdownNow();
+        lanes.values().forEach(Lane::abort);
+        lanes.clear();
+    }
+
+    // Serial queue of a device
+    private final class Lane {
+        private final DeviceId deviceId;
+        private final Queue<Pending> queue = new ArrayDeque<>();
+        private int pending = 0;
+        private boolean draining = false;
+
+        private long tasks = 0;
+        private long rejected = 0;
+        private long totalWaitNanos = 0;
+        private long totalRunNanos = 0;
+        private long maxRunNanos = 0;
+        private long lastRunNanos = 0;
+
+        private Lane(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        private CompletableFuture<Void> submit(Supplier<CompletableFuture<Void>> task) {
+            Pending p = new Pending(task);
+            boolean start;
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + submitTimeoutMs;
+                while (pending >= queueDepth) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        rejected++;
+                        p.future.completeExceptionally(new RejectedExecutionException(
+                                "Cola llena para el dispositivo " + deviceId));
+                        return p.future;
+                    }
+                    try {
+                        wait(left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        rejected++;
+                        p.future.completeExceptionally(new RejectedExecutionException(e));
+                        return p.future;
+                    }
+                }
+                pending++;
+                queue.add(p);
+                start = !draining;
+                draining = true;
+            }
+            if (start) {
+                schedule();
+            }
+            return p.future;
+        }
+
+        private void schedule() {
+            try {
+                pool.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                abort();
+            }
+        }
+
+        // Runs a batch of tasks, then goes back to the pool if more are queued
+        private void drain() {
+            for (int n = 0; n < DRAIN_BATCH; n++) {
+                Pending p;
+                synchronized (this) {
+                    p = queue.poll();
+                    if (p == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                long start = System.nanoTime();
+                CompletableFuture<Void> run;
+                try {
+                    run = p.task.get();
+                } catch (RuntimeException e) {
+                    run = CompletableFuture.failedFuture(e);
+                }
+                run.whenComplete((r, e) -> finish(p, start, e));
+            }
+            schedule();
+        }
+
+        // Accounts for a task once its device has answered, making room for the next submitter
+        private void finish(Pending p, long start, Throwable error) {
+            long end = System.nanoTime();
+            synchronized (this) {
+                pending--;
+                tasks++;
+                totalWaitNanos += start - p.queued;
+                totalRunNanos += end - start;
+                lastRunNanos = end - start;
+                maxRunNanos = Math.max(maxRunNanos, lastRunNanos);
+                notifyAll();
+            }
+            fanoutObserver.accept(deviceId, end - p.queued);
+            if (error != null) {
+                p.future.completeExceptionally(error);
+            } else {
+                p.future.complete(null);
+            }
+        }
+
+        private synchronized void wakeUp() {
+            notifyAll();
+        }
+
+        private void abort() {
+            List<Pending> dropped;
+            synchronized (this) {
+                dropped = new ArrayList<>(queue);
+                queue.clear();
+                pending -= dropped.size();
+                draining = false;
+                notifyAll();
+            }
+            dropped.forEach(p -> p.future.completeExceptionally(
+                    new RejectedExecutionException("Ejecutor detenido")));
+        }
+
+        private synchronized DeviceTiming timing() {
+            return new DeviceTiming(deviceId, tasks, rejected, pending,
+                                    tasks == 0 ? 0 : totalWaitNanos / tasks,
+                                    tasks == 0 ? 0 : totalRunNanos / tasks,
+                                    maxRunNanos, lastRunNanos);
+        }
+    }
+
+    // Queued task and the future handed to its submitter
+    private static final class Pending {
+        private final Supplier<CompletableFuture<Void>> task;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final long queued = System.nanoTime();
+
+        private Pending(Supplier<CompletableFuture<Void>> task) {
+            this.task = task;
+        }
+    }
+}
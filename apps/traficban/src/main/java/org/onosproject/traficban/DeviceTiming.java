@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.traficban;
+
+import org.onosproject.net.DeviceId;
+
+/**
+ * Snapshot of the work done for one device by the fan-out executor.
+ */
+public final class DeviceTiming {
+
+    private final DeviceId deviceId;
+    private final long tasks;
+    private final long rejected;
+    private final int pending;
+    private final long avgWaitNanos;
+    private final long avgRunNanos;
+    private final long maxRunNanos;
+    private final long lastRunNanos;
+
+    DeviceTiming(DeviceId deviceId, long tasks, long rejected, int pending,
+                 long avgWaitNanos, long avgRunNanos, long maxRunNanos, long lastRunNanos) {
+        this.deviceId = deviceId;
+        this.tasks = tasks;
+        this.rejected = rejected;
+        this.pending = pending;
+        this.avgWaitNanos = avgWaitNanos;
+        this.avgRunNanos = avgRunNanos;
+        this.maxRunNanos = maxRunNanos;
+        this.lastRunNanos = lastRunNanos;
+    }
+
+    public DeviceId deviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Returns the number of tasks of the device the device has answered.
+     *
+     * @return tasks run
+     */
+    public long tasks() {
+        return tasks;
+    }
+
+    /**
+     * Returns the number of tasks rejected because the device queue was full.
+     *
+     * @return tasks rejected
+     */
+    public long rejected() {
+        return rejected;
+    }
+
+    /**
+     * Returns the number of tasks queued or awaiting an answer from the device.
+     *
+     * @return tasks pending
+     */
+    public int pending() {
+        return pending;
+    }
+
+    /**
+     * Returns the mean time tasks waited in the device queue.
+     *
+     * @return mean wait in nanoseconds
+     */
+    public long avgWaitNanos() {
+        return avgWaitNanos;
+    }
+
+    /**
+     * Returns the mean time from the start of a task to the answer of the device.
+     *
+     * @return mean run time in nanoseconds
+     */
+    public long avgRunNanos() {
+        return avgRunNanos;
+    }
+
+    public long maxRunNanos() {
+        return maxRunNanos;
+    }
+
+    public long lastRunNanos() {
+        return lastRunNanos;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.traficban;
+
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Turns the match fields of a REST rule into as few ternary entries as
+ * possible.
+ * <p>
+ * A field is a comma-separated list of items: a value, a range "lo-hi", a
+ * prefix "value/len" or a masked value "value&amp;&amp;&amp;mask". Values,
+ * ranges and prefixes of a field are merged when they overlap or touch, and
+ * each merged range is split into its minimal prefix cover. The entries of a
+ * rule are the cross product of its fields; entries covered by another one
+ * are dropped and pairs differing in a single value bit are merged into one,
+ * until no pair is left.
+ */
+final class MatchCompiler {
+
+    /**
+     * How the values of a field are written.
+     */
+    enum Kind {
+        /** Decimal, hex or octal number; ranges allowed. */
+        NUMBER,
+        /** Dotted IPv4 address; ranges allowed. */
+        IP4,
+        /** Colon-separated MAC address; no ranges. */
+        MAC
+    }
+
+    private MatchCompiler() {
+    }
+
+    /**
+     * Ternary value of one field.
+     */
+    static final class Ternary {
+        private final long value;
+        private final long mask;
+
+        Ternary(long value, long mask) {
+            this.value = value & mask;
+            this.mask = mask;
+        }
+
+        long value() {
+            return value;
+        }
+
+        long mask() {
+            return mask;
+        }
+
+        // True if every value this one matches is also matched by the other
+        private boolean coveredBy(Ternary other) {
+            return (other.mask & ~mask) == 0 && (value & other.mask) == other.value;
+        }
+
+        @Override
+        public String toString() {
+            return Long.toHexString(value) + "&&&" + Long.toHexString(mask);
+        }
+    }
+
+    /**
+     * Parses a field into disjoint-where-possible ternary values.
+     *
+     * @param spec  comma-separated items of the field
+     * @param kind  how values are written
+     * @param width field width in bits, up to 63
+     * @return ternary values matching exactly the items given
+     * @throws IllegalArgumentException if an item cannot be parsed or does not fit
+     */
+    static List<Ternary> field(String spec, Kind kind, int width) {
+        long full = width >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << width) - 1;
+        List<long[]> ranges = new ArrayList<>();
+        List<Ternary> masked = new ArrayList<>();
+        for (String raw : spec.split(",")) {
+            String item = raw.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            int sep;
+            if ((sep = item.indexOf("&&&")) >= 0) {
+                long mask = value(item.substring(sep + 3), kind, full);
+                long value = value(item.substring(0, sep), kind, full);
+                if (isPrefix(mask, full)) {
+                    ranges.add(new long[]{value & mask, (value & mask) | (full & ~mask)});
+                } else {
+                    masked.add(new Ternary(value, mask));
+                }
+            } else if ((sep = item.indexOf('/')) >= 0) {
+                int len = prefixLength(item.substring(sep + 1), width);
+                long mask = full & ~(full >>> len);
+                long value = value(item.substring(0, sep), kind, full);
+                ranges.add(new long[]{value & mask, (value & mask) | (full & ~mask)});
+            } else if (kind != Kind.MAC && (sep = item.indexOf('-')) > 0) {
+                long lo = value(item.substring(0, sep), kind, full);
+                long hi = value(item.substring(sep + 1), kind, full);
+                if (lo > hi) {
+                    throw new IllegalArgumentException("Rango vacio: " + item);
+                }
+                ranges.add(new long[]{lo, hi});
+            } else {
+                long value = value(item, kind, full);
+                ranges.add(new long[]{value, value});
+            }
+        }
+
+        List<Ternary> ternaries = new ArrayList<>();
+        for (long[] range : merge(ranges)) {
+            prefixes(range[0], range[1], full, ternaries);
+        }
+        for (Ternary t : masked) {
+            if (ternaries.stream().noneMatch(t::coveredBy)) {
+                ternaries.add(t);
+            }
+        }
+        return ternaries;
+    }
+
+    /**
+     * Builds the entries of a rule from its fields.
+     *
+     * @param fields     ternary values of each field, in a fixed field order
+     * @param maxEntries bound to the entries of the rule
+     * @return entries, each one a ternary value per field in the same order
+     * @throws IllegalArgumentException if the rule needs more than maxEntries entries
+     */
+    static List<Ternary[]> entries(List<List<Ternary>> fields, int maxEntries) {
+        long product = 1;
+        for (List<Ternary> field : fields) {
+            product *= Math.max(1, field.size());
+            if (product > maxEntries) {
+                throw new IllegalArgumentException("La regla necesita mas de " + maxEntries + " entradas");
+            }
+        }
+        List<Ternary[]> entries = new ArrayList<>();
+        entries.add(new Ternary[fields.size()]);
+        for (int f = 0; f < fields.size(); f++) {
+            if (fields.get(f).isEmpty()) {
+                // Wildcard
+                for (Ternary[] entry : entries) {
+                    entry[f] = new Ternary(0, 0);
+                }
+                continue;
+            }
+            List<Ternary[]> next = new ArrayList<>();
+            for (Ternary[] entry : entries) {
+                for (Ternary t : fields.get(f)) {
+                    Ternary[] e = entry.clone();
+                    e[f] = t;
+                    next.add(e);
+                }
+            }
+            entries = next;
+        }
+        return minimize(entries);
+    }
+
+    // Drops covered entries and merges pairs one bit apart until nothing changes
+    private static List<Ternary[]> minimize(List<Ternary[]> entries) {
+        boolean changed = true;
+        while (changed && entries.size() > 1) {
+            changed = false;
+            List<Ternary[]> kept = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                boolean covered = false;
+                for (int j = 0; j < entries.size() && !covered; j++) {
+                    // Of two identical entries only the first one stays
+                    covered = j != i && covers(entries.get(j), entries.get(i)) &&
+                            (j < i || !covers(entries.get(i), entries.get(j)));
+                }
+                if (!covered) {
+                    kept.add(entries.get(i));
+                }
+            }
+            changed = kept.size() < entries.size();
+            entries = kept;
+
+            outer:
+            for (int i = 0; i < entries.size(); i++) {
+                for (int j = i + 1; j < entries.size(); j++) {
+                    Ternary[] merged = merge(entries.get(i), entries.get(j));
+                    if (merged != null) {
+                        entries.set(i, merged);
+                        entries.remove(j);
+                        changed = true;
+                        break outer;
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static boolean covers(Ternary[] a, Ternary[] b) {
+        for (int f = 0; f < a.length; f++) {
+            if (!b[f].coveredBy(a[f])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Entry matching both, if they have the same masks and differ in one value bit
+    private static Ternary[] merge(Ternary[] a, Ternary[] b) {
+        int field = -1;
+        for (int f = 0; f < a.length; f++) {
+            if (a[f].mask != b[f].mask) {
+                return null;
+            }
+            if (a[f].value != b[f].value) {
+                if (field >= 0) {
+                    return null;
+                }
+                field = f;
+            }
+        }
+        if (field < 0) {
+            return null;
+        }
+        long diff = a[field].value ^ b[field].value;
+        if (Long.bitCount(diff) != 1) {
+            return null;
+        }
+        Ternary[] merged = a.clone();
+        merged[field] = new Ternary(a[field].value, a[field].mask & ~diff);
+        return merged;
+    }
+
+    // Sorted ranges with the overlapping or adjacent ones joined
+    private static List<long[]> merge(List<long[]> ranges) {
+        ranges.sort(Comparator.comparingLong(r -> r[0]));
+        List<long[]> merged = new ArrayList<>();
+        for (long[] range : ranges) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(range.clone());
+            }
+        }
+        return merged;
+    }
+
+    // Minimal set of prefixes covering [lo, hi]
+    private static void prefixes(long lo, long hi, long full, List<Ternary> out) {
+        while (lo <= hi) {
+            // Largest aligned block starting at lo that does not pass hi
+            long size = lo == 0 ? Long.highestOneBit(full) << 1 : Long.lowestOneBit(lo);
+            while (size == 0 || lo + size - 1 > hi || lo + size - 1 < lo) {
+                size >>>= 1;
+            }
+            out.add(new Ternary(lo, full & ~(size - 1)));
+            if (lo + size - 1 == hi) {
+                break;
+            }
+            lo += size;
+        }
+    }
+
+    private static boolean isPrefix(long mask, long full) {
+        long inverted = full & ~mask;
+        return (inverted & (inverted + 1)) == 0;
+    }
+
+    private static int prefixLength(String s, int width) {
+        try {
+            int len = Integer.parseInt(s.trim());
+            if (len >= 0 && len <= width) {
+                return len;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Longitud de prefijo no valida: " + s);
+    }
+
+    private static long value(String s, Kind kind, long full) {
+        long value;
+        try {
+            switch (kind) {
+                case IP4:
+                    value = Ip4Address.valueOf(s.trim()).toInt() & 0xffffffffL;
+                    break;
+                case MAC:
+                    value = MacAddress.valueOf(s.trim()).toLong();
+                    break;
+                default:
+                    value = Long.decode(s.trim());
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Valor no valido: " + s);
+        }
+        if (value < 0 || value > full) {
+            throw new IllegalArgumentException("Valor fuera de rango: " + s);
+        }
+        return value;
+    }
+}
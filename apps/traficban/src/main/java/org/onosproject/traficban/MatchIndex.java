@@ -0,0 +1,419 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.traficban;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.TableId;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.pi.runtime.PiExactFieldMatch;
+import org.onosproject.net.pi.runtime.PiFieldMatch;
+import org.onosproject.net.pi.runtime.PiLpmFieldMatch;
+import org.onosproject.net.pi.runtime.PiTernaryFieldMatch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Index of the rules of the application by device, table, priority and match,
+ * to find the installed rules a new one duplicates or overlaps.
+ * <p>
+ * A match is seen as a ternary mask and value per field; exact and LPM fields
+ * are ternary fields with a full or prefix mask, and a missing field has an
+ * all-zero mask. Two matches overlap when their values agree on the bits both
+ * masks care about. Rules of a (device, table, priority) are grouped by mask,
+ * each group hashed on its masked values. A query takes one hash lookup per
+ * group, on a projection of the group over the bits shared with the new
+ * match; projections are built on first use and then kept up to date. Each
+ * group keeps at most {@link #MAX_PROJECTIONS} of them, evicting the least
+ * recently queried, so a stream of distinct masks costs rebuilds rather than
+ * memory.
+ */
+final class MatchIndex {
+
+    /** Largest number of projections kept per group of rules. */
+    static final int MAX_PROJECTIONS = 16;
+
+    private final Map<Bucket, Map<Masks, Group>> buckets = new HashMap<>();
+
+    /**
+     * Returns the indexed rules the given rule duplicates or overlaps.
+     *
+     * @param rule flow rule about to be installed
+     * @return conflicts, empty if none
+     */
+    synchronized List<RuleConflict> conflicts(FlowRule rule) {
+        Map<Masks, Group> groups = buckets.get(new Bucket(rule));
+        if (groups == null) {
+            return new ArrayList<>();
+        }
+        Match match = new Match(rule);
+        List<RuleConflict> conflicts = new ArrayList<>();
+        for (Group group : groups.values()) {
+            Masks common = match.masks.and(group.masks);
+            List<Entry> entries = group.projection(common).get(match.values(common));
+            if (entries == null) {
+                continue;
+            }
+            for (Entry entry : entries) {
+                boolean duplicate = group.masks.equals(match.masks) && entry.match.equals(match);
+                conflicts.add(new RuleConflict(duplicate ? RuleConflict.Type.DUPLICATE : RuleConflict.Type.OVERLAP,
+                                               rule.deviceId(), entry.idRule, entry.rule.id()));
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * Indexes a rule; indexing it again is a no-op.
+     *
+     * @param rule   flow rule
+     * @param idRule REST id of the rule, null if unknown
+     */
+    synchronized void add(FlowRule rule, String idRule) {
+        Match match = new Match(rule);
+        Group group = buckets.computeIfAbsent(new Bucket(rule), b -> new HashMap<>())
+                .computeIfAbsent(match.masks, Group::new);
+        group.add(new Entry(rule, idRule, match));
+    }
+
+    /**
+     * Removes a rule from the index.
+     *
+     * @param rule flow rule
+     */
+    synchronized void remove(FlowRule rule) {
+        Bucket bucket = new Bucket(rule);
+        Map<Masks, Group> groups = buckets.get(bucket);
+        if (groups == null) {
+            return;
+        }
+        Match match = new Match(rule);
+        Group group = groups.get(match.masks);
+        if (group != null && group.remove(rule, match) && group.isEmpty()) {
+            groups.remove(match.masks);
+            if (groups.isEmpty()) {
+                buckets.remove(bucket);
+            }
+        }
+    }
+
+    /**
+     * Removes every rule from the index.
+     */
+    synchronized void clear() {
+        buckets.clear();
+    }
+
+    // Rules competing for the same lookup: same device, table and priority
+    private static final class Bucket {
+        private final DeviceId deviceId;
+        private final TableId tableId;
+        private final int priority;
+
+        private Bucket(FlowRule rule) {
+            this.deviceId = rule.deviceId();
+            this.tableId = rule.table();
+            this.priority = rule.priority();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, tableId, priority);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Bucket other = (Bucket) obj;
+            return priority == other.priority && Objects.equals(deviceId, other.deviceId) &&
+                    Objects.equals(tableId, other.tableId);
+        }
+    }
+
+    // Indexed rule
+    private static final class Entry {
+        private final FlowRule rule;
+        private final String idRule;
+        private final Match match;
+
+        private Entry(FlowRule rule, String idRule, Match match) {
+            this.rule = rule;
+            this.idRule = idRule;
+            this.match = match;
+        }
+    }
+
+    // Rules sharing the same masks, hashed on their values under any projection queried so far
+    private static final class Group {
+        private final Masks masks;
+        private final Map<FlowId, Entry> entries = new HashMap<>();
+        // Access ordered, so the least recently queried projection is dropped first
+        private final Map<Masks, Map<Values, List<Entry>>> projections =
+                new LinkedHashMap<Masks, Map<Values, List<Entry>>>(MAX_PROJECTIONS, 0.75f, true) {
+                    @Override
+                    // Entry alone would name Map.Entry in here
+                    protected boolean removeEldestEntry(
+                            Map.Entry<Masks, Map<Values, List<MatchIndex.Entry>>> eldest) {
+                        return size() > MAX_PROJECTIONS;
+                    }
+                };
+
+        private Group(Masks masks) {
+            this.masks = masks;
+        }
+
+        private Map<Values, List<Entry>> projection(Masks common) {
+            Map<Values, List<Entry>> projection = projections.get(common);
+            if (projection == null) {
+                projection = new HashMap<>();
+                for (Entry entry : entries.values()) {
+                    projection.computeIfAbsent(entry.match.values(common), v -> new ArrayList<>()).add(entry);
+                }
+                projections.put(common, projection);
+            }
+            return projection;
+        }
+
+        private void add(Entry entry) {
+            if (entries.putIfAbsent(entry.rule.id(), entry) != null) {
+                return;
+            }
+            projections.forEach((common, projection) -> projection
+                    .computeIfAbsent(entry.match.values(common), v -> new ArrayList<>()).add(entry));
+        }
+
+        private boolean remove(FlowRule rule, Match match) {
+            if (entries.remove(rule.id()) == null) {
+                return false;
+            }
+            projections.forEach((common, projection) -> {
+                Values values = match.values(common);
+                List<Entry> bucket = projection.get(values);
+                if (bucket != null) {
+                    bucket.removeIf(e -> e.rule.id().equals(rule.id()));
+                    if (bucket.isEmpty()) {
+                        projection.remove(values);
+                    }
+                }
+            });
+            return true;
+        }
+
+        private boolean isEmpty() {
+            return entries.isEmpty();
+        }
+    }
+
+    // Ternary view of a selector: masked value per field, fields sorted by id
+    private static final class Match {
+        private final Masks masks;
+        private final SortedMap<String, byte[]> values = new TreeMap<>();
+
+        private Match(FlowRule rule) {
+            SortedMap<String, byte[]> fieldMasks = new TreeMap<>();
+            for (Criterion criterion : rule.selector().criteria()) {
+                if (criterion instanceof PiCriterion) {
+                    for (PiFieldMatch field : ((PiCriterion) criterion).fieldMatches()) {
+                        put(fieldMasks, field.fieldId().id(), value(field), mask(field));
+                    }
+                } else {
+                    // Not a P4 field: matched as an opaque exact field
+                    byte[] value = criterion.toString().getBytes(StandardCharsets.UTF_8);
+                    put(fieldMasks, criterion.type().name(), value, ones(value.length));
+                }
+            }
+            this.masks = new Masks(fieldMasks);
+        }
+
+        private void put(SortedMap<String, byte[]> fieldMasks, String field, byte[] value, byte[] mask) {
+            byte[] trimmed = trim(mask);
+            if (trimmed.length > 0) {
+                fieldMasks.put(field, trimmed);
+                values.put(field, and(value, trimmed));
+            }
+        }
+
+        // Values under a mask no wider than this match's masks
+        private Values values(Masks common) {
+            byte[][] projected = new byte[common.fields.length][];
+            for (int i = 0; i < common.fields.length; i++) {
+                projected[i] = and(values.get(common.fields[i]), common.masks[i]);
+            }
+            return new Values(projected);
+        }
+
+        @Override
+        public int hashCode() {
+            return masks.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Match other = (Match) obj;
+            if (!masks.equals(other.masks)) {
+                return false;
+            }
+            for (Map.Entry<String, byte[]> e : values.entrySet()) {
+                if (!Arrays.equals(e.getValue(), other.values.get(e.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static byte[] value(PiFieldMatch field) {
+            if (field instanceof PiTernaryFieldMatch) {
+                return ((PiTernaryFieldMatch) field).value().asArray();
+            } else if (field instanceof PiLpmFieldMatch) {
+                return ((PiLpmFieldMatch) field).value().asArray();
+            } else if (field instanceof PiExactFieldMatch) {
+                return ((PiExactFieldMatch) field).value().asArray();
+            }
+            return field.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static byte[] mask(PiFieldMatch field) {
+            if (field instanceof PiTernaryFieldMatch) {
+                return ((PiTernaryFieldMatch) field).mask().asArray();
+            } else if (field instanceof PiLpmFieldMatch) {
+                PiLpmFieldMatch lpm = (PiLpmFieldMatch) field;
+                byte[] mask = new byte[lpm.value().size()];
+                for (int bit = 0; bit < lpm.prefixLength() && bit < mask.length * 8; bit++) {
+                    mask[bit / 8] |= (byte) (0x80 >>> (bit % 8));
+                }
+                return mask;
+            }
+            // Exact and other match kinds care about every bit of their value
+            return ones(value(field).length);
+        }
+    }
+
+    // Fields and masks of a group, or the bits two groups have in common
+    private static final class Masks {
+        private final String[] fields;
+        private final byte[][] masks;
+
+        private Masks(SortedMap<String, byte[]> fieldMasks) {
+            this.fields = fieldMasks.keySet().toArray(new String[0]);
+            this.masks = fieldMasks.values().toArray(new byte[0][]);
+        }
+
+        // Bits cared about by both; fields missing from either one drop out
+        private Masks and(Masks other) {
+            SortedMap<String, byte[]> common = new TreeMap<>();
+            for (int i = 0, j = 0; i < fields.length && j < other.fields.length;) {
+                int cmp = fields[i].compareTo(other.fields[j]);
+                if (cmp < 0) {
+                    i++;
+                } else if (cmp > 0) {
+                    j++;
+                } else {
+                    byte[] mask = trim(MatchIndex.and(masks[i], other.masks[j]));
+                    if (mask.length > 0) {
+                        common.put(fields[i], mask);
+                    }
+                    i++;
+                    j++;
+                }
+            }
+            return new Masks(common);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(fields) * 31 + Arrays.deepHashCode(masks);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Masks other = (Masks) obj;
+            return Arrays.equals(fields, other.fields) && Arrays.deepEquals(masks, other.masks);
+        }
+    }
+
+    // Masked values of a match under some masks
+    private static final class Values {
+        private final byte[][] values;
+
+        private Values(byte[][] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.deepHashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || obj instanceof Values && Arrays.deepEquals(values, ((Values) obj).values);
+        }
+    }
+
+    // Right-aligned AND, as wide as the mask
+    private static byte[] and(byte[] value, byte[] mask) {
+        byte[] result = new byte[mask.length];
+        for (int i = 1; i <= mask.length; i++) {
+            byte v = i <= value.length ? value[value.length - i] : 0;
+            result[mask.length - i] = (byte) (v & mask[mask.length - i]);
+        }
+        return result;
+    }
+
+    // Drops the leading zero bytes of a mask
+    private static byte[] trim(byte[] mask) {
+        int start = 0;
+        while (start < mask.length && mask[start] == 0) {
+            start++;
+        }
+        return Arrays.copyOfRange(mask, start, mask.length);
+    }
+
+    private static byte[] ones(int length) {
+        byte[] mask = new byte[length];
+        Arrays.fill(mask, (byte) 0xff);
+        return mask;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.traficban;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rule operations in flight and the most recent finished ones.
+ * <p>
+ * Finished operations are forgotten oldest first once more than a fixed
+ * number are kept, so polling a finished operation works for a while.
+ */
+final class OperationTracker {
+
+    private final int retained;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<Long, RuleOperation> operations = new ConcurrentHashMap<>();
+    private final Queue<Long> finished = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger finishedCount = new AtomicInteger();
+
+    /**
+     * Creates a tracker.
+     *
+     * @param retained finished operations kept for polling
+     */
+    OperationTracker(int retained) {
+        this.retained = retained;
+    }
+
+    /**
+     * Registers a new pending operation.
+     *
+     * @param kind   what the operation does
+     * @param idRule REST id of the rule
+     * @return the operation
+     */
+    RuleOperation start(String kind, String idRule) {
+        RuleOperation operation = new RuleOperation(nextId.getAndIncrement(), kind, idRule);
+        operations.put(operation.id(), operation);
+        operation.completion().thenRun(() -> retire(operation.id()));
+        return operation;
+    }
+
+    /**
+     * Completes an operation when every device write has been confirmed, or
+     * fails it with the first error.
+     *
+     * @param operation operation
+     * @param writes    device writes of the operation
+     */
+    void track(RuleOperation operation, List<CompletableFuture<Void>> writes) {
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).whenComplete((r, e) -> operation
+                .complete(e == null ? null : String.valueOf(e instanceof CompletionException ? e.getCause() : e)));
+    }
+
+    /**
+     * Returns a tracked operation.
+     *
+     * @param id operation id
+     * @return operation, or null if unknown or forgotten
+     */
+    RuleOperation get(long id) {
+        return operations.get(id);
+    }
+
+    /**
+     * Fails every pending operation and forgets them all.
+     */
+    void clear() {
+        operations.values().forEach(o -> o.complete("Aplicacion desactivada"));
+        operations.clear();
+        finished.clear();
+        finishedCount.set(0);
+    }
+
+    // Each finished operation pushes out at most the oldest one
+    private void retire(long id) {
+        finished.add(id);
+        if (finishedCount.incrementAndGet() > retained) {
+            Long oldest = finished.poll();
+            if (oldest != null) {
+                finishedCount.decrementAndGet();
+                operations.remove(oldest);
+            }
+        }
+    }
+}
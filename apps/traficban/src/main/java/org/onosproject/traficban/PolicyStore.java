@@ -0,0 +1,342 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.traficban;
+
+import org.onosproject.traficban.rest.AppWebResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Desired rule policy, by rule id, kept on disk so that it survives restarts.
+ * <p>
+ * Every change is appended to a binary journal before it is applied. Once the
+ * journal holds many more records than the policy has rules, the policy is
+ * written to a compacted snapshot, which atomically replaces the previous one,
+ * and the journal starts over. Loading maps the snapshot and then the journal
+ * into memory and replays them. Each record carries a CRC, and a torn record
+ * at the end of the journal, left by a crash mid-write, is cut off.
+ * <p>
+ * Writes reach the OS on each change, so the policy survives the process
+ * dying; the files are forced to the disk on snapshots and on close.
+ */
+final class PolicyStore {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final String SNAPSHOT = "policy.snap";
+    private static final String JOURNAL = "policy.log";
+    private static final int MAGIC = 0x54424e53;
+    private static final int VERSION = 1;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+
+    // Journal records allowed beyond the live rules before compacting
+    private static final int COMPACT_SLACK = 1024;
+    private static final int MAX_RECORD = 1 << 20;
+
+    private final ConcurrentMap<String, AppWebResource.QosJson> policy = new ConcurrentHashMap<>();
+    private final Path directory;
+    private FileChannel journal;
+    private long journalRecords = 0;
+
+    /**
+     * Creates a store over a directory; nothing is read until it is opened.
+     *
+     * @param directory directory of the snapshot and journal, null to keep the policy in memory only
+     */
+    PolicyStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Loads the snapshot and the journal and opens the journal for appends.
+     *
+     * @throws IOException if the files cannot be read or created
+     */
+    synchronized void open() throws IOException {
+        policy.clear();
+        if (directory == null) {
+            return;
+        }
+        Files.createDirectories(directory);
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    throw new IOException("Snapshot no valido: " + snapshot);
+                }
+                replay(buffer);
+            }
+        }
+        journal = FileChannel.open(directory.resolve(JOURNAL), StandardOpenOption.CREATE,
+                                   StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = journal.map(FileChannel.MapMode.READ_ONLY, 0, journal.size());
+        journalRecords = replay(buffer);
+        if (buffer.position() < journal.size()) {
+            log.warn("Descartados {} bytes incompletos al final del diario de {}",
+                     journal.size() - buffer.position(), directory);
+            journal.truncate(buffer.position());
+        }
+        journal.position(buffer.position());
+        log.info("Politica cargada de {}: {} reglas, {} registros en el diario",
+                 directory, policy.size(), journalRecords);
+    }
+
+    /**
+     * Forces the journal to the disk and closes it.
+     */
+    synchronized void close() {
+        if (journal != null) {
+            try {
+                journal.force(false);
+                journal.close();
+            } catch (IOException e) {
+                log.warn("No se pudo cerrar el diario de {}", directory, e);
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Adds a rule to the policy unless its id is already there.
+     *
+     * @param idRule        rule id
+     * @param atributosJson rule attributes
+     * @return true if the rule was added
+     */
+    synchronized boolean putIfAbsent(String idRule, AppWebResource.QosJson atributosJson) {
+        if (policy.containsKey(idRule)) {
+            return false;
+        }
+        append(PUT, idRule, atributosJson);
+        policy.put(idRule, atributosJson);
+        compactIfLong();
+        return true;
+    }
+
+    /**
+     * Removes a rule from the policy.
+     *
+     * @param idRule rule id
+     * @return attributes of the rule removed, or null if none
+     */
+    synchronized AppWebResource.QosJson remove(String idRule) {
+        if (!policy.containsKey(idRule)) {
+            return null;
+        }
+        append(REMOVE, idRule, null);
+        AppWebResource.QosJson removed = policy.remove(idRule);
+        compactIfLong();
+        return removed;
+    }
+
+    /**
+     * Removes every rule from the policy.
+     */
+    synchronized void clear() {
+        append(CLEAR, null, null);
+        policy.clear();
+        compactIfLong();
+    }
+
+    /**
+     * Visits every rule of the policy.
+     *
+     * @param action called with the id and attributes of each rule
+     */
+    void forEach(BiConsumer<String, AppWebResource.QosJson> action) {
+        policy.forEach(action);
+    }
+
+    /**
+     * Returns the number of rules in the policy.
+     *
+     * @return number of rules
+     */
+    int size() {
+        return policy.size();
+    }
+
+    // Applies the records of a buffer, stopping at the first torn or corrupt one
+    private long replay(ByteBuffer buffer) {
+        long records = 0;
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > MAX_RECORD || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+            buffer.position(buffer.position() + length);
+            apply(payload);
+            records++;
+        }
+        return records;
+    }
+
+    private void apply(ByteBuffer payload) {
+        byte type = payload.get();
+        if (type == CLEAR) {
+            policy.clear();
+            return;
+        }
+        String idRule = readString(payload);
+        if (type == REMOVE) {
+            policy.remove(idRule);
+        } else if (type == PUT) {
+            AppWebResource.QosJson atributosJson = new AppWebResource.QosJson(
+                    readString(payload), readString(payload), readString(payload), readString(payload));
+            atributosJson.setId(idRule);
+            // Records written before the 5-tuple fields end here
+            if (payload.hasRemaining()) {
+                atributosJson.setInPort(readString(payload));
+                atributosJson.setSrcMac(readString(payload));
+                atributosJson.setDstMac(readString(payload));
+                atributosJson.setSrcIp(readString(payload));
+                atributosJson.setDstIp(readString(payload));
+                atributosJson.setSrcPort(readString(payload));
+                atributosJson.setDstPort(readString(payload));
+            }
+            policy.put(idRule, atributosJson);
+        }
+    }
+
+    private void append(byte type, String idRule, AppWebResource.QosJson atributosJson) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            ByteBuffer record = record(type, idRule, atributosJson);
+            while (record.hasRemaining()) {
+                journal.write(record);
+            }
+            journalRecords++;
+        } catch (IOException e) {
+            // The change still applies in memory; the next snapshot writes it down
+            log.warn("No se pudo escribir en el diario de {}", directory, e);
+        }
+    }
+
+    // Compacts the journal into a snapshot once it is long enough; runs after the change is applied
+    private void compactIfLong() {
+        if (journal == null || journalRecords <= 2L * policy.size() + COMPACT_SLACK) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            log.warn("No se pudo compactar el diario de {}", directory, e);
+        }
+    }
+
+    // Writes the whole policy to a new snapshot and starts an empty journal
+    private void compact() throws IOException {
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            channel.write(header);
+            for (Map.Entry<String, AppWebResource.QosJson> entry : policy.entrySet()) {
+                ByteBuffer record = record(PUT, entry.getKey(), entry.getValue());
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            channel.force(true);
+        }
+        // The old snapshot stays in place until the new one is complete
+        Files.move(temporary, directory.resolve(SNAPSHOT),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal.truncate(0);
+        journal.position(0);
+        journalRecords = 0;
+        log.debug("Diario de {} compactado en un snapshot de {} reglas", directory, policy.size());
+    }
+
+    private static ByteBuffer record(byte type, String idRule, AppWebResource.QosJson atributosJson) {
+        byte[][] fields = type == PUT ?
+                new byte[][]{bytes(idRule), bytes(atributosJson.getMatch()), bytes(atributosJson.getTabla()),
+                        bytes(atributosJson.getAction()), bytes(atributosJson.getParam()),
+                        bytes(atributosJson.getInPort()), bytes(atributosJson.getSrcMac()),
+                        bytes(atributosJson.getDstMac()), bytes(atributosJson.getSrcIp()),
+                        bytes(atributosJson.getDstIp()), bytes(atributosJson.getSrcPort()),
+                        bytes(atributosJson.getDstPort())} :
+                type == REMOVE ? new byte[][]{bytes(idRule)} : new byte[0][];
+        int length = 1;
+        for (byte[] field : fields) {
+            length += 4 + (field == null ? 0 : field.length);
+        }
+        ByteBuffer record = ByteBuffer.allocate(8 + length);
+        record.position(8);
+        record.put(type);
+        for (byte[] field : fields) {
+            record.putInt(field == null ? -1 : field.length);
+            if (field != null) {
+                record.put(field);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, length);
+        record.putInt(0, length).putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static byte[] bytes(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
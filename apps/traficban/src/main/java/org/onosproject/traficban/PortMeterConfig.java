@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+import org.onosproject.net.DeviceId;
+
+/**
+ * Two-rate meter of a switch port: committed and peak rates with their
+ * bursts, in the unit of the meter in the pipeline (bytes or packets).
+ */
+public final class PortMeterConfig {
+
+    /**
+     * Side of the pipeline the meter is on.
+     */
+    public enum Direction {
+        /** Meter of the traffic entering the switch through the port. */
+        INGRESS,
+        /** Meter of the traffic leaving the switch through the port. */
+        EGRESS
+    }
+
+    private final DeviceId deviceId;
+    private final Direction direction;
+    private final long port;
+    private final long committedRate;
+    private final long committedBurst;
+    private final long peakRate;
+    private final long peakBurst;
+
+    /**
+     * Creates a meter configuration.
+     *
+     * @param deviceId       device
+     * @param direction      ingress or egress meter
+     * @param port           port number, the index of the meter cell
+     * @param committedRate  committed rate, in bytes or packets per second as counted by the meter
+     * @param committedBurst committed burst, in bytes or packets
+     * @param peakRate       peak rate, in bytes or packets per second as counted by the meter
+     * @param peakBurst      peak burst, in bytes or packets
+     */
+    public PortMeterConfig(DeviceId deviceId, Direction direction, long port,
+                           long committedRate, long committedBurst, long peakRate, long peakBurst) {
+        this.deviceId = deviceId;
+        this.direction = direction;
+        this.port = port;
+        this.committedRate = committedRate;
+        this.committedBurst = committedBurst;
+        this.peakRate = peakRate;
+        this.peakBurst = peakBurst;
+    }
+
+    public DeviceId deviceId() {
+        return deviceId;
+    }
+
+    public Direction direction() {
+        return direction;
+    }
+
+    public long port() {
+        return port;
+    }
+
+    public long committedRate() {
+        return committedRate;
+    }
+
+    public long committedBurst() {
+        return committedBurst;
+    }
+
+    public long peakRate() {
+        return peakRate;
+    }
+
+    public long peakBurst() {
+        return peakBurst;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreService;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.meter.Band;
+import org.onosproject.net.meter.DefaultBand;
+import org.onosproject.net.meter.DefaultMeter;
+import org.onosproject.net.meter.Meter;
+import org.onosproject.net.meter.MeterOperation;
+import org.onosproject.net.meter.MeterProgrammable;
+import org.onosproject.net.pi.model.PiMeterId;
+import org.onosproject.net.pi.model.PiMeterModel;
+import org.onosproject.net.pi.model.PiPipeconf;
+import org.onosproject.net.pi.runtime.PiMeterCellId;
+import org.onosproject.net.pi.service.PiPipeconfService;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Writes the port meters of basic.p4 through the meter behaviour of the
+ * device driver.
+ * <p>
+ * The meters are indirect and indexed by port number. The meter service of
+ * this ONOS release allocates meter ids of its own and cannot address a cell
+ * of a pipeline meter, so each meter is handed straight to the driver with
+ * a PiMeterCellId, which the driver translates into a meter cell config.
+ * <p>
+ * Rates and bursts are given in the unit the pipeline meter counts. The
+ * ONOS meter has no bytes unit, so byte meters are written in kilobits
+ * (KB_PER_SEC), rounded up, and converted back to bytes when read.
+ */
+@Component(immediate = true, service = PortMeterService.class)
+public class PortMeterManager implements PortMeterService {
+
+    //Tiempo maximo de espera a la confirmacion de un lote de medidores
+    private static final long METER_TIMEOUT_MS = 10000;
+
+    //Bytes por kilobit
+    private static final long BYTES_PER_KILOBIT = 125;
+
+    private static final PiMeterId INGRESS_METER = PiMeterId.of("ingress.port_meters_ingress.ingress_port_meter");
+    private static final PiMeterId EGRESS_METER = PiMeterId.of("egress.port_meters_egress.egress_port_meter");
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected CoreService coreService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected PiPipeconfService pipeconfService;
+
+    private ApplicationId appId;
+
+    @Activate
+    protected void activate() {
+        appId = coreService.registerApplication("org.onosproject.TockenBucket");
+        log.info("Medidores de puerto activados");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        log.info("Medidores de puerto detenidos");
+    }
+
+    @Override
+    public List<String> setMeters(List<PortMeterConfig> configs) {
+        List<String> errors = new ArrayList<>(Collections.nCopies(configs.size(), null));
+        List<CompletableFuture<Boolean>> pending = new ArrayList<>(Collections.nCopies(configs.size(), null));
+        for (int i = 0; i < configs.size(); i++) {
+            PortMeterConfig config = configs.get(i);
+            try {
+                Meter meter = meter(config);
+                pending.set(i, programmable(config.deviceId())
+                        .performMeterOperation(new MeterOperation(meter, MeterOperation.Type.MODIFY)));
+            } catch (IllegalArgumentException e) {
+                errors.set(i, e.getMessage());
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + METER_TIMEOUT_MS;
+        for (int i = 0; i < configs.size(); i++) {
+            if (pending.get(i) == null) {
+                continue;
+            }
+            DeviceId deviceId = configs.get(i).deviceId();
+            try {
+                if (!pending.get(i).get(Math.max(0, deadline - System.currentTimeMillis()),
+                                        TimeUnit.MILLISECONDS)) {
+                    errors.set(i, "El dispositivo " + deviceId + " rechazo el medidor");
+                }
+            } catch (TimeoutException e) {
+                errors.set(i, "Sin confirmacion del dispositivo " + deviceId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                errors.set(i, "Sin confirmacion del dispositivo " + deviceId);
+            } catch (ExecutionException e) {
+                errors.set(i, "No se pudo configurar el medidor en " + deviceId + ": " + e.getCause());
+            }
+        }
+        log.info("Lote de {} medidores aplicado", configs.size());
+        return errors;
+    }
+
+    @Override
+    public List<PortMeterConfig> meters(DeviceId deviceId) {
+        Collection<Meter> meters;
+        try {
+            meters = programmable(deviceId).getMeters().get(METER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            throw new IllegalStateException("No se pudieron leer los medidores de " + deviceId, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("No se pudieron leer los medidores de " + deviceId, e);
+        }
+
+        List<PortMeterConfig> configs = new ArrayList<>();
+        for (Meter meter : meters) {
+            if (!(meter.meterCellId() instanceof PiMeterCellId)) {
+                continue;
+            }
+            PiMeterCellId cellId = (PiMeterCellId) meter.meterCellId();
+            PortMeterConfig.Direction direction = INGRESS_METER.equals(cellId.meterId()) ?
+                    PortMeterConfig.Direction.INGRESS :
+                    EGRESS_METER.equals(cellId.meterId()) ? PortMeterConfig.Direction.EGRESS : null;
+            // Cells never written read back without bands
+            if (direction == null || meter.bands().size() != 2) {
+                continue;
+            }
+            List<Band> bands = new ArrayList<>(meter.bands());
+            bands.sort(Comparator.comparingLong(Band::rate));
+            long scale = meter.unit() == Meter.Unit.KB_PER_SEC ? BYTES_PER_KILOBIT : 1;
+            configs.add(new PortMeterConfig(deviceId, direction, cellId.index(),
+                                            scale * bands.get(0).rate(), scale * burst(bands.get(0)),
+                                            scale * bands.get(1).rate(), scale * burst(bands.get(1))));
+        }
+        configs.sort(Comparator.comparing(PortMeterConfig::direction).thenComparingLong(PortMeterConfig::port));
+        return configs;
+    }
+
+    // Meter of a port cell, checked against the meter of the pipeline
+    private Meter meter(PortMeterConfig config) {
+        if (config.committedRate() < 0 || config.committedBurst() < 0 ||
+                config.peakRate() < 0 || config.peakBurst() < 0) {
+            throw new IllegalArgumentException("Tasas y rafagas no pueden ser negativas");
+        }
+        if (config.committedRate() > config.peakRate()) {
+            throw new IllegalArgumentException("La tasa comprometida supera la tasa de pico");
+        }
+        PiMeterId meterId = config.direction() == PortMeterConfig.Direction.INGRESS ? INGRESS_METER : EGRESS_METER;
+        PiPipeconf pipeconf = pipeconfService.getPipeconf(config.deviceId()).orElseThrow(() ->
+                new IllegalArgumentException("El dispositivo " + config.deviceId() + " no tiene pipeconf"));
+        PiMeterModel model = pipeconf.pipelineModel().meter(meterId).orElseThrow(() ->
+                new IllegalArgumentException("No existe el medidor " + meterId + " en " + pipeconf.id()));
+        if (config.port() < 0 || config.port() >= model.size()) {
+            throw new IllegalArgumentException("Puerto " + config.port() + " fuera del medidor " + meterId);
+        }
+
+        boolean bytes = model.unit() == PiMeterModel.Unit.BYTES;
+        Band committed = DefaultBand.builder().ofType(Band.Type.DROP)
+                .withRate(scale(config.committedRate(), bytes))
+                .burstSize(scale(config.committedBurst(), bytes)).build();
+        Band peak = DefaultBand.builder().ofType(Band.Type.DROP)
+                .withRate(scale(config.peakRate(), bytes))
+                .burstSize(scale(config.peakBurst(), bytes)).build();
+        return DefaultMeter.builder()
+                .forDevice(config.deviceId())
+                .fromApp(appId)
+                .withCellId(PiMeterCellId.ofIndirect(meterId, config.port()))
+                .withUnit(bytes ? Meter.Unit.KB_PER_SEC : Meter.Unit.PKTS_PER_SEC)
+                .burst()
+                .withBands(Arrays.asList(committed, peak))
+                .build();
+    }
+
+    private MeterProgrammable programmable(DeviceId deviceId) {
+        Device device = deviceService.getDevice(deviceId);
+        if (device == null || !device.is(MeterProgrammable.class)) {
+            throw new IllegalArgumentException("El dispositivo " + deviceId + " no programa medidores");
+        }
+        return device.as(MeterProgrammable.class);
+    }
+
+    // Bytes to kilobits, rounded up so that a non-zero budget stays non-zero
+    private static long scale(long value, boolean bytes) {
+        return bytes ? (value + BYTES_PER_KILOBIT - 1) / BYTES_PER_KILOBIT : value;
+    }
+
+    private static long burst(Band band) {
+        return band.burst() == null ? 0 : band.burst();
+    }
+}
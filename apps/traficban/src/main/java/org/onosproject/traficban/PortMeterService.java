@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+import org.onosproject.net.DeviceId;
+
+import java.util.List;
+
+/**
+ * Rate limiting of switch ports with the ingress and egress port meters of
+ * the pipeline.
+ */
+public interface PortMeterService {
+
+    /**
+     * Configures port meters, writing all of them before waiting for any.
+     *
+     * @param configs meter configurations
+     * @return failure of each configuration, in the same order; null if applied
+     */
+    List<String> setMeters(List<PortMeterConfig> configs);
+
+    /**
+     * Reads back the port meters configured on a device.
+     *
+     * @param deviceId device
+     * @return configured meters, ordered by direction and port
+     * @throws IllegalArgumentException if the device cannot program meters
+     */
+    List<PortMeterConfig> meters(DeviceId deviceId);
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+/**
+ * Packet rates of one port over its last samples, kept in fixed-size
+ * primitive arrays used as a ring.
+ * <p>
+ * Each sample comes from the difference between two consecutive readings of
+ * the port counters; a reading lower than the previous one, as after a switch
+ * restart, starts the differences over without a sample.
+ */
+final class PortRing {
+
+    private final long[] times;
+    private final double[] rxPps;
+    private final double[] txPps;
+    private int head = 0;
+    private int size = 0;
+
+    private long lastTime = -1;
+    private long lastRxPackets;
+    private long lastTxPackets;
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param capacity samples kept
+     */
+    PortRing(int capacity) {
+        times = new long[capacity];
+        rxPps = new double[capacity];
+        txPps = new double[capacity];
+    }
+
+    /**
+     * Takes a reading of the port counters, adding a sample if there is a
+     * previous reading to compare with.
+     *
+     * @param time      time of the reading, in milliseconds since the epoch
+     * @param rxPackets packets received so far
+     * @param txPackets packets sent so far
+     */
+    synchronized void update(long time, long rxPackets, long txPackets) {
+        if (lastTime >= 0 && time > lastTime && rxPackets >= lastRxPackets && txPackets >= lastTxPackets) {
+            double seconds = (time - lastTime) / 1000.0;
+            times[head] = time;
+            rxPps[head] = (rxPackets - lastRxPackets) / seconds;
+            txPps[head] = (txPackets - lastTxPackets) / seconds;
+            head = (head + 1) % times.length;
+            size = Math.min(size + 1, times.length);
+        }
+        if (time > lastTime) {
+            lastTime = time;
+            lastRxPackets = rxPackets;
+            lastTxPackets = txPackets;
+        }
+    }
+
+    /**
+     * Copies the most recent samples, oldest first.
+     *
+     * @param port    port the ring belongs to
+     * @param samples maximum number of samples
+     * @return series of the port
+     */
+    synchronized PortSeries series(long port, int samples) {
+        int n = Math.min(Math.max(samples, 0), size);
+        long[] t = new long[n];
+        double[] rp = new double[n];
+        double[] tp = new double[n];
+        int start = (head - n + times.length) % times.length;
+        for (int i = 0; i < n; i++) {
+            int j = (start + i) % times.length;
+            t[i] = times[j];
+            rp[i] = rxPps[j];
+            tp[i] = txPps[j];
+        }
+        return new PortSeries(port, t, rp, tp);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+/**
+ * Recent packet rates of one port, oldest sample first; the arrays are
+ * indexed by sample and all have the same length.
+ */
+public final class PortSeries {
+
+    private final long port;
+    private final long[] times;
+    private final double[] rxPps;
+    private final double[] txPps;
+
+    PortSeries(long port, long[] times, double[] rxPps, double[] txPps) {
+        this.port = port;
+        this.times = times;
+        this.rxPps = rxPps;
+        this.txPps = txPps;
+    }
+
+    public long port() {
+        return port;
+    }
+
+    /**
+     * Returns the time of each sample.
+     *
+     * @return milliseconds since the epoch
+     */
+    public long[] times() {
+        return times.clone();
+    }
+
+    /**
+     * Returns the packets received per second.
+     *
+     * @return rate of each sample
+     */
+    public double[] rxPps() {
+        return rxPps.clone();
+    }
+
+    /**
+     * Returns the packets sent per second.
+     *
+     * @return rate of each sample
+     */
+    public double[] txPps() {
+        return txPps.clone();
+    }
+}
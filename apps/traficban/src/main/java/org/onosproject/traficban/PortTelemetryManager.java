@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+import com.google.common.base.Strings;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.device.PortStatistics;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.onosproject.traficban.TraficbanConst.TELEMETRY_SAMPLES;
+import static org.onosproject.traficban.TraficbanConst.TELEMETRY_SAMPLES_DEFAULT;
+
+/**
+ * Keeps the recent packet rates of every switch port.
+ * <p>
+ * The device driver of basic.p4 reads all the cells of the ingress and
+ * egress port counters of a switch in one P4Runtime read per statistics
+ * poll, and the device subsystem reports it with PORT_STATS_UPDATED. Each
+ * report becomes a sample of every port, so no extra reads go to the switch
+ * and the cost per poll is one store lookup per device.
+ * <p>
+ * Both port counters of basic.p4 are packet counters, so the byte counts of
+ * the port statistics are always 0 and only packet rates are kept.
+ */
+@Component(immediate = true,
+        service = PortTelemetryService.class,
+        property = {
+                TELEMETRY_SAMPLES + ":Integer=" + TELEMETRY_SAMPLES_DEFAULT,
+        })
+public class PortTelemetryManager implements PortTelemetryService {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final String MSG_BAD_PROPERTY =
+            "Valor no valido para {}: {}; se usa {}";
+
+    /** Configure the samples kept per port; default is 360. */
+    private int TELEMETRY_SAMPLES = TELEMETRY_SAMPLES_DEFAULT;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService cfgService;
+
+    //Series de cada puerto, por dispositivo y numero de puerto
+    private final Map<DeviceId, Map<Long, PortRing>> rings = new ConcurrentHashMap<>();
+    private final DeviceListener deviceListener = new InternalDeviceListener();
+
+    @Activate
+    protected void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        modified(context);
+        deviceService.addListener(deviceListener);
+        log.info("Telemetria de puertos activada");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        deviceService.removeListener(deviceListener);
+        rings.clear();
+        cfgService.unregisterProperties(getClass(), false);
+        log.info("Telemetria de puertos detenida");
+    }
+
+    @Modified
+    public void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+
+        String s = Tools.get(properties, "TELEMETRY_SAMPLES");
+        int samples = Strings.isNullOrEmpty(s) ? TELEMETRY_SAMPLES_DEFAULT : Integer.parseInt(s.trim());
+        if (samples <= 0) {
+            // A ring cannot be built with it and every sample would fail
+            log.warn(MSG_BAD_PROPERTY, "TELEMETRY_SAMPLES", samples, TELEMETRY_SAMPLES_DEFAULT);
+            samples = TELEMETRY_SAMPLES_DEFAULT;
+        }
+        if (samples != TELEMETRY_SAMPLES) {
+            // Rings have a fixed size: new ones are started with the next readings
+            TELEMETRY_SAMPLES = samples;
+            rings.clear();
+        }
+        log.info("Propiedades cambiadas a: {} muestras por puerto", TELEMETRY_SAMPLES);
+    }
+
+    @Override
+    public Set<DeviceId> devices() {
+        return new HashSet<>(rings.keySet());
+    }
+
+    @Override
+    public List<PortSeries> series(DeviceId deviceId, PortNumber port, int samples) {
+        Map<Long, PortRing> ports = rings.get(deviceId);
+        if (ports == null) {
+            return Collections.emptyList();
+        }
+        List<PortSeries> series = new ArrayList<>();
+        ports.forEach((number, ring) -> {
+            if (port == null || port.toLong() == number) {
+                series.add(ring.series(number, samples));
+            }
+        });
+        series.sort(Comparator.comparingLong(PortSeries::port));
+        return series;
+    }
+
+    // Adds a sample to every port of the device from its latest counters
+    private void sample(DeviceId deviceId, long time) {
+        Map<Long, PortRing> ports = rings.computeIfAbsent(deviceId, d -> new ConcurrentHashMap<>());
+        int capacity = TELEMETRY_SAMPLES;
+        for (PortStatistics stats : deviceService.getPortStatistics(deviceId)) {
+            ports.computeIfAbsent(stats.portNumber().toLong(), p -> new PortRing(capacity))
+                    .update(time, stats.packetsReceived(), stats.packetsSent());
+        }
+    }
+
+    private class InternalDeviceListener implements DeviceListener {
+        @Override
+        public boolean isRelevant(DeviceEvent event) {
+            return event.type() == DeviceEvent.Type.PORT_STATS_UPDATED ||
+                    event.type() == DeviceEvent.Type.DEVICE_REMOVED;
+        }
+
+        @Override
+        public void event(DeviceEvent event) {
+            if (event.type() == DeviceEvent.Type.DEVICE_REMOVED) {
+                rings.remove(event.subject().id());
+            } else {
+                sample(event.subject().id(), event.time());
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Per-port packet rates of the switches, from their port counters. The port
+ * counters of basic.p4 count packets only, so there are no byte rates.
+ */
+public interface PortTelemetryService {
+
+    /**
+     * Returns the devices with port samples.
+     *
+     * @return devices
+     */
+    Set<DeviceId> devices();
+
+    /**
+     * Returns the most recent rates of the ports of a device.
+     *
+     * @param deviceId device
+     * @param port     only this port, null for every port
+     * @param samples  maximum number of samples per port
+     * @return series, one per port, ordered by port number
+     */
+    List<PortSeries> series(DeviceId deviceId, PortNumber port, int samples);
+}
@@ -18,8 +18,16 @@
 package org.onosproject.traficban;
 
 
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.pi.model.PiTableId;
 import org.onosproject.traficban.rest.AppWebResource;
 
+import java.util.List;
+import java.util.Map;
+
 public interface QoSRestService {
 
 /**
@@ -34,12 +42,52 @@ public interface QoSRestService {
 /**
  * @param idRule idRule
  * @param atributosJson atributosJson
+ * @return operation tracking the install on every device
 */
 
 //void addQueue(String idQueue, int maxRate, int minRate, int portQoS, int portQueue);
 //void addQueueQoS(String idQueue, int maxRate, int minRate, int portQoS, int portQueue);
 //void addQueueQoS(String idQueue, String idQoS, AppWebResource.QosJson atributosJson);
-void addRule(String idRule, AppWebResource.QosJson atributosJson);
-void deleteRule(String idRule);
-void deleteAllRulesApp(String app);
+RuleOperation addRule(String idRule, AppWebResource.QosJson atributosJson);
+/**
+ * @param batch rules, each one with its own id, all of them different
+ * @return operation of each rule, in the order of the batch; a rule that does not
+ * compile gets a failed one
+*/
+List<RuleOperation> addRules(List<AppWebResource.QosJson> batch);
+RuleOperation deleteRule(String idRule);
+
+/**
+ * @param id operation id
+ * @return operation, or null if unknown or no longer kept
+*/
+RuleOperation operation(long id);
+RuleOperation deleteAllRulesApp(String app);
+
+/**
+ * @return fan-out timings of every device
+*/
+List<DeviceTiming> deviceTimings();
+
+/**
+ * @param after    last rule id of the previous page, null for the first page
+ * @param deviceId only rules installed on this device, null for any
+ * @param tableId  only rules with entries in this table, null for any
+ * @param limit    maximum number of ids
+ * @return rule ids after the given one, in ascending order
+*/
+List<String> ruleIds(String after, DeviceId deviceId, PiTableId tableId, int limit);
+
+/**
+ * @param idRule rule id
+ * @return flow rules installed with the id, by device
+*/
+Map<DeviceId, List<FlowRule>> installedRules(String idRule);
+
+/**
+ * @param deviceId device
+ * @return flow entries of the application on the device, with the table0_counter
+ * packets and bytes as of the store's last poll of the device
+*/
+Map<FlowId, FlowEntry> ruleCounters(DeviceId deviceId);
 }
@@ -17,44 +17,94 @@
 
 package org.onosproject.traficban;
 
-import org.onlab.packet.Ethernet;
-import org.onlab.packet.IPv4;
+import com.codahale.metrics.Histogram;
+import com.google.common.base.Strings;
+import org.onlab.metrics.MetricsComponent;
+import org.onlab.metrics.MetricsFeature;
+import org.onlab.metrics.MetricsService;
+import org.onlab.util.Tools;
 import org.onosproject.app.ApplicationService;
+import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
 import org.onosproject.traficban.rest.AppWebResource;
 import org.onosproject.net.Device;
 import org.onosproject.net.DeviceId;
 
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.device.DeviceService;
-import org.onosproject.net.flow.DefaultFlowRule;
-import org.onosproject.net.flow.DefaultTrafficSelector;
-import org.onosproject.net.flow.DefaultTrafficTreatment;
 import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowId;
 import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.FlowRuleOperationsContext;
 import org.onosproject.net.flow.FlowRuleService;
-import org.onosproject.net.flow.criteria.PiCriterion;
-import org.onosproject.net.pi.model.PiActionId;
-import org.onosproject.net.pi.model.PiMatchFieldId;
+import org.onosproject.net.pi.model.PiPipeconf;
 import org.onosproject.net.pi.model.PiTableId;
-import org.onosproject.net.pi.runtime.PiAction;
+import org.onosproject.net.pi.service.PiPipeconfService;
+import org.onosproject.p4common.FlowRuleBatchService;
+import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Objects;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.onlab.util.Tools.groupedThreads;
+import static org.onosproject.traficban.TraficbanConst.*;
 
 
 @Component(immediate = true,
-        service = QoSRestService.class)
+        service = QoSRestService.class,
+        property = {
+                FANOUT_THREADS + ":Integer=" + FANOUT_THREADS_DEFAULT,
+                DEVICE_QUEUE_DEPTH + ":Integer=" + DEVICE_QUEUE_DEPTH_DEFAULT,
+        })
 public class QosRestManager  implements QoSRestService {
 
+    //Prioridad de las reglas instaladas desde la API REST
+    private static final int RULE_PRIORITY = 50000;
+    //Operaciones terminadas que se conservan para su consulta
+    private static final int RETAINED_OPERATIONS = 4096;
+    //Tiempo maximo de espera a que haya sitio en la cola de un dispositivo
+    private static final long SUBMIT_TIMEOUT_MS = 1000;
+    //Subdirectorio de karaf.data donde se guarda la politica
+    private static final String POLICY_DIR = "traficban";
+    //Componente de las metricas de la aplicacion en el MetricsService
+    private static final String METRICS_COMPONENT = "traficban";
+    private static final String CHANGE_PROPERTIES =
+            "Propiedades cambiadas a: {} hilos y colas de {} tareas por dispositivo";
+
+    /** Configure the threads that write to devices in parallel; default is 8. */
+    private int FANOUT_THREADS = FANOUT_THREADS_DEFAULT;
+
+    /** Configure the tasks queued per device before callers wait; default is 1024. */
+    private int DEVICE_QUEUE_DEPTH = DEVICE_QUEUE_DEPTH_DEFAULT;
+
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected DeviceService deviceService;
 
@@ -72,163 +122,579 @@ public class QosRestManager  implements QoSRestService {
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected CoreService coreService;
 
-    //Mapa con las reglas de flujo añadidas
-    private final HashMap<RulesRecord, FlowRule> flowRuleHashMap = new HashMap<RulesRecord, FlowRule>();
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected FlowRuleBatchService ruleBatchService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected PiPipeconfService pipeconfService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService cfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected MetricsService metricsService;
+
+    //Registro de las reglas de flujo añadidas, por id y por dispositivo
+    private final RuleRegistry rules = new RuleRegistry();
+
+    //Indice de las reglas de la aplicacion por tabla, prioridad y match
+    private final MatchIndex matches = new MatchIndex();
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+    private final DeviceListener deviceListener = new InternalDeviceListener();
+
+    //Politica deseada: reglas que deben estar en todos los dispositivos QoS, por id,
+    //guardada en disco para recuperarla al reiniciar; solo en memoria fuera de Karaf
+    private final PolicyStore desired = new PolicyStore(System.getProperty("karaf.data") == null ? null :
+            Paths.get(System.getProperty("karaf.data"), POLICY_DIR));
+
+    //Dispositivos con una sincronizacion pendiente, para no repetirla por cada evento
+    private final Set<DeviceId> syncPending = ConcurrentHashMap.newKeySet();
+    private ExecutorService syncExecutor;
+
+    //Operaciones en curso y ultimas terminadas, consultables por su id
+    private final OperationTracker operations = new OperationTracker(RETAINED_OPERATIONS);
+
+    //Plantillas de reglas ya compiladas y validadas por pipeconf
+    private final RuleTemplates templates = new RuleTemplates();
+
+    //Reparto del trabajo por dispositivo: en orden para cada uno, en paralelo entre ellos
+    private DeviceExecutor executor;
+
+    //Metricas: latencia de las operaciones REST y del reparto por dispositivo, en nanosegundos
+    private MetricsComponent metricsComponent;
+    private MetricsFeature fanoutFeature;
+    private Histogram addRuleLatency;
+    private Histogram deleteRuleLatency;
+    private final Map<DeviceId, Histogram> fanoutTimes = new ConcurrentHashMap<>();
 
     @Activate
-    protected void activate() {
+    protected void activate(ComponentContext context) {
 
         appId = coreService.registerApplication("org.onosproject.TockenBucket",
                 () -> log.info("Periscope down."));
-        log.info("Activada aplicacionwc diffserv");
+        cfgService.registerProperties(getClass());
+        modified(context);
+        metricsComponent = metricsService.registerComponent(METRICS_COMPONENT);
+        MetricsFeature restFeature = metricsComponent.registerFeature("rest");
+        addRuleLatency = metricsService.createHistogram(metricsComponent, restFeature, "addRuleNanos");
+        deleteRuleLatency = metricsService.createHistogram(metricsComponent, restFeature, "deleteRuleNanos");
+        fanoutFeature = metricsComponent.registerFeature("fanout");
+        executor = new DeviceExecutor(FANOUT_THREADS, DEVICE_QUEUE_DEPTH, SUBMIT_TIMEOUT_MS, this::recordFanout);
+        syncExecutor = Executors.newSingleThreadExecutor(groupedThreads("onos/traficban", "sync", log));
+        flowRuleService.addListener(flowRuleListener);
+        deviceService.addListener(deviceListener);
+        try {
+            desired.open();
+        } catch (IOException e) {
+            log.error("No se pudo cargar la politica guardada; se empieza vacia", e);
+        }
+
+        //Las reglas siguen en los switches: se adoptan las que estan y solo se escribe la diferencia
+        Map<DeviceId, List<FlowEntry>> installed = new HashMap<>();
+        for (FlowEntry entry : flowRuleService.getFlowEntriesById(appId)) {
+            matches.add(entry, null);
+            installed.computeIfAbsent(entry.deviceId(), d -> new ArrayList<>()).add(entry);
+        }
+        for (DeviceId deviceId : qosDevices()) {
+            sync(deviceId, installed.getOrDefault(deviceId, Collections.emptyList()));
+        }
+        log.info("Activada aplicacionwc diffserv con {} reglas en la politica", desired.size());
 
     }
     @Deactivate
     protected void deactivate() {
-        flowRuleService.removeFlowRulesById(appId);
+        deviceService.removeListener(deviceListener);
+        flowRuleService.removeListener(flowRuleListener);
+        syncExecutor.shutdownNow();
+        //Las reglas se quedan en los switches y la politica en disco, para reiniciar sin cortes
+        desired.close();
+        rules.clear();
+        matches.clear();
+        operations.clear();
+        templates.clear();
+        executor.shutdown();
+        metricsService.removeMatching((name, metric) -> name.startsWith(METRICS_COMPONENT + "."));
+        fanoutTimes.clear();
+        cfgService.unregisterProperties(getClass(), false);
         log.info("Stopped");
     }
 
+    @Modified
+    public void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+
+        String s = Tools.get(properties, "FANOUT_THREADS");
+        FANOUT_THREADS = Strings.isNullOrEmpty(s) ? FANOUT_THREADS_DEFAULT : Integer.parseInt(s.trim());
+
+        s = Tools.get(properties, "DEVICE_QUEUE_DEPTH");
+        DEVICE_QUEUE_DEPTH = Strings.isNullOrEmpty(s) ? DEVICE_QUEUE_DEPTH_DEFAULT : Integer.parseInt(s.trim());
+
+        log.info(CHANGE_PROPERTIES, FANOUT_THREADS, DEVICE_QUEUE_DEPTH);
+        if (executor != null) {
+            executor.resize(FANOUT_THREADS, DEVICE_QUEUE_DEPTH);
+        }
+    }
+
 
 
     /*public void addQueueQoS(String idQueue, String idQoS, AppWebResource.QosJson atributosJson) {
     }*/
 
-    public void deleteRule(String idRule) {
-        for (Device d: deviceService.getAvailableDevices()) {
-            log.info("Dispositivo:  {}", d.id());
-            if (d.is(null)) {
-                log.info("No hay dispositivos conectados a la red");
+    public RuleOperation deleteRule(String idRule) {
+        RuleOperation operation = operations.start("delete", idRule);
+        record(operation, deleteRuleLatency);
+        boolean wanted = desired.remove(idRule) != null;
+        Collection<FlowRule> removed = rules.remove(idRule);
+        if (removed.isEmpty()) {
+            if (wanted) {
+                // Only in the policy: no device had it yet
+                operation.complete(null);
             } else {
-                String deviceId = d.id().toString();
-                if (deviceId.startsWith("device:s")) {
-                    RulesRecord ruleNew = new RulesRecord(DeviceId.deviceId(deviceId), idRule);
-                    FlowRule rule = flowRuleHashMap.get(ruleNew);
-
-                    if (rule != null) {
-                        flowRuleService.removeFlowRules(rule);
-                        flowRuleHashMap.remove(ruleNew);
-                    } else {
-                        log.info("No existe la regla de flujo {} en el dispositivo {}", idRule, d.id());
-                    }
-                }
+                log.info("No existe la regla de flujo {}", idRule);
+                operation.complete("No existe la regla de flujo " + idRule);
             }
+            return operation;
         }
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (FlowRule rule : removed) {
+            matches.remove(rule);
+            writes.add(executor.submit(rule.deviceId(), () -> ruleBatchService.remove(rule)));
+        }
+        operations.track(operation, writes);
+        return operation;
+    }
+
+    // Records the latency of an operation once every device has answered
+    private static void record(RuleOperation operation, Histogram latency) {
+        operation.completion().thenAccept(o -> latency.update(o.latencyNanos()));
+    }
+
+    // Records the time a device task took from its submission to the end of its run
+    private void recordFanout(DeviceId deviceId, long nanos) {
+        fanoutTimes.computeIfAbsent(deviceId, d -> metricsService.createHistogram(
+                metricsComponent, fanoutFeature, d.toString())).update(nanos);
+    }
+
+    public List<DeviceTiming> deviceTimings() {
+        return executor.timings();
+    }
+
+    public RuleOperation operation(long id) {
+        return operations.get(id);
+    }
+
+    public List<String> ruleIds(String after, DeviceId deviceId, PiTableId tableId, int limit) {
+        List<String> ids = new ArrayList<>();
+        Iterator<String> it = rules.ids(after, deviceId);
+        while (ids.size() < limit && it.hasNext()) {
+            String idRule = it.next();
+            // Both filters apply to the same rules: the table is looked up on the device asked for
+            Collection<FlowRule> candidates = deviceId == null ? rules.rules(idRule) : rules.get(deviceId, idRule);
+            if (tableId == null || candidates != null && candidates.stream().anyMatch(r -> tableId.equals(r.table()))) {
+                ids.add(idRule);
+            }
+        }
+        return ids;
+    }
+
+    public Map<DeviceId, List<FlowRule>> installedRules(String idRule) {
+        return rules.devices(idRule);
     }
 
-    public void deleteAllRulesApp(String app) {
+    public Map<FlowId, FlowEntry> ruleCounters(DeviceId deviceId) {
+        // Stats come from the store, as of the last poll of the device's table entries and direct counters;
+        // only the device's own entries are walked, not those of the app on every device
+        Map<FlowId, FlowEntry> entries = new HashMap<>();
+        for (FlowEntry entry : flowRuleService.getFlowEntries(deviceId)) {
+            if (entry.appId() == appId.id()) {
+                entries.put(entry.id(), entry);
+            }
+        }
+        return entries;
+    }
+
+    public RuleOperation deleteAllRulesApp(String app) {
         ApplicationId application = applicationService.getId(app);
         short idApp = application.id();
+        RuleOperation operation = operations.start("deleteAll", app);
 
         if (appId.id() == idApp) {
-            flowRuleService.removeFlowRulesById(appId);
-            flowRuleHashMap.clear();
-        } else {
-            flowRuleService.removeFlowRulesById(application);
+            desired.clear();
+            rules.clear();
+            matches.clear();
+        }
+        //Una operacion de borrado por dispositivo
+        Map<DeviceId, FlowRuleOperations.Builder> removals = new HashMap<>();
+        for (FlowRule rule : flowRuleService.getFlowEntriesById(application)) {
+            removals.computeIfAbsent(rule.deviceId(), d -> FlowRuleOperations.builder()).remove(rule);
         }
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        removals.forEach((deviceId, builder) -> writes.add(executor.submit(deviceId, () -> apply(builder))));
+        operations.track(operation, writes);
+        return operation;
     }
 
-    public void addRule(String idRule, AppWebResource.QosJson atributosJson) {
+    public RuleOperation addRule(String idRule, AppWebResource.QosJson atributosJson) {
+        // Rejects a bad rule before any device is touched
+        Map<DeviceId, List<FlowRule>> compiled = compile(atributosJson, qosDevices());
+        RuleOperation operation = operations.start("add", idRule);
+        record(operation, addRuleLatency);
+
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        List<RuleConflict> found = new ArrayList<>();
+        compiled.forEach((deviceId, entries) -> {
+            // Registered here so that a later request of the same caller already sees it
+            if (reserve(idRule, entries, found)) {
+                writes.add(executor.submit(deviceId, () -> install(entries)
+                        .whenComplete((r, e) -> {
+                            if (e != null) {
+                                unreserve(idRule, entries);
+                            }
+                        })));
+            }
+        });
+        // Devices connecting later get it from the policy, unless every device turned it down
+        if (compiled.isEmpty() || !writes.isEmpty()) {
+            desired.putIfAbsent(idRule, atributosJson);
+        }
+        operation.addConflicts(found);
+        operations.track(operation, writes);
+        return operation;
+    }
 
-        //Vemos las dispositivos que tiene el router, si el dispositivo empieza
-        //por ovsdb es sobre el que podemos realizar QoS (no sobre el otro),
-        //para ello previamente es necesario en el ONOS obtener este controlador y
-        //modificarle los drivers a ovs
-        //(que se hace cargando la aplicacion drivers-ovsdb)
+    public List<RuleOperation> addRules(List<AppWebResource.QosJson> batch) {
+        List<DeviceId> devices = qosDevices();
+        List<RuleOperation> started = new ArrayList<>();
+        Map<DeviceId, FlowRuleOperations.Builder> builders = new LinkedHashMap<>();
+        Map<RuleOperation, Map<DeviceId, List<FlowRule>>> reserved = new LinkedHashMap<>();
+
+        //Se compilan todas las reglas y se agrupan por dispositivo antes de escribir nada
+        for (AppWebResource.QosJson atributosJson : batch) {
+            String idRule = atributosJson.getId();
+            RuleOperation operation = operations.start("add", idRule);
+            started.add(operation);
+            Map<DeviceId, List<FlowRule>> compiled;
+            try {
+                compiled = compile(atributosJson, devices);
+            } catch (IllegalArgumentException e) {
+                operation.complete(e.getMessage());
+                continue;
+            }
+            record(operation, addRuleLatency);
+            Map<DeviceId, List<FlowRule>> ruleWrites = new LinkedHashMap<>();
+            List<RuleConflict> found = new ArrayList<>();
+            compiled.forEach((deviceId, entries) -> {
+                if (reserve(idRule, entries, found)) {
+                    FlowRuleOperations.Builder builder =
+                            builders.computeIfAbsent(deviceId, d -> FlowRuleOperations.builder());
+                    entries.forEach(builder::add);
+                    ruleWrites.put(deviceId, entries);
+                }
+            });
+            if (compiled.isEmpty() || !ruleWrites.isEmpty()) {
+                desired.putIfAbsent(idRule, atributosJson);
+            }
+            operation.addConflicts(found);
+            reserved.put(operation, ruleWrites);
+        }
+
+        //Una sola operacion por dispositivo para todo el lote
+        Map<DeviceId, CompletableFuture<Set<FlowId>>> answers = new HashMap<>();
+        builders.forEach((deviceId, builder) -> {
+            CompletableFuture<Set<FlowId>> answer = new CompletableFuture<>();
+            answers.put(deviceId, answer);
+            executor.submit(deviceId, () -> applyBatch(builder).thenAccept(answer::complete))
+                    .whenComplete((r, e) -> {
+                        if (e != null) {
+                            answer.completeExceptionally(e);
+                        }
+                    });
+        });
+        reserved.forEach((operation, ruleWrites) -> {
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+            ruleWrites.forEach((deviceId, entries) -> writes.add(answers.get(deviceId).thenAccept(failed -> {
+                if (entries.stream().anyMatch(rule -> failed.contains(rule.id()))) {
+                    throw new IllegalStateException("El dispositivo " + deviceId + " no acepto la regla");
+                }
+            }).whenComplete((r, e) -> {
+                if (e != null) {
+                    unreserve(operation.idRule(), entries);
+                }
+            })));
+            operations.track(operation, writes);
+        });
+        log.info("Lote de {} reglas repartido en {} dispositivos", batch.size(), builders.size());
+        return started;
+    }
 
+    //Vemos las dispositivos que tiene el router, si el dispositivo empieza
+    //por ovsdb es sobre el que podemos realizar QoS (no sobre el otro),
+    //para ello previamente es necesario en el ONOS obtener este controlador y
+    //modificarle los drivers a ovs
+    //(que se hace cargando la aplicacion drivers-ovsdb)
+    private List<DeviceId> qosDevices() {
+        List<DeviceId> devices = new ArrayList<>();
         for (Device d: deviceService.getAvailableDevices()) {
-            log.info("Dispositivo:  {}", d.id());
+            log.debug("Dispositivo:  {}", d.id());
             if (d.is(null)) {
                 log.info("No hay dispositivos conectados a la red");
-            } else {
-                String deviceId = d.id().toString();
-                if (deviceId.startsWith("device:s")) {
-
-                    PiCriterion match = null;
-
-                    if (atributosJson.getMatch() == "tcp") {
-                        match = PiCriterion.builder()
-                                .matchTernary(PiMatchFieldId.of("hdr.ethernet.ether_type"), Ethernet.TYPE_IPV4, 0xffff)
-                                .matchTernary(PiMatchFieldId.of("hdr.ipv4.protocol"), IPv4.PROTOCOL_TCP, 0xff)
-                                .build();
-                    } else {
-                        match = PiCriterion.builder()
-                                .matchTernary(PiMatchFieldId.of("hdr.ethernet.ether_type"), Ethernet.TYPE_IPV4, 0xffff)
-                                .matchTernary(PiMatchFieldId.of("hdr.ipv4.protocol"), IPv4.PROTOCOL_ICMP, 0xff)
-                                .build();
-                    }
+            } else if (isQosDevice(d.id())) {
+                devices.add(d.id());
+            }
+        }
+        return devices;
+    }
 
-                    //Se define la accion a tomar
-                    PiAction action = PiAction.builder()
-                            .withId(PiActionId.of(atributosJson.getAction()))
-                            .build();
-
-                    FlowRule dropRule = DefaultFlowRule.builder()
-                            .forDevice(DeviceId.deviceId(deviceId)).fromApp(appId).makePermanent().withPriority(50000)
-                            .forTable(PiTableId.of(atributosJson.getTabla()))
-                            .withSelector(DefaultTrafficSelector.builder().matchPi(match).build())
-                            .withTreatment(DefaultTrafficTreatment.builder().piTableAction(action).build())
-                            .build();
-
-                    RulesRecord ruleNew = new RulesRecord(DeviceId.deviceId(deviceId), idRule);
-                    FlowRule rule = flowRuleHashMap.get(ruleNew);
-                    Iterable<FlowEntry> rulesDevice = flowRuleService.getFlowEntries(DeviceId.deviceId(deviceId));
-
-                    try {
-                        if (rule == null) {
-                            for (Iterator<FlowEntry> iterator = rulesDevice.iterator(); iterator.hasNext();) {
-                                if (dropRule == iterator.next()) {
-                                    throw new ExistRule();
-                                }
-                            }
-                            flowRuleService.applyFlowRules(dropRule);
-                            flowRuleHashMap.put(ruleNew, dropRule);
-                        } else {
-                            log.info("No existe la regla de flujo {} en el dispositivo {}", idRule, d.id());
-                        }
-                    } catch (ExistRule e) {
-                        log.info("Ya existe la regla de flujo {} en el dispositivo {} con otra id", idRule, d.id());
-                    }
+    private static boolean isQosDevice(DeviceId deviceId) {
+        return deviceId.toString().startsWith("device:s");
+    }
+
+    // Queues a sync of the device unless one is already waiting
+    private void scheduleSync(DeviceId deviceId) {
+        if (syncPending.add(deviceId)) {
+            syncExecutor.execute(() -> {
+                syncPending.remove(deviceId);
+                sync(deviceId, flowRuleService.getFlowEntries(deviceId));
+            });
+        }
+    }
+
+    // Brings one device to the desired policy, writing only the rules that differ
+    private void sync(DeviceId deviceId, Iterable<FlowEntry> entries) {
+        if (!deviceService.isAvailable(deviceId)) {
+            return;
+        }
+        FlowRuleOperations.Builder builder = syncOperations(deviceId, entries);
+        if (builder != null) {
+            executor.submit(deviceId, () -> apply(builder)).whenComplete((r, e) -> {
+                if (e != null) {
+                    log.warn("No se pudo sincronizar {}: {}", deviceId, e.getMessage());
+                }
+            });
+        }
+    }
 
+    /**
+     * Works out the writes that bring a device to the desired policy, and
+     * registers the rules of the policy the device keeps. Only entries of the
+     * application are looked at; those of other applications, WCMP included,
+     * are left alone.
+     *
+     * @param deviceId device
+     * @param entries  flow entries of the device
+     * @return operations to apply, or null if the device already follows the policy
+     */
+    FlowRuleOperations.Builder syncOperations(DeviceId deviceId, Iterable<FlowEntry> entries) {
+        PiPipeconf pipeconf = pipeconfService.getPipeconf(deviceId).orElse(null);
+        Map<String, List<FlowRule>> wanted = new HashMap<>();
+        Map<FlowId, String> ids = new HashMap<>();
+        desired.forEach((idRule, atributosJson) -> {
+            try {
+                List<FlowRule> ruleEntries = templates.compile(atributosJson, pipeconf)
+                        .rules(deviceId, appId, RULE_PRIORITY);
+                wanted.put(idRule, ruleEntries);
+                ruleEntries.forEach(rule -> ids.put(rule.id(), idRule));
+            } catch (IllegalArgumentException e) {
+                log.warn("La regla de flujo {} no es valida en {}: {}", idRule, deviceId, e.getMessage());
+            }
+        });
+
+        FlowRuleOperations.Builder builder = FlowRuleOperations.builder();
+        Set<FlowId> present = new HashSet<>();
+        int removals = 0;
+        for (FlowEntry entry : entries) {
+            if (entry.appId() != appId.id()) {
+                continue;
+            }
+            if (!ids.containsKey(entry.id())) {
+                // Deleted from the policy while the device was away
+                String idRule = rules.idRule(entry.id());
+                if (idRule != null) {
+                    rules.remove(deviceId, idRule);
+                }
+                matches.remove(entry);
+                builder.remove(entry);
+                removals++;
+            } else if (entry.state() == FlowEntry.FlowEntryState.ADDED ||
+                    entry.state() == FlowEntry.FlowEntryState.PENDING_ADD) {
+                present.add(entry.id());
+            }
+        }
+        int installs = 0;
+        for (Map.Entry<String, List<FlowRule>> rule : wanted.entrySet()) {
+            String idRule = rule.getKey();
+            List<FlowRule> ruleEntries = rule.getValue();
+            if (rules.get(deviceId, idRule) == null) {
+                // Entries already on the device, e.g. from before a restart, are kept as they are
+                if (ruleEntries.stream().anyMatch(r -> present.contains(r.id()))) {
+                    adopt(idRule, ruleEntries);
+                } else if (!reserve(idRule, ruleEntries, new ArrayList<>())) {
+                    continue;
                 }
             }
+            for (FlowRule entry : ruleEntries) {
+                if (!present.contains(entry.id())) {
+                    builder.add(entry);
+                    installs++;
+                }
+            }
+        }
+
+        if (installs + removals == 0) {
+            return null;
         }
+        log.info("Sincronizando {}: {} reglas a instalar y {} a borrar", deviceId, installs, removals);
+        return builder;
     }
 
+    // Flow rules of a template on each device, checked against the pipeconf of each one
+    private Map<DeviceId, List<FlowRule>> compile(AppWebResource.QosJson atributosJson, List<DeviceId> devices) {
+        Map<DeviceId, List<FlowRule>> compiled = new LinkedHashMap<>();
+        for (DeviceId deviceId : devices) {
+            PiPipeconf pipeconf = pipeconfService.getPipeconf(deviceId).orElse(null);
+            compiled.put(deviceId, templates.compile(atributosJson, pipeconf).rules(deviceId, appId, RULE_PRIORITY));
+        }
+        return compiled;
+    }
 
+    // Registers and indexes the entries of a rule on a device unless one duplicates an
+    // installed rule; the caller installs them if true
+    private boolean reserve(String idRule, List<FlowRule> entries, List<RuleConflict> conflicts) {
+        DeviceId deviceId = entries.get(0).deviceId();
+        if (rules.get(deviceId, idRule) != null) {
+            log.info("Ya existe la regla de flujo {} en el dispositivo {}", idRule, deviceId);
+            return false;
+        }
+        // Checked and indexed under the index lock so that concurrent requests see each other
+        synchronized (matches) {
+            List<RuleConflict> found = new ArrayList<>();
+            entries.forEach(rule -> found.addAll(matches.conflicts(rule)));
+            conflicts.addAll(found);
+            if (found.stream().anyMatch(c -> c.type() == RuleConflict.Type.DUPLICATE)) {
+                log.info("Ya existe la regla de flujo {} en el dispositivo {} con otra id", idRule, deviceId);
+                return false;
+            }
+            if (!rules.add(idRule, entries)) {
+                return false;
+            }
+            if (!found.isEmpty()) {
+                log.info("La regla de flujo {} se solapa con {} reglas en el dispositivo {}",
+                         idRule, found.size(), deviceId);
+            }
+            entries.forEach(rule -> matches.add(rule, idRule));
+        }
+        return true;
+    }
+
+    // Registers a wanted rule the device already has, e.g. one installed before a restart
+    private void adopt(String idRule, List<FlowRule> entries) {
+        synchronized (matches) {
+            if (rules.get(entries.get(0).deviceId(), idRule) == null && rules.add(idRule, entries)) {
+                for (FlowRule rule : entries) {
+                    matches.remove(rule);
+                    matches.add(rule, idRule);
+                }
+            }
+        }
+    }
 
+    // Installs the entries of a rule through the batching service
+    private CompletableFuture<Void> install(List<FlowRule> entries) {
+        if (entries.size() == 1) {
+            return ruleBatchService.install(entries.get(0));
+        }
+        return CompletableFuture.allOf(entries.stream().map(ruleBatchService::install)
+                                               .toArray(CompletableFuture[]::new));
+    }
 
-    private class RulesRecord {
-        private final DeviceId deviceId;
-        private final String idRule;
+    // Applies a flow rule operation, completing the future with the device answer
+    private CompletableFuture<Void> apply(FlowRuleOperations.Builder builder) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        flowRuleService.apply(builder.build(new FlowRuleOperationsContext() {
+            @Override
+            public void onSuccess(FlowRuleOperations ops) {
+                done.complete(null);
+            }
 
-        public RulesRecord(DeviceId deviceId, String idRule) {
-            this.deviceId = deviceId;
-            this.idRule = idRule;
+            @Override
+            public void onError(FlowRuleOperations ops) {
+                done.completeExceptionally(new IllegalStateException("Fallo al aplicar " + ops));
+            }
+        }));
+        return done;
+    }
+
+    // Applies a flow rule operation, completing with the ids of the rules the device did not accept
+    private CompletableFuture<Set<FlowId>> applyBatch(FlowRuleOperations.Builder builder) {
+        CompletableFuture<Set<FlowId>> done = new CompletableFuture<>();
+        flowRuleService.apply(builder.build(new FlowRuleOperationsContext() {
+            @Override
+            public void onSuccess(FlowRuleOperations ops) {
+                done.complete(Collections.emptySet());
+            }
+
+            @Override
+            public void onError(FlowRuleOperations ops) {
+                // The operations given back are the failed ones
+                Set<FlowId> failed = new HashSet<>();
+                ops.stages().forEach(stage -> stage.forEach(op -> failed.add(op.rule().id())));
+                done.complete(failed);
+            }
+        }));
+        return done;
+    }
+
+    // Forgets a rule the device did not accept, unless the id was registered again since
+    private void unreserve(String idRule, List<FlowRule> entries) {
+        DeviceId deviceId = entries.get(0).deviceId();
+        synchronized (matches) {
+            if (rules.get(deviceId, idRule) == entries) {
+                rules.remove(deviceId, idRule);
+                entries.forEach(matches::remove);
+            }
         }
+    }
 
+    private class InternalFlowRuleListener implements FlowRuleListener {
         @Override
-        public int hashCode() {
-            return Objects.hash(deviceId, idRule);
+        public boolean isRelevant(FlowRuleEvent event) {
+            return appId != null && event.subject().appId() == appId.id();
         }
 
         @Override
-        public boolean equals(Object obj) {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null || getClass() != obj.getClass()) {
-                return false;
+        public void event(FlowRuleEvent event) {
+            // Keeps the index in step with rules added or removed out of the REST API
+            switch (event.type()) {
+                case RULE_ADDED:
+                    matches.add(event.subject(), rules.idRule(event.subject().id()));
+                    break;
+                case RULE_REMOVED:
+                    matches.remove(event.subject());
+                    // Still registered: it went missing rather than being deleted
+                    if (rules.idRule(event.subject().id()) != null) {
+                        scheduleSync(event.subject().deviceId());
+                    }
+                    break;
+                default:
+                    break;
             }
-            final RulesRecord other = (RulesRecord) obj;
-            return Objects.equals(this.deviceId, other.deviceId) && Objects.equals(this.idRule, other.idRule);
         }
     }
 
+    private class InternalDeviceListener implements DeviceListener {
+        @Override
+        public boolean isRelevant(DeviceEvent event) {
+            return isQosDevice(event.subject().id()) &&
+                    (event.type() == DeviceEvent.Type.DEVICE_ADDED ||
+                            event.type() == DeviceEvent.Type.DEVICE_AVAILABILITY_CHANGED);
+        }
 
-    class ExistRule extends Exception {
-        public ExistRule() {
-            super();
+        @Override
+        public void event(DeviceEvent event) {
+            // A switch that connects or comes back gets the rules it is missing
+            if (deviceService.isAvailable(event.subject().id())) {
+                scheduleSync(event.subject().id());
+            }
         }
     }
 
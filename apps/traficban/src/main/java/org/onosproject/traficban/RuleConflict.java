@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.traficban;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowId;
+
+/**
+ * Installed rule that a new rule collides with on a device.
+ */
+public final class RuleConflict {
+
+    /**
+     * Kind of collision.
+     */
+    public enum Type {
+        /** Same table, priority and match: the new rule is not installed. */
+        DUPLICATE,
+        /** Same table and priority, and some packets match both rules. */
+        OVERLAP
+    }
+
+    private final Type type;
+    private final DeviceId deviceId;
+    private final String idRule;
+    private final FlowId flowId;
+
+    /**
+     * Creates a conflict.
+     *
+     * @param type     kind of collision
+     * @param deviceId device of both rules
+     * @param idRule   REST id of the installed rule, null if not installed through REST
+     * @param flowId   flow id of the installed rule
+     */
+    public RuleConflict(Type type, DeviceId deviceId, String idRule, FlowId flowId) {
+        this.type = type;
+        this.deviceId = deviceId;
+        this.idRule = idRule;
+        this.flowId = flowId;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    public DeviceId deviceId() {
+        return deviceId;
+    }
+
+    public String idRule() {
+        return idRule;
+    }
+
+    public FlowId flowId() {
+        return flowId;
+    }
+}
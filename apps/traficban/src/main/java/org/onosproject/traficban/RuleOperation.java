@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.traficban;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Rule write submitted through the REST API, tracked until every device
+ * involved confirms or rejects it.
+ */
+public final class RuleOperation {
+
+    /**
+     * Progress of an operation.
+     */
+    public enum State {
+        /** Waiting for some device to confirm. */
+        PENDING,
+        /** Confirmed by every device. */
+        DONE,
+        /** Rejected by some device. */
+        FAILED
+    }
+
+    private final long id;
+    private final String kind;
+    private final String idRule;
+    private final long submitted = System.currentTimeMillis();
+    private final long submittedNanos = System.nanoTime();
+    private final List<RuleConflict> conflicts = new ArrayList<>();
+    private final CompletableFuture<RuleOperation> completion = new CompletableFuture<>();
+    private volatile State state = State.PENDING;
+    private volatile long latencyNanos = -1;
+    private volatile String error;
+
+    /**
+     * Creates a pending operation.
+     *
+     * @param id     operation id
+     * @param kind   what the operation does, "add" or "delete"
+     * @param idRule REST id of the rule
+     */
+    RuleOperation(long id, String kind, String idRule) {
+        this.id = id;
+        this.kind = kind;
+        this.idRule = idRule;
+    }
+
+    public long id() {
+        return id;
+    }
+
+    public String kind() {
+        return kind;
+    }
+
+    public String idRule() {
+        return idRule;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * Returns the failure reported by the devices.
+     *
+     * @return failure message, null unless FAILED
+     */
+    public String error() {
+        return error;
+    }
+
+    /**
+     * Returns the wall-clock time the operation was submitted at.
+     *
+     * @return submission time in milliseconds since the epoch
+     */
+    public long submitted() {
+        return submitted;
+    }
+
+    /**
+     * Returns the time from submission to the last device confirmation.
+     *
+     * @return latency in nanoseconds, -1 while pending
+     */
+    public long latencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * Returns the installed rules the added rule duplicates or overlaps.
+     *
+     * @return conflicts on every device
+     */
+    public synchronized List<RuleConflict> conflicts() {
+        return new ArrayList<>(conflicts);
+    }
+
+    synchronized void addConflicts(Collection<RuleConflict> found) {
+        conflicts.addAll(found);
+    }
+
+    /**
+     * Returns a future completed with this operation once it is no longer pending.
+     *
+     * @return completion future
+     */
+    public CompletableFuture<RuleOperation> completion() {
+        return completion;
+    }
+
+    // Ends the operation; only the first call has effect, and the fields are set before it is seen as done
+    synchronized void complete(String failure) {
+        if (completion.isDone()) {
+            return;
+        }
+        latencyNanos = System.nanoTime() - submittedNanos;
+        error = failure;
+        state = failure == null ? State.DONE : State.FAILED;
+        completion.complete(this);
+    }
+}
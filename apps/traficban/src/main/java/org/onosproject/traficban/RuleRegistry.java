@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.traficban;
+
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Flow rules installed through the REST API, indexed by rule id, by device and
+ * by flow id.
+ * <p>
+ * A rule id takes one or more table entries on each device, registered and
+ * forgotten together. Looking up the rules of an id does not depend on the
+ * number of devices, and removing them costs one step per device the id was
+ * installed on. Ids are kept sorted, so that they can be paged through
+ * from any id on.
+ */
+final class RuleRegistry {
+
+    private final ConcurrentNavigableMap<String, ConcurrentMap<DeviceId, List<FlowRule>>> byId =
+            new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<DeviceId, ConcurrentNavigableMap<String, List<FlowRule>>> byDevice =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<FlowId, String> byFlow = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the rules installed with an id on a device.
+     *
+     * @param deviceId device
+     * @param idRule   rule id
+     * @return flow rules, one per table entry, or null if none
+     */
+    List<FlowRule> get(DeviceId deviceId, String idRule) {
+        Map<String, List<FlowRule>> rules = byDevice.get(deviceId);
+        return rules == null ? null : rules.get(idRule);
+    }
+
+    /**
+     * Returns the id a rule was installed with.
+     *
+     * @param flowId flow id of the rule
+     * @return rule id, or null if the rule is not registered
+     */
+    String idRule(FlowId flowId) {
+        return byFlow.get(flowId);
+    }
+
+    /**
+     * Returns the rules installed with an id.
+     *
+     * @param idRule rule id
+     * @return flow rules of every device
+     */
+    Collection<FlowRule> rules(String idRule) {
+        Map<DeviceId, List<FlowRule>> rules = byId.get(idRule);
+        return rules == null ? Collections.emptyList() : flatten(rules.values());
+    }
+
+    /**
+     * Returns the rules installed with an id, by device.
+     *
+     * @param idRule rule id
+     * @return flow rules of each device
+     */
+    Map<DeviceId, List<FlowRule>> devices(String idRule) {
+        Map<DeviceId, List<FlowRule>> rules = byId.get(idRule);
+        return rules == null ? Collections.emptyMap() : new HashMap<>(rules);
+    }
+
+    /**
+     * Returns the ids after a given one, in order. Ids added or removed while
+     * iterating may or may not be seen.
+     *
+     * @param after    id to start after, null to start from the first one
+     * @param deviceId only ids with rules on this device, null for any
+     * @return ids in ascending order
+     */
+    Iterator<String> ids(String after, DeviceId deviceId) {
+        NavigableMap<String, ?> index = deviceId == null ? byId : byDevice.get(deviceId);
+        if (index == null) {
+            return Collections.emptyIterator();
+        }
+        return (after == null ? index : index.tailMap(after, false)).keySet().iterator();
+    }
+
+    /**
+     * Returns the rules installed on a device.
+     *
+     * @param deviceId device
+     * @return flow rules of every id
+     */
+    Collection<FlowRule> rules(DeviceId deviceId) {
+        Map<String, List<FlowRule>> rules = byDevice.get(deviceId);
+        return rules == null ? Collections.emptyList() : flatten(rules.values());
+    }
+
+    /**
+     * Registers the rules of an id on a device unless the id already has rules there.
+     *
+     * @param idRule rule id
+     * @param rules  flow rules, all for the same device
+     * @return true if the rules were registered
+     */
+    synchronized boolean add(String idRule, List<FlowRule> rules) {
+        DeviceId deviceId = rules.get(0).deviceId();
+        if (byDevice.computeIfAbsent(deviceId, d -> new ConcurrentSkipListMap<>())
+                .putIfAbsent(idRule, rules) != null) {
+            return false;
+        }
+        byId.computeIfAbsent(idRule, i -> new ConcurrentHashMap<>()).put(deviceId, rules);
+        rules.forEach(rule -> byFlow.put(rule.id(), idRule));
+        return true;
+    }
+
+    /**
+     * Forgets every rule of an id.
+     *
+     * @param idRule rule id
+     * @return the rules forgotten
+     */
+    synchronized Collection<FlowRule> remove(String idRule) {
+        Map<DeviceId, List<FlowRule>> rules = byId.remove(idRule);
+        if (rules == null) {
+            return Collections.emptyList();
+        }
+        rules.keySet().forEach(deviceId -> forget(byDevice, deviceId, idRule));
+        Collection<FlowRule> removed = flatten(rules.values());
+        removed.forEach(rule -> byFlow.remove(rule.id()));
+        return removed;
+    }
+
+    /**
+     * Forgets every rule of a device.
+     *
+     * @param deviceId device
+     * @return the rules forgotten
+     */
+    synchronized Collection<FlowRule> remove(DeviceId deviceId) {
+        Map<String, List<FlowRule>> rules = byDevice.remove(deviceId);
+        if (rules == null) {
+            return Collections.emptyList();
+        }
+        rules.keySet().forEach(idRule -> forget(byId, idRule, deviceId));
+        Collection<FlowRule> removed = flatten(rules.values());
+        removed.forEach(rule -> byFlow.remove(rule.id()));
+        return removed;
+    }
+
+    /**
+     * Forgets the rules of an id on a device.
+     *
+     * @param deviceId device
+     * @param idRule   rule id
+     * @return the rules forgotten, or null if none
+     */
+    synchronized List<FlowRule> remove(DeviceId deviceId, String idRule) {
+        Map<String, List<FlowRule>> rules = byDevice.get(deviceId);
+        List<FlowRule> removed = rules == null ? null : rules.get(idRule);
+        if (removed != null) {
+            forget(byDevice, deviceId, idRule);
+            forget(byId, idRule, deviceId);
+            removed.forEach(rule -> byFlow.remove(rule.id()));
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of table entries registered.
+     *
+     * @return number of flow rules
+     */
+    int size() {
+        return byFlow.size();
+    }
+
+    /**
+     * Forgets every rule.
+     */
+    synchronized void clear() {
+        byId.clear();
+        byDevice.clear();
+        byFlow.clear();
+    }
+
+    private static Collection<FlowRule> flatten(Collection<List<FlowRule>> lists) {
+        List<FlowRule> rules = new ArrayList<>();
+        lists.forEach(rules::addAll);
+        return rules;
+    }
+
+    // Removes one entry of a nested index, dropping the inner map once empty
+    private static <K, I, M extends Map<I, List<FlowRule>>> void forget(ConcurrentMap<K, M> index, K key, I inner) {
+        M rules = index.get(key);
+        if (rules != null) {
+            rules.remove(inner);
+            if (rules.isEmpty()) {
+                index.remove(key, rules);
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.traficban;
+
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.util.ImmutableByteSequence;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.TrafficSelector;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.pi.model.PiActionId;
+import org.onosproject.net.pi.model.PiActionModel;
+import org.onosproject.net.pi.model.PiActionParamModel;
+import org.onosproject.net.pi.model.PiMatchFieldId;
+import org.onosproject.net.pi.model.PiMatchFieldModel;
+import org.onosproject.net.pi.model.PiMatchType;
+import org.onosproject.net.pi.model.PiPipeconf;
+import org.onosproject.net.pi.model.PiPipeconfId;
+import org.onosproject.net.pi.model.PiTableId;
+import org.onosproject.net.pi.model.PiTableModel;
+import org.onosproject.net.pi.runtime.PiAction;
+import org.onosproject.net.pi.runtime.PiActionParam;
+import org.onosproject.traficban.rest.AppWebResource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Compiles the (match, tabla, action, param) and the 5-tuple fields of REST
+ * rules into immutable selectors and treatments, checked against the pipeline
+ * of the devices.
+ * <p>
+ * A rule may need several ternary entries, e.g. for port ranges; the entries
+ * are built by {@link MatchCompiler} and share the treatment. A template is
+ * compiled once per pipeconf and then only stamped out per device. Templates
+ * for devices without a pipeconf are compiled unchecked. Failures throw
+ * IllegalArgumentException before any device is written.
+ */
+final class RuleTemplates {
+
+    private static final PiMatchFieldId ETH_TYPE = PiMatchFieldId.of("hdr.ethernet.ether_type");
+    private static final PiMatchFieldId IP_PROTO = PiMatchFieldId.of("hdr.ipv4.protocol");
+
+    // Bound to the cache; past it the cache starts over
+    private static final int MAX_TEMPLATES = 1024;
+    // Bound to the table entries of a single rule
+    private static final int MAX_ENTRIES = 256;
+
+    // 5-tuple fields of table0, with the REST attribute, value syntax and width used without a pipeconf
+    private static final List<Field> FIELDS = Arrays.asList(
+            new Field("standard_metadata.ingress_port", AppWebResource.QosJson::getInPort,
+                      MatchCompiler.Kind.NUMBER, 9),
+            new Field("hdr.ethernet.src_addr", AppWebResource.QosJson::getSrcMac, MatchCompiler.Kind.MAC, 48),
+            new Field("hdr.ethernet.dst_addr", AppWebResource.QosJson::getDstMac, MatchCompiler.Kind.MAC, 48),
+            new Field("hdr.ipv4.src_addr", AppWebResource.QosJson::getSrcIp, MatchCompiler.Kind.IP4, 32),
+            new Field("hdr.ipv4.dst_addr", AppWebResource.QosJson::getDstIp, MatchCompiler.Kind.IP4, 32),
+            new Field("local_metadata.l4_src_port", AppWebResource.QosJson::getSrcPort,
+                      MatchCompiler.Kind.NUMBER, 16),
+            new Field("local_metadata.l4_dst_port", AppWebResource.QosJson::getDstPort,
+                      MatchCompiler.Kind.NUMBER, 16));
+
+    private final Map<Key, CompiledRule> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the compiled form of a rule for a pipeconf.
+     *
+     * @param atributosJson rule attributes
+     * @param pipeconf      pipeconf of the device, null if unknown
+     * @return compiled rule
+     * @throws IllegalArgumentException if the rule does not fit the pipeline
+     */
+    CompiledRule compile(AppWebResource.QosJson atributosJson, PiPipeconf pipeconf) {
+        Key key = new Key(atributosJson, pipeconf);
+        CompiledRule compiled = cache.get(key);
+        if (compiled == null) {
+            compiled = build(atributosJson, pipeconf);
+            if (cache.size() >= MAX_TEMPLATES) {
+                cache.clear();
+            }
+            cache.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns the number of templates compiled and cached.
+     *
+     * @return cached templates
+     */
+    int size() {
+        return cache.size();
+    }
+
+    /**
+     * Forgets every compiled template.
+     */
+    void clear() {
+        cache.clear();
+    }
+
+    private static CompiledRule build(AppWebResource.QosJson atributosJson, PiPipeconf pipeconf) {
+        if (atributosJson.getTabla() == null || atributosJson.getAction() == null) {
+            throw new IllegalArgumentException("La regla no tiene tabla o accion");
+        }
+        PiTableId tableId = PiTableId.of(atributosJson.getTabla());
+        PiActionId actionId = PiActionId.of(atributosJson.getAction());
+
+        int protocol = protocol(atributosJson.getMatch());
+        PiTableModel table = pipeconf == null ? null : pipeconf.pipelineModel().table(tableId).orElseThrow(() ->
+                new IllegalArgumentException("No existe la tabla " + tableId + " en " + pipeconf.id()));
+
+        PiAction.Builder action = PiAction.builder().withId(actionId);
+        List<String> values = params(atributosJson.getParam());
+        if (table != null) {
+            checkTernary(table, ETH_TYPE);
+            if (protocol >= 0) {
+                checkTernary(table, IP_PROTO);
+            }
+            PiActionModel actionModel = table.action(actionId).orElseThrow(() ->
+                    new IllegalArgumentException("No existe la accion " + actionId + " en la tabla " + tableId));
+            List<PiActionParamModel> params = new ArrayList<>(actionModel.params());
+            if (params.size() != values.size()) {
+                throw new IllegalArgumentException("La accion " + actionId + " espera " + params.size() +
+                                                           " parametros y se han dado " + values.size());
+            }
+            for (int i = 0; i < params.size(); i++) {
+                PiActionParamModel param = params.get(i);
+                try {
+                    action.withParameter(new PiActionParam(param.id(), ImmutableByteSequence
+                            .copyFrom(Long.decode(values.get(i))).fit(param.bitWidth())));
+                } catch (NumberFormatException | ImmutableByteSequence.ByteSequenceTrimException e) {
+                    throw new IllegalArgumentException("Valor no valido para " + param.id() + ": " + values.get(i));
+                }
+            }
+        } else if (!values.isEmpty()) {
+            // Without a model the parameter names are unknown
+            throw new IllegalArgumentException("Parametros sin pipeconf para la accion " + actionId);
+        }
+
+        // Only the fields given take part in the entries
+        List<Field> used = new ArrayList<>();
+        List<List<MatchCompiler.Ternary>> ternaries = new ArrayList<>();
+        for (Field field : FIELDS) {
+            String spec = field.attribute.apply(atributosJson);
+            if (spec == null || spec.trim().isEmpty()) {
+                continue;
+            }
+            int width = field.width;
+            if (table != null) {
+                width = checkTernary(table, field.id).bitWidth();
+            }
+            try {
+                ternaries.add(MatchCompiler.field(spec, field.kind, width));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Campo " + field.id + ": " + e.getMessage());
+            }
+            used.add(field);
+        }
+
+        List<TrafficSelector> selectors = new ArrayList<>();
+        for (MatchCompiler.Ternary[] entry : MatchCompiler.entries(ternaries, MAX_ENTRIES)) {
+            PiCriterion.Builder criterion = PiCriterion.builder()
+                    .matchTernary(ETH_TYPE, Ethernet.TYPE_IPV4, 0xffff);
+            if (protocol >= 0) {
+                criterion.matchTernary(IP_PROTO, protocol, 0xff);
+            }
+            for (int f = 0; f < entry.length; f++) {
+                // A field merged into a full wildcard is left out of the entry
+                if (entry[f].mask() != 0) {
+                    criterion.matchTernary(used.get(f).id, entry[f].value(), entry[f].mask());
+                }
+            }
+            selectors.add(DefaultTrafficSelector.builder().matchPi(criterion.build()).build());
+        }
+        TrafficTreatment treatment = DefaultTrafficTreatment.builder().piTableAction(action.build()).build();
+        return new CompiledRule(tableId, selectors, treatment);
+    }
+
+    // IPv4 protocol of a match, -1 for any; no match keeps the original ICMP default
+    private static int protocol(String match) {
+        if (match == null || "icmp".equals(match)) {
+            return IPv4.PROTOCOL_ICMP;
+        } else if ("tcp".equals(match)) {
+            return IPv4.PROTOCOL_TCP;
+        } else if ("udp".equals(match)) {
+            return IPv4.PROTOCOL_UDP;
+        } else if ("any".equals(match)) {
+            return -1;
+        }
+        try {
+            int protocol = Integer.decode(match);
+            if (protocol >= 0 && protocol <= 0xff) {
+                return protocol;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Match desconocido: " + match);
+    }
+
+    private static PiMatchFieldModel checkTernary(PiTableModel table, PiMatchFieldId fieldId) {
+        PiMatchFieldModel field = table.matchField(fieldId).orElseThrow(() ->
+                new IllegalArgumentException("La tabla " + table.id() + " no tiene el campo " + fieldId));
+        if (field.matchType() != PiMatchType.TERNARY) {
+            throw new IllegalArgumentException("El campo " + fieldId + " de la tabla " + table.id() +
+                                                       " no es ternario");
+        }
+        return field;
+    }
+
+    // Comma-separated action parameters, in the order the action declares them
+    private static List<String> params(String param) {
+        List<String> values = new ArrayList<>();
+        if (param != null && !param.trim().isEmpty()) {
+            for (String value : param.split(",")) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
+    // Match field of table0 and where its value comes from in a REST rule
+    private static final class Field {
+        private final PiMatchFieldId id;
+        private final Function<AppWebResource.QosJson, String> attribute;
+        private final MatchCompiler.Kind kind;
+        private final int width;
+
+        private Field(String id, Function<AppWebResource.QosJson, String> attribute,
+                      MatchCompiler.Kind kind, int width) {
+            this.id = PiMatchFieldId.of(id);
+            this.attribute = attribute;
+            this.kind = kind;
+            this.width = width;
+        }
+    }
+
+    /**
+     * Selectors and treatment of a rule, ready to be stamped out per device.
+     */
+    static final class CompiledRule {
+        private final PiTableId tableId;
+        private final List<TrafficSelector> selectors;
+        private final TrafficTreatment treatment;
+
+        private CompiledRule(PiTableId tableId, List<TrafficSelector> selectors, TrafficTreatment treatment) {
+            this.tableId = tableId;
+            this.selectors = Collections.unmodifiableList(selectors);
+            this.treatment = treatment;
+        }
+
+        /**
+         * Returns the number of table entries the rule takes on a device.
+         *
+         * @return table entries
+         */
+        int size() {
+            return selectors.size();
+        }
+
+        /**
+         * Builds the flow rules of the template for a device.
+         *
+         * @param deviceId device
+         * @param appId    application installing the rule
+         * @param priority rule priority
+         * @return permanent flow rules, one per table entry; their matches may overlap,
+         *         e.g. where a masked item meets another item of the same field, but no
+         *         entry is covered by another one
+         */
+        List<FlowRule> rules(DeviceId deviceId, ApplicationId appId, int priority) {
+            List<FlowRule> rules = new ArrayList<>(selectors.size());
+            for (TrafficSelector selector : selectors) {
+                rules.add(DefaultFlowRule.builder()
+                                  .forDevice(deviceId).fromApp(appId).makePermanent().withPriority(priority)
+                                  .forTable(tableId)
+                                  .withSelector(selector)
+                                  .withTreatment(treatment)
+                                  .build());
+            }
+            return rules;
+        }
+    }
+
+    // Template attributes plus the pipeconf, by id and fingerprint, they were checked against
+    private static final class Key {
+        private final List<String> attributes;
+        private final PiPipeconfId pipeconfId;
+        private final long fingerprint;
+
+        private Key(AppWebResource.QosJson atributosJson, PiPipeconf pipeconf) {
+            List<String> attributes = new ArrayList<>(Arrays.asList(
+                    atributosJson.getMatch(), atributosJson.getTabla(),
+                    atributosJson.getAction(), atributosJson.getParam()));
+            FIELDS.forEach(field -> attributes.add(field.attribute.apply(atributosJson)));
+            this.attributes = attributes;
+            this.pipeconfId = pipeconf == null ? null : pipeconf.id();
+            this.fingerprint = pipeconf == null ? 0 : pipeconf.fingerprint();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(attributes, pipeconfId, fingerprint);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return fingerprint == other.fingerprint && attributes.equals(other.attributes) &&
+                    Objects.equals(pipeconfId, other.pipeconfId);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.onosproject.traficban;
+
+public class TraficbanConst {
+
+    private TraficbanConst() {
+    }
+
+    static final String FANOUT_THREADS = "FANOUT_THREADS";
+    static final int FANOUT_THREADS_DEFAULT = 8;
+
+    static final String DEVICE_QUEUE_DEPTH = "DEVICE_QUEUE_DEPTH";
+    static final int DEVICE_QUEUE_DEPTH_DEFAULT = 1024;
+
+    static final String TELEMETRY_SAMPLES = "TELEMETRY_SAMPLES";
+    static final int TELEMETRY_SAMPLES_DEFAULT = 360;
+
+    static final String WCMP_REBALANCE_SECONDS = "WCMP_REBALANCE_SECONDS";
+    static final int WCMP_REBALANCE_SECONDS_DEFAULT = 10;
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+import com.google.common.base.Strings;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.CoreService;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.Port;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.device.DeviceService;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.flow.TrafficTreatment;
+import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.flow.instructions.Instruction;
+import org.onosproject.net.flow.instructions.PiInstruction;
+import org.onosproject.net.group.DefaultGroupBucket;
+import org.onosproject.net.group.DefaultGroupDescription;
+import org.onosproject.net.group.Group;
+import org.onosproject.net.group.GroupBucket;
+import org.onosproject.net.group.GroupBuckets;
+import org.onosproject.net.group.GroupDescription;
+import org.onosproject.net.group.GroupEvent;
+import org.onosproject.net.group.GroupListener;
+import org.onosproject.net.group.GroupService;
+import org.onosproject.net.pi.model.PiActionId;
+import org.onosproject.net.pi.model.PiActionParamId;
+import org.onosproject.net.pi.model.PiActionProfileId;
+import org.onosproject.net.pi.model.PiActionProfileModel;
+import org.onosproject.net.pi.model.PiMatchFieldId;
+import org.onosproject.net.pi.model.PiPipeconf;
+import org.onosproject.net.pi.model.PiTableId;
+import org.onosproject.net.pi.runtime.PiAction;
+import org.onosproject.net.pi.runtime.PiActionParam;
+import org.onosproject.net.pi.runtime.PiActionProfileGroupId;
+import org.onosproject.net.pi.runtime.PiGroupKey;
+import org.onosproject.net.pi.service.PiPipeconfService;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.onlab.util.Tools.groupedThreads;
+import static org.onosproject.traficban.TraficbanConst.WCMP_REBALANCE_SECONDS;
+import static org.onosproject.traficban.TraficbanConst.WCMP_REBALANCE_SECONDS_DEFAULT;
+
+/**
+ * Programs the WCMP groups of basic.p4 and rebalances their weights from
+ * the load of the member ports.
+ * <p>
+ * A group is a SELECT group of the wcmp_selector action profile, one
+ * set_egress_port bucket per member, plus the wcmp_table entry that sends
+ * its next hop id to it; table0 entries reach it with set_next_hop_id. The
+ * wcmp_table entry is written once the device has the group.
+ * <p>
+ * Every period the weights move towards the base weights scaled by the spare
+ * capacity of each port. The load is the packet rate sent by the port, as
+ * seen by {@link PortTelemetryService}; the port counters of basic.p4 count
+ * packets only. Packet rates do not tell how full a link is, so capacity is
+ * relative: the member with the most packets per unit of port speed is taken
+ * as half full, and the others scale from it by their port speed. A group is
+ * only rewritten when some weight is off by more than the hysteresis, each
+ * weight moves a bounded step per period, and a bounded number of groups is
+ * rewritten per period, so that the load does not swing between members.
+ */
+@Component(immediate = true,
+        service = WcmpService.class,
+        property = {
+                WCMP_REBALANCE_SECONDS + ":Integer=" + WCMP_REBALANCE_SECONDS_DEFAULT,
+        })
+public class WcmpManager implements WcmpService {
+
+    //Aplicacion propia de los grupos y entradas WCMP, distinta de la de las reglas REST
+    static final String WCMP_APP = "org.onosproject.traficban.wcmp";
+
+    private static final PiTableId WCMP_TABLE = PiTableId.of("ingress.wcmp_control.wcmp_table");
+    private static final PiActionProfileId WCMP_SELECTOR = PiActionProfileId.of("ingress.wcmp_control.wcmp_selector");
+    private static final PiMatchFieldId NEXT_HOP_ID = PiMatchFieldId.of("local_metadata.next_hop_id");
+    private static final PiActionId SET_EGRESS_PORT = PiActionId.of("ingress.wcmp_control.set_egress_port");
+    private static final PiActionParamId PORT = PiActionParamId.of("port");
+
+    //Mayor next hop id: local_metadata.next_hop_id tiene 16 bits
+    static final int MAX_NEXT_HOP_ID = 0xffff;
+    //Pesos admitidos por miembro
+    static final int MAX_WEIGHT = 16;
+    //Diferencia minima de peso que provoca una reescritura del grupo
+    static final int HYSTERESIS = 2;
+    //Cambio maximo de un peso en cada periodo
+    static final int MAX_STEP = 2;
+    //Grupos reescritos como mucho en cada periodo
+    private static final int MAX_UPDATES = 32;
+    //Muestras de telemetria promediadas para la carga de un puerto
+    private static final int LOAD_SAMPLES = 3;
+    //Fraccion de capacidad libre que se supone a un puerto saturado
+    private static final double MIN_HEADROOM = 0.05;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /** Configure the seconds between rebalances, 0 to disable them; default is 10. */
+    private int WCMP_REBALANCE_SECONDS = WCMP_REBALANCE_SECONDS_DEFAULT;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected GroupService groupService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected FlowRuleService flowRuleService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected DeviceService deviceService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected CoreService coreService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected PiPipeconfService pipeconfService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected PortTelemetryService telemetryService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService cfgService;
+
+    private ApplicationId appId;
+
+    //Grupos por dispositivo y next hop id
+    private final Map<DeviceId, Map<Integer, WcmpGroup>> groups = new ConcurrentHashMap<>();
+    private final GroupListener groupListener = new InternalGroupListener();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> rebalanceTask;
+
+    @Activate
+    protected void activate(ComponentContext context) {
+        // Not the id of the REST rules: their sync removes every entry of its id that is not in the policy
+        appId = coreService.registerApplication(WCMP_APP);
+        cfgService.registerProperties(getClass());
+        scheduler = Executors.newSingleThreadScheduledExecutor(groupedThreads("onos/traficban", "wcmp", log));
+        groupService.addListener(groupListener);
+        // Groups outlive the application: take back the ones already on the devices
+        deviceService.getAvailableDevices().forEach(device -> recover(device.id()));
+        modified(context);
+        log.info("WCMP activado");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        groupService.removeListener(groupListener);
+        scheduler.shutdownNow();
+        groups.clear();
+        cfgService.unregisterProperties(getClass(), false);
+        log.info("WCMP detenido");
+    }
+
+    @Modified
+    public void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context.getProperties();
+
+        String s = Tools.get(properties, "WCMP_REBALANCE_SECONDS");
+        WCMP_REBALANCE_SECONDS = Strings.isNullOrEmpty(s) ? WCMP_REBALANCE_SECONDS_DEFAULT :
+                Integer.parseInt(s.trim());
+
+        log.info("Propiedades cambiadas a: reequilibrado cada {} segundos", WCMP_REBALANCE_SECONDS);
+        if (rebalanceTask != null) {
+            rebalanceTask.cancel(false);
+            rebalanceTask = null;
+        }
+        if (WCMP_REBALANCE_SECONDS > 0) {
+            rebalanceTask = scheduler.scheduleWithFixedDelay(this::rebalance, WCMP_REBALANCE_SECONDS,
+                                                             WCMP_REBALANCE_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void setGroup(DeviceId deviceId, int nextHopId, List<WcmpMember> members) {
+        PiPipeconf pipeconf = pipeconfService.getPipeconf(deviceId).orElseThrow(() ->
+                new IllegalArgumentException("El dispositivo " + deviceId + " no tiene pipeconf"));
+        PiActionProfileModel profile = pipeconf.pipelineModel().actionProfiles(WCMP_SELECTOR).orElseThrow(() ->
+                new IllegalArgumentException("No existe el perfil " + WCMP_SELECTOR + " en " + pipeconf.id()));
+        if (nextHopId <= 0 || nextHopId > MAX_NEXT_HOP_ID) {
+            throw new IllegalArgumentException("Next hop id no valido: " + nextHopId);
+        }
+        if (members.isEmpty() || (profile.maxGroupSize() > 0 && members.size() > profile.maxGroupSize())) {
+            throw new IllegalArgumentException("Un grupo lleva entre 1 y " + profile.maxGroupSize() + " miembros");
+        }
+        long[] ports = new long[members.size()];
+        int[] base = new int[members.size()];
+        for (int i = 0; i < members.size(); i++) {
+            ports[i] = members.get(i).port();
+            base[i] = members.get(i).baseWeight();
+            if (base[i] < 1 || base[i] > MAX_WEIGHT) {
+                throw new IllegalArgumentException("Peso fuera de 1.." + MAX_WEIGHT + ": " + base[i]);
+            }
+        }
+
+        WcmpGroup group = new WcmpGroup(deviceId, nextHopId, ports, base, base.clone());
+        WcmpGroup previous = groups.computeIfAbsent(deviceId, d -> new ConcurrentHashMap<>()).put(nextHopId, group);
+        if (previous == null) {
+            groupService.addGroup(new DefaultGroupDescription(deviceId, GroupDescription.Type.SELECT,
+                                                              group.buckets(), group.key, nextHopId, appId));
+        } else {
+            groupService.setBucketsForGroup(deviceId, group.key, group.buckets(), group.key, appId);
+        }
+        log.info("Grupo WCMP {} en {} con {} miembros", nextHopId, deviceId, members.size());
+    }
+
+    @Override
+    public boolean removeGroup(DeviceId deviceId, int nextHopId) {
+        Map<Integer, WcmpGroup> device = groups.get(deviceId);
+        WcmpGroup group = device == null ? null : device.remove(nextHopId);
+        if (group == null) {
+            return false;
+        }
+        flowRuleService.removeFlowRules(group.nextHopRule());
+        groupService.removeGroup(deviceId, group.key, appId);
+        return true;
+    }
+
+    @Override
+    public Map<Integer, List<WcmpMember>> groups(DeviceId deviceId) {
+        Map<Integer, List<WcmpMember>> members = new TreeMap<>();
+        groups.getOrDefault(deviceId, Collections.emptyMap()).forEach((id, group) -> members.put(id, group.members()));
+        return members;
+    }
+
+    // Moves the weights of the groups towards the spare capacity of their ports
+    private void rebalance() {
+        try {
+            int updates = 0;
+            for (Map<Integer, WcmpGroup> device : groups.values()) {
+                for (WcmpGroup group : device.values()) {
+                    if (updates >= MAX_UPDATES) {
+                        // The rest wait for the next period
+                        return;
+                    }
+                    if (rebalance(group)) {
+                        updates++;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Fallo al reequilibrar los grupos WCMP", e);
+        }
+    }
+
+    private boolean rebalance(WcmpGroup group) {
+        double[] load = new double[group.ports.length];
+        double[] speed = new double[group.ports.length];
+        boolean speedKnown = true;
+        for (int i = 0; i < group.ports.length; i++) {
+            PortNumber port = PortNumber.portNumber(group.ports[i]);
+            for (PortSeries series : telemetryService.series(group.deviceId, port, LOAD_SAMPLES)) {
+                double[] tx = series.txPps();
+                for (double pps : tx) {
+                    load[i] += pps / tx.length;
+                }
+            }
+            Port info = deviceService.getPort(group.deviceId, port);
+            speed[i] = info == null ? 0 : info.portSpeed();
+            speedKnown &= speed[i] > 0;
+        }
+        // Without the speed of every member they are all taken as equal
+        double maxUse = 0;
+        for (int i = 0; i < speed.length; i++) {
+            if (!speedKnown) {
+                speed[i] = 1;
+            }
+            maxUse = Math.max(maxUse, load[i] / speed[i]);
+        }
+        if (maxUse == 0) {
+            return false;
+        }
+        double[] capacity = new double[speed.length];
+        for (int i = 0; i < speed.length; i++) {
+            capacity[i] = 2 * maxUse * speed[i];
+        }
+
+        int[] next;
+        synchronized (group) {
+            next = step(group.base, group.weights, load, capacity);
+            if (next == null) {
+                return false;
+            }
+            group.weights = next;
+        }
+        groupService.setBucketsForGroup(group.deviceId, group.key, group.buckets(), group.key, appId);
+        log.debug("Grupo WCMP {} en {} reequilibrado", group.nextHopId, group.deviceId);
+        return true;
+    }
+
+    /**
+     * Computes the next weights of a group: one bounded step from the current
+     * weights towards the base weights scaled by the spare capacity of each
+     * member, keeping the total of the base weights.
+     *
+     * @param base     base weights
+     * @param current  weights in use
+     * @param load     load of each member
+     * @param capacity capacity of each member, in the unit of the load
+     * @return next weights, or null if no weight is off by more than the hysteresis
+     */
+    static int[] step(int[] base, int[] current, double[] load, double[] capacity) {
+        double[] target = new double[base.length];
+        double total = 0;
+        int baseTotal = 0;
+        for (int i = 0; i < base.length; i++) {
+            double headroom = Math.max(MIN_HEADROOM, 1 - load[i] / capacity[i]);
+            target[i] = base[i] * headroom;
+            total += target[i];
+            baseTotal += base[i];
+        }
+        boolean off = false;
+        int[] next = new int[base.length];
+        for (int i = 0; i < base.length; i++) {
+            int wanted = (int) Math.round(target[i] * baseTotal / total);
+            wanted = Math.max(1, Math.min(MAX_WEIGHT, wanted));
+            off |= Math.abs(wanted - current[i]) >= HYSTERESIS;
+            next[i] = current[i] + Math.max(-MAX_STEP, Math.min(MAX_STEP, wanted - current[i]));
+        }
+        return off ? next : null;
+    }
+
+    // Takes back the WCMP groups of the application found on a device
+    private void recover(DeviceId deviceId) {
+        for (Group g : groupService.getGroups(deviceId, appId)) {
+            if (!(g.appCookie() instanceof PiGroupKey) ||
+                    !WCMP_SELECTOR.equals(((PiGroupKey) g.appCookie()).actionProfileId())) {
+                continue;
+            }
+            List<GroupBucket> buckets = g.buckets().buckets();
+            long[] ports = new long[buckets.size()];
+            int[] weights = new int[buckets.size()];
+            for (int i = 0; i < buckets.size(); i++) {
+                ports[i] = port(buckets.get(i).treatment());
+                weights[i] = buckets.get(i).weight();
+            }
+            int nextHopId = ((PiGroupKey) g.appCookie()).groupId();
+            // The base weights are not kept on the device: the current ones are taken as base
+            WcmpGroup group = new WcmpGroup(deviceId, nextHopId, ports, weights.clone(), weights);
+            if (groups.computeIfAbsent(deviceId, d -> new ConcurrentHashMap<>())
+                    .putIfAbsent(nextHopId, group) == null) {
+                // The group is there, so its next hop entry can be written back in case it went missing
+                flowRuleService.applyFlowRules(group.nextHopRule());
+            }
+        }
+    }
+
+    private static long port(TrafficTreatment treatment) {
+        for (Instruction instruction : treatment.allInstructions()) {
+            if (instruction instanceof PiInstruction && ((PiInstruction) instruction).action() instanceof PiAction) {
+                for (PiActionParam param : ((PiAction) ((PiInstruction) instruction).action()).parameters()) {
+                    if (PORT.equals(param.id())) {
+                        long port = 0;
+                        for (byte b : param.value().asArray()) {
+                            port = (port << 8) | (b & 0xff);
+                        }
+                        return port;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Group of a device with its member ports and weights
+    private final class WcmpGroup {
+        private final DeviceId deviceId;
+        private final int nextHopId;
+        private final PiGroupKey key;
+        private final long[] ports;
+        private final int[] base;
+        private volatile int[] weights;
+
+        private WcmpGroup(DeviceId deviceId, int nextHopId, long[] ports, int[] base, int[] weights) {
+            this.deviceId = deviceId;
+            this.nextHopId = nextHopId;
+            this.key = new PiGroupKey(WCMP_TABLE, WCMP_SELECTOR, nextHopId);
+            this.ports = ports;
+            this.base = base;
+            this.weights = weights;
+        }
+
+        private GroupBuckets buckets() {
+            int[] w = weights;
+            List<GroupBucket> buckets = new ArrayList<>();
+            for (int i = 0; i < ports.length; i++) {
+                PiAction action = PiAction.builder().withId(SET_EGRESS_PORT)
+                        .withParameter(new PiActionParam(PORT, ports[i])).build();
+                buckets.add(DefaultGroupBucket.createSelectGroupBucket(
+                        DefaultTrafficTreatment.builder().piTableAction(action).build(), (short) w[i]));
+            }
+            return new GroupBuckets(buckets);
+        }
+
+        // wcmp_table entry sending the next hop id to the group
+        private FlowRule nextHopRule() {
+            return DefaultFlowRule.builder()
+                    .forDevice(deviceId).fromApp(appId).makePermanent().withPriority(0)
+                    .forTable(WCMP_TABLE)
+                    .withSelector(DefaultTrafficSelector.builder().matchPi(PiCriterion.builder()
+                            .matchExact(NEXT_HOP_ID, nextHopId).build()).build())
+                    .withTreatment(DefaultTrafficTreatment.builder()
+                            .piTableAction(PiActionProfileGroupId.of(nextHopId)).build())
+                    .build();
+        }
+
+        private List<WcmpMember> members() {
+            int[] w = weights;
+            List<WcmpMember> members = new ArrayList<>();
+            for (int i = 0; i < ports.length; i++) {
+                members.add(new WcmpMember(ports[i], base[i], w[i]));
+            }
+            return members;
+        }
+    }
+
+    private class InternalGroupListener implements GroupListener {
+        @Override
+        public boolean isRelevant(GroupEvent event) {
+            return event.type() == GroupEvent.Type.GROUP_ADDED && event.subject().appId().equals(appId) &&
+                    event.subject().appCookie() instanceof PiGroupKey &&
+                    WCMP_SELECTOR.equals(((PiGroupKey) event.subject().appCookie()).actionProfileId());
+        }
+
+        @Override
+        public void event(GroupEvent event) {
+            // The next hop entry can only point to a group the device already has
+            Map<Integer, WcmpGroup> device = groups.get(event.subject().deviceId());
+            WcmpGroup group = device == null ? null :
+                    device.get(((PiGroupKey) event.subject().appCookie()).groupId());
+            if (group != null) {
+                flowRuleService.applyFlowRules(group.nextHopRule());
+            }
+        }
+    }
+}
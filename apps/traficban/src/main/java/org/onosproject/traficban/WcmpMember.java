@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+/**
+ * Member port of a WCMP group with its weights.
+ */
+public final class WcmpMember {
+
+    private final long port;
+    private final int baseWeight;
+    private final int weight;
+
+    /**
+     * Creates a member.
+     *
+     * @param port       egress port
+     * @param baseWeight weight given when the group was created
+     * @param weight     weight in use, after rebalancing
+     */
+    public WcmpMember(long port, int baseWeight, int weight) {
+        this.port = port;
+        this.baseWeight = baseWeight;
+        this.weight = weight;
+    }
+
+    public long port() {
+        return port;
+    }
+
+    public int baseWeight() {
+        return baseWeight;
+    }
+
+    public int weight() {
+        return weight;
+    }
+}
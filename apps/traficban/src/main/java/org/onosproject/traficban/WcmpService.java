@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+import org.onosproject.net.DeviceId;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Weighted multipath groups of the wcmp_selector action profile, reached from
+ * table0 with set_next_hop_id and rebalanced from the port load.
+ */
+public interface WcmpService {
+
+    /**
+     * Creates a group, or replaces the members of an existing one.
+     *
+     * @param deviceId  device
+     * @param nextHopId next hop id table0 entries set to reach the group, 1 to 65535
+     * @param members   member ports with their base weights
+     * @throws IllegalArgumentException if the group does not fit the pipeline
+     */
+    void setGroup(DeviceId deviceId, int nextHopId, List<WcmpMember> members);
+
+    /**
+     * Removes a group.
+     *
+     * @param deviceId  device
+     * @param nextHopId next hop id of the group
+     * @return true if the group existed
+     */
+    boolean removeGroup(DeviceId deviceId, int nextHopId);
+
+    /**
+     * Returns the groups of a device with their current weights.
+     *
+     * @param deviceId device
+     * @return members of each group, by next hop id in ascending order
+     */
+    Map<Integer, List<WcmpMember>> groups(DeviceId deviceId);
+}
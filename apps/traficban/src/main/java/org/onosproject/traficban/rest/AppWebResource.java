@@ -15,31 +15,75 @@
  */
 package org.onosproject.traficban.rest;
 
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.json.MetricsModule;
 import com.fasterxml.jackson.annotation.JsonAnyGetter;
 import com.fasterxml.jackson.annotation.JsonAnySetter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import org.onlab.metrics.MetricsService;
+import org.onlab.util.ItemNotFoundException;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.pi.model.PiTableId;
+import org.onosproject.p4common.DeviceLatency;
+import org.onosproject.p4common.FlowRuleLatencyService;
+import org.onosproject.p4common.LatencyStats;
+import org.onosproject.traficban.DeviceTiming;
+import org.onosproject.traficban.PortMeterConfig;
+import org.onosproject.traficban.PortMeterService;
+import org.onosproject.traficban.PortSeries;
+import org.onosproject.traficban.PortTelemetryService;
 import org.onosproject.traficban.QoSRestService;
+import org.onosproject.traficban.RuleConflict;
+import org.onosproject.traficban.RuleOperation;
+import org.onosproject.traficban.WcmpMember;
+import org.onosproject.traficban.WcmpService;
 import org.onosproject.rest.AbstractWebResource;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.onlab.util.Tools.nullIsNotFound;
 
 /**
  * Sample web resource.
@@ -48,6 +92,10 @@ import java.util.Map;
 @Path("store")
 public class AppWebResource extends AbstractWebResource {
 
+    private static final String NDJSON = "application/x-ndjson";
+    private static final int MAX_PAGE = 10000;
+    private static final List<String> METRICS_COMPONENTS = Arrays.asList("severalpingp4", "traficban");
+
     /**
      * Get hello world greeting.
      *
@@ -62,65 +110,638 @@ public class AppWebResource extends AbstractWebResource {
         return ok(node).build();
     }
 
+    /**
+     * Adds a rule on every QoS device.
+     * <p>
+     * Besides "match" (icmp, tcp, udp, any or a protocol number), a rule may
+     * narrow the traffic with inPort, srcMac, dstMac, srcIp, dstIp, srcPort
+     * and dstPort, each a comma-separated list of values, "lo-hi" ranges,
+     * "value/len" prefixes or "value&amp;&amp;&amp;mask" items. A rule may take
+     * several table entries.
+     *
+     * @param idRule   rule id
+     * @param waitMs   time to wait for the devices to confirm, 0 to return at once
+     * @param body     rule attributes
+     * @param response response, resumed when the operation ends or the wait is over
+     * @throws IllegalArgumentException if the body is missing or is not a rule, answered with 400
+     */
     @POST
     @Path("addRule/{idRule}")
     @Consumes({MediaType.APPLICATION_JSON})
     @Produces({MediaType.APPLICATION_JSON})
-    public Response addRule(
+    public void addRule(
             @PathParam("idRule") String idRule,
-            String body) {
+            @QueryParam("wait") @DefaultValue("0") long waitMs,
+            String body,
+            @Suspended AsyncResponse response) {
 
+        if (body == null || body.trim().isEmpty()) {
+            throw new IllegalArgumentException("Falta la regla en el cuerpo");
+        }
         ObjectMapper mapper = new ObjectMapper();
         mapper.configure(JsonReadFeature.ALLOW_UNESCAPED_CONTROL_CHARS.mappedFeature(), true);
-        QosJson attributesJson = null;
+        QosJson attributesJson;
         try {
             attributesJson = mapper.readValue(body, QosJson.class);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Regla no valida: " + e.getMessage(), e);
+        }
+        if (attributesJson == null) {
+            throw new IllegalArgumentException("Falta la regla en el cuerpo");
         }
 
         QoSRestService qosService = get(QoSRestService.class);
-        qosService.addRule(idRule, attributesJson);
+        respond(qosService.addRule(idRule, attributesJson), waitMs, response);
+    }
 
+    /**
+     * Adds an array of rules, each object carrying its own "id".
+     * <p>
+     * The whole array is read and every rule compiled first; the entries of
+     * all the rules then go to each device in a single flow rule operation,
+     * through its per-device queue, and the call does not wait for any
+     * device. Elements that are not rules, have no id or repeat an id get an
+     * error instead of an operation. A syntax error in the body rejects the
+     * whole array before any rule is started.
+     *
+     * @param stream JSON array of rules
+     * @return 202 Accepted with the operation of each rule, or 200 OK if none is pending
+     */
+    @POST
+    @Path("rules:batch")
+    @Consumes({MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response addRules(InputStream stream) {
+        QoSRestService qosService = get(QoSRestService.class);
         ObjectNode node = mapper().createObjectNode().put(" status", "ok");
-        return ok(node).build();
+        ArrayNode rulesNode = node.putArray("rules");
+        Set<String> ids = new HashSet<>();
+        List<QosJson> batch = new ArrayList<>();
+        List<ObjectNode> batchNodes = new ArrayList<>();
+        try (JsonParser parser = mapper().getFactory().createParser(stream)) {
+            parser.enable(JsonReadFeature.ALLOW_UNESCAPED_CONTROL_CHARS.mappedFeature());
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Se esperaba un array de reglas");
+            }
+            JsonToken token;
+            for (int index = 0; (token = parser.nextToken()) != JsonToken.END_ARRAY; index++) {
+                if (token == null) {
+                    throw new IllegalArgumentException("Array de reglas incompleto");
+                }
+                ObjectNode ruleNode = rulesNode.addObject().put("index", index);
+                // Read as a tree first, so that a bad element leaves the parser at the next one
+                JsonNode element = parser.readValueAsTree();
+                if (!element.isObject()) {
+                    ruleNode.put("status", "error").put("error", "El elemento no es un objeto");
+                    continue;
+                }
+                QosJson attributesJson;
+                try {
+                    attributesJson = mapper().treeToValue(element, QosJson.class);
+                } catch (JsonProcessingException e) {
+                    ruleNode.put("status", "error").put("error", "Regla no valida: " + e.getOriginalMessage());
+                    continue;
+                }
+                String idRule = attributesJson.getId();
+                ruleNode.put("id", idRule);
+                if (idRule == null || idRule.isEmpty()) {
+                    ruleNode.put("status", "error").put("error", "La regla no tiene id");
+                    continue;
+                }
+                if (!ids.add(idRule)) {
+                    ruleNode.put("status", "error").put("error", "Id repetido en el lote");
+                    continue;
+                }
+                batch.add(attributesJson);
+                batchNodes.add(ruleNode);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+
+        boolean pending = false;
+        List<RuleOperation> started = batch.isEmpty() ? Collections.emptyList() : qosService.addRules(batch);
+        for (int i = 0; i < started.size(); i++) {
+            RuleOperation operation = started.get(i);
+            ObjectNode ruleNode = batchNodes.get(i)
+                    .put("status", operation.state() == RuleOperation.State.FAILED ? "error" : "ok")
+                    .put("operation", operation.id())
+                    .put("state", operation.state().name());
+            if (operation.error() != null) {
+                ruleNode.put("error", operation.error());
+            }
+            putConflicts(ruleNode, operation.conflicts());
+            pending |= operation.state() == RuleOperation.State.PENDING;
+        }
+        return pending ? Response.accepted(node).build() : ok(node).build();
+    }
+
+    // 200 OK once the operation ends, or 202 Accepted pointing to its status if it outlives the wait
+    private void respond(RuleOperation operation, long waitMs, AsyncResponse response) {
+        if (waitMs <= 0 || operation.completion().isDone()) {
+            response.resume(accepted(operation));
+            return;
+        }
+        response.setTimeout(waitMs, TimeUnit.MILLISECONDS);
+        response.setTimeoutHandler(r -> r.resume(accepted(operation)));
+        operation.completion().thenAccept(o -> response.resume(ok(operationNode(o)).build()));
+    }
 
+    private Response accepted(RuleOperation operation) {
+        if (operation.state() != RuleOperation.State.PENDING) {
+            return ok(operationNode(operation)).build();
+        }
+        return Response.accepted(operationNode(operation))
+                .location(URI.create("operations/" + operation.id()))
+                .build();
     }
 
+    private ObjectNode operationNode(RuleOperation operation) {
+        ObjectNode node = mapper().createObjectNode()
+                .put(" status", "ok")
+                .put("operation", operation.id())
+                .put("kind", operation.kind())
+                .put("rule", operation.idRule())
+                .put("state", operation.state().name())
+                .put("submitted", operation.submitted());
+        if (operation.latencyNanos() >= 0) {
+            node.put("latencyMs", operation.latencyNanos() / 1e6);
+        }
+        if (operation.error() != null) {
+            node.put("error", operation.error());
+        }
+        putConflicts(node, operation.conflicts());
+        return node;
+    }
+
+    private void putConflicts(ObjectNode node, List<RuleConflict> conflicts) {
+        ArrayNode conflictsNode = node.putArray("conflicts");
+        for (RuleConflict conflict : conflicts) {
+            conflictsNode.addObject()
+                    .put("device", conflict.deviceId().toString())
+                    .put("type", conflict.type().name())
+                    .put("rule", conflict.idRule())
+                    .put("flowId", conflict.flowId().toString());
+        }
+    }
+
+    /**
+     * Deletes a rule from every device it was added to.
+     *
+     * @param idRule   rule id
+     * @param waitMs   time to wait for the devices to confirm, 0 to return at once
+     * @param response response, resumed when the operation ends or the wait is over
+     */
     @DELETE
     @Path("delRule/{idRule}/")
-    public Response delRule(
-            @PathParam("idRule") String idRule) {
+    @Produces({MediaType.APPLICATION_JSON})
+    public void delRule(
+            @PathParam("idRule") String idRule,
+            @QueryParam("wait") @DefaultValue("0") long waitMs,
+            @Suspended AsyncResponse response) {
 
         QoSRestService qosService = get(QoSRestService.class);
-        qosService.deleteRule(idRule);
+        respond(qosService.deleteRule(idRule), waitMs, response);
+    }
 
-        ObjectNode node = mapper().createObjectNode().put(" status", "ok");
-        return ok(node).build();
+    /**
+     * Gets the state of a rule operation.
+     *
+     * @param id operation id
+     * @return 200 OK with the operation, 404 if unknown or no longer kept
+     */
+    @GET
+    @Path("operations/{id}")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getOperation(@PathParam("id") long id) {
+        QoSRestService qosService = get(QoSRestService.class);
+        RuleOperation operation = nullIsNotFound(qosService.operation(id), "Operacion no encontrada");
+        return ok(operationNode(operation)).build();
     }
 
 
+    /**
+     * Deletes every rule of an application, one flow rule operation per device.
+     *
+     * @param idApp    application name
+     * @param waitMs   time to wait for the devices to confirm, 0 to return at once
+     * @param response response, resumed when the operation ends or the wait is over
+     */
     @DELETE
     @Path("delAllRuleApp/{idApp}/")
-    public Response delAllRuleApp(
-            @PathParam("idApp") String idApp) {
+    @Produces({MediaType.APPLICATION_JSON})
+    public void delAllRuleApp(
+            @PathParam("idApp") String idApp,
+            @QueryParam("wait") @DefaultValue("0") long waitMs,
+            @Suspended AsyncResponse response) {
+
+        QoSRestService qosService = get(QoSRestService.class);
+        respond(qosService.deleteAllRulesApp(idApp), waitMs, response);
+    }
 
+    /**
+     * Lists the installed rules as NDJSON, one line per rule and device,
+     * ordered by rule id.
+     * <p>
+     * Lines are written as they are read from the registry. When more rules
+     * follow, the X-Next-Cursor header holds the cursor of the next page.
+     *
+     * @param device   only rules on this device
+     * @param table    only rules with entries in this table
+     * @param idRule   only this rule
+     * @param cursor   cursor returned with the previous page
+     * @param limit    rules per page, up to 10000
+     * @param counters whether to add the state, packets and bytes of each entry, as of
+     *                 the flow store's last poll of the device
+     * @return 200 OK with the rules of the page
+     */
+    @GET
+    @Path("rules")
+    @Produces(NDJSON)
+    public Response getRules(
+            @QueryParam("device") String device,
+            @QueryParam("table") String table,
+            @QueryParam("id") String idRule,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("limit") @DefaultValue("1000") int limit,
+            @QueryParam("counters") @DefaultValue("false") boolean counters) {
+
+        if (limit <= 0) {
+            throw new IllegalArgumentException("El limite debe ser positivo");
+        }
         QoSRestService qosService = get(QoSRestService.class);
-        qosService.deleteAllRulesApp(idApp);
+        DeviceId deviceId = device == null ? null : DeviceId.deviceId(device);
+        PiTableId tableId = table == null ? null : PiTableId.of(table);
+
+        List<String> ids;
+        String next = null;
+        if (idRule != null) {
+            ids = Collections.singletonList(idRule);
+        } else {
+            int page = Math.min(limit, MAX_PAGE);
+            // One id more than the page tells whether another page follows
+            ids = qosService.ruleIds(cursor, deviceId, tableId, page + 1);
+            if (ids.size() > page) {
+                ids = ids.subList(0, page);
+                next = ids.get(page - 1);
+            }
+        }
+
+        List<String> pageIds = ids;
+        StreamingOutput stream = out -> {
+            JsonGenerator generator = mapper().getFactory().createGenerator(out);
+            // Counters are taken from the store once per device, the first time the page reaches it
+            Map<DeviceId, Map<FlowId, FlowEntry>> entries = new HashMap<>();
+            for (String id : pageIds) {
+                for (Map.Entry<DeviceId, List<FlowRule>> installed : qosService.installedRules(id).entrySet()) {
+                    if (deviceId != null && !deviceId.equals(installed.getKey())) {
+                        continue;
+                    }
+                    ObjectNode line = mapper().createObjectNode()
+                            .put("id", id)
+                            .put("device", installed.getKey().toString());
+                    ArrayNode entriesNode = line.putArray("entries");
+                    for (FlowRule rule : installed.getValue()) {
+                        if (tableId != null && !tableId.equals(rule.table())) {
+                            continue;
+                        }
+                        ObjectNode entryNode = entriesNode.addObject()
+                                .put("flowId", rule.id().toString())
+                                .put("table", rule.table().toString())
+                                .put("priority", rule.priority())
+                                .put("match", rule.selector().criteria().toString());
+                        if (counters) {
+                            FlowEntry entry = entries.computeIfAbsent(installed.getKey(), qosService::ruleCounters)
+                                    .get(rule.id());
+                            entryNode.put("state", entry == null ? "MISSING" : entry.state().name());
+                            if (entry != null) {
+                                entryNode.put("packets", entry.packets()).put("bytes", entry.bytes());
+                            }
+                        }
+                    }
+                    // A device with no entry in the table asked for has nothing to list
+                    if (tableId == null || entriesNode.size() > 0) {
+                        generator.writeTree(line);
+                        generator.writeRaw('\n');
+                    }
+                }
+            }
+            generator.flush();
+        };
+        Response.ResponseBuilder response = Response.ok(stream, NDJSON);
+        if (next != null) {
+            response.header("X-Next-Cursor", next);
+        }
+        return response.build();
+    }
+
+    /**
+     * Sets port meters, given as an array of objects with device, port,
+     * direction ("ingress" or "egress"), cir, cburst, pir and pburst.
+     * <p>
+     * Rates are per second and, like bursts, in the unit of the meter in the
+     * pipeline (bytes for the basic.p4 port meters). Byte values are written
+     * in kilobits, so they read back rounded up to a multiple of 125. Every
+     * meter is written before waiting for any.
+     *
+     * @param stream JSON array of meters
+     * @return 200 OK with the outcome of each meter
+     */
+    @POST
+    @Path("meters")
+    @Consumes({MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response setMeters(InputStream stream) {
+        List<PortMeterConfig> configs = new ArrayList<>();
+        try {
+            for (JsonNode meterNode : mapper().readTree(stream)) {
+                configs.add(new PortMeterConfig(
+                        DeviceId.deviceId(meterNode.path("device").asText()),
+                        PortMeterConfig.Direction.valueOf(meterNode.path("direction").asText("ingress")
+                                                                  .toUpperCase()),
+                        meterNode.path("port").asLong(-1),
+                        meterNode.path("cir").asLong(),
+                        meterNode.path("cburst").asLong(),
+                        meterNode.path("pir").asLong(),
+                        meterNode.path("pburst").asLong()));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+
+        PortMeterService meterService = get(PortMeterService.class);
+        List<String> errors = meterService.setMeters(configs);
 
         ObjectNode node = mapper().createObjectNode().put(" status", "ok");
+        ArrayNode metersNode = node.putArray("meters");
+        for (int i = 0; i < configs.size(); i++) {
+            ObjectNode meterNode = meterNode(metersNode.addObject(), configs.get(i))
+                    .put("status", errors.get(i) == null ? "ok" : "error");
+            if (errors.get(i) != null) {
+                meterNode.put("error", errors.get(i));
+            }
+        }
+        return ok(node).build();
+    }
+
+    /**
+     * Gets the port meters configured on a device, read from the device.
+     *
+     * @param device device id
+     * @return 200 OK with the meters
+     */
+    @GET
+    @Path("meters/{device}")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getMeters(@PathParam("device") String device) {
+        PortMeterService meterService = get(PortMeterService.class);
+        ObjectNode node = mapper().createObjectNode().put("device", device);
+        ArrayNode metersNode = node.putArray("meters");
+        for (PortMeterConfig config : meterService.meters(DeviceId.deviceId(device))) {
+            meterNode(metersNode.addObject(), config);
+        }
         return ok(node).build();
     }
 
+    private static ObjectNode meterNode(ObjectNode node, PortMeterConfig config) {
+        return node.put("device", config.deviceId().toString())
+                .put("port", config.port())
+                .put("direction", config.direction().name().toLowerCase())
+                .put("cir", config.committedRate())
+                .put("cburst", config.committedBurst())
+                .put("pir", config.peakRate())
+                .put("pburst", config.peakBurst());
+    }
+
+    /**
+     * Gets the recent packet rates of the ports of a device, as rxPps and
+     * txPps series. basic.p4 counts packets only on its ports, so no byte or
+     * bit rates are given.
+     *
+     * @param device  device id
+     * @param port    only this port
+     * @param samples most recent samples per port
+     * @return 200 OK with one series per port, oldest sample first
+     */
+    @GET
+    @Path("telemetry/{device}")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getPortTelemetry(
+            @PathParam("device") String device,
+            @QueryParam("port") Long port,
+            @QueryParam("samples") @DefaultValue("60") int samples) {
+
+        PortTelemetryService telemetryService = get(PortTelemetryService.class);
+        DeviceId deviceId = DeviceId.deviceId(device);
+        ObjectNode node = mapper().createObjectNode().put("device", device);
+        ArrayNode portsNode = node.putArray("ports");
+        for (PortSeries series : telemetryService.series(
+                deviceId, port == null ? null : PortNumber.portNumber(port), samples)) {
+            ObjectNode portNode = portsNode.addObject().put("port", series.port());
+            ArrayNode times = portNode.putArray("times");
+            for (long t : series.times()) {
+                times.add(t);
+            }
+            putRates(portNode.putArray("rxPps"), series.rxPps());
+            putRates(portNode.putArray("txPps"), series.txPps());
+        }
+        return ok(node).build();
+    }
+
+    private static void putRates(ArrayNode node, double[] rates) {
+        for (double rate : rates) {
+            node.add(rate);
+        }
+    }
+
+    /**
+     * Creates or replaces a WCMP group, given as an object with a members
+     * array of objects with port and weight (1 to 16, default 1).
+     * <p>
+     * table0 rules reach the group with action set_next_hop_id and the same
+     * next hop id. The weights given are the base weights; the ones in use
+     * are rebalanced from the packet rate sent by the ports.
+     *
+     * @param device    device id
+     * @param nextHopId next hop id of the group, 1 to 65535
+     * @param stream    JSON object with the members
+     * @return 200 OK
+     */
+    @POST
+    @Path("wcmp/{device}/{nextHopId}")
+    @Consumes({MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response setWcmpGroup(
+            @PathParam("device") String device,
+            @PathParam("nextHopId") int nextHopId,
+            InputStream stream) {
+
+        List<WcmpMember> members = new ArrayList<>();
+        try {
+            for (JsonNode memberNode : mapper().readTree(stream).path("members")) {
+                int weight = memberNode.path("weight").asInt(1);
+                members.add(new WcmpMember(memberNode.path("port").asLong(-1), weight, weight));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+
+        WcmpService wcmpService = get(WcmpService.class);
+        wcmpService.setGroup(DeviceId.deviceId(device), nextHopId, members);
+        return ok(mapper().createObjectNode().put(" status", "ok")).build();
+    }
+
+    /**
+     * Removes a WCMP group.
+     *
+     * @param device    device id
+     * @param nextHopId next hop id of the group
+     * @return 200 OK, 404 if there is no such group
+     */
+    @DELETE
+    @Path("wcmp/{device}/{nextHopId}")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response delWcmpGroup(
+            @PathParam("device") String device,
+            @PathParam("nextHopId") int nextHopId) {
+
+        WcmpService wcmpService = get(WcmpService.class);
+        if (!wcmpService.removeGroup(DeviceId.deviceId(device), nextHopId)) {
+            throw new ItemNotFoundException("Grupo WCMP no encontrado");
+        }
+        return ok(mapper().createObjectNode().put(" status", "ok")).build();
+    }
+
+    /**
+     * Gets the WCMP groups of a device with the base and current weight of
+     * each member.
+     *
+     * @param device device id
+     * @return 200 OK with the groups
+     */
+    @GET
+    @Path("wcmp/{device}")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getWcmpGroups(@PathParam("device") String device) {
+        WcmpService wcmpService = get(WcmpService.class);
+        ObjectNode node = mapper().createObjectNode().put("device", device);
+        ArrayNode groupsNode = node.putArray("groups");
+        wcmpService.groups(DeviceId.deviceId(device)).forEach((nextHopId, members) -> {
+            ObjectNode groupNode = groupsNode.addObject().put("nextHopId", nextHopId);
+            ArrayNode membersNode = groupNode.putArray("members");
+            for (WcmpMember member : members) {
+                membersNode.addObject()
+                        .put("port", member.port())
+                        .put("baseWeight", member.baseWeight())
+                        .put("weight", member.weight());
+            }
+        });
+        return ok(node).build();
+    }
+
+    /**
+     * Gets the per-device timings of the fan-out executor.
+     *
+     * @return 200 OK with one entry per device
+     */
+    @GET
+    @Path("devices/timings")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getDeviceTimings() {
+        QoSRestService qosService = get(QoSRestService.class);
+        ObjectNode node = mapper().createObjectNode();
+        ArrayNode devicesNode = node.putArray("devices");
+        for (DeviceTiming timing : qosService.deviceTimings()) {
+            devicesNode.addObject()
+                    .put("device", timing.deviceId().toString())
+                    .put("tasks", timing.tasks())
+                    .put("rejected", timing.rejected())
+                    .put("pending", timing.pending())
+                    .put("avgWaitUs", timing.avgWaitNanos() / 1000)
+                    .put("avgRunUs", timing.avgRunNanos() / 1000)
+                    .put("maxRunUs", timing.maxRunNanos() / 1000)
+                    .put("lastRunUs", timing.lastRunNanos() / 1000);
+        }
+        return ok(node).build();
+    }
+
+    /**
+     * Gets the time devices take to confirm flow rule writes, from the
+     * submission of the write to the rule being ADDED or REMOVED, and the
+     * writes flagged as never confirmed.
+     *
+     * @return 200 OK with one entry per device
+     */
+    @GET
+    @Path("devices/latency")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getDeviceLatency() {
+        FlowRuleLatencyService latencyService = get(FlowRuleLatencyService.class);
+        ObjectNode node = mapper().createObjectNode();
+        ArrayNode devicesNode = node.putArray("devices");
+        for (DeviceLatency latency : latencyService.latencies()) {
+            ObjectNode deviceNode = devicesNode.addObject()
+                    .put("device", latency.deviceId().toString())
+                    .put("pending", latency.pending())
+                    .put("unconfirmed", latency.unconfirmed())
+                    .put("failed", latency.failed());
+            latencyNode(deviceNode.putObject("install"), latency.installs());
+            latencyNode(deviceNode.putObject("remove"), latency.removals());
+        }
+        ArrayNode unconfirmedNode = node.putArray("unconfirmed");
+        latencyService.unconfirmed().forEach(unconfirmedNode::add);
+        return ok(node).build();
+    }
+
+    private static void latencyNode(ObjectNode node, LatencyStats stats) {
+        node.put("count", stats.count())
+                .put("p50Us", stats.p50Micros())
+                .put("p90Us", stats.p90Micros())
+                .put("p99Us", stats.p99Micros())
+                .put("maxUs", stats.maxMicros());
+    }
+
+    /**
+     * Gets the metrics of severalpingp4 and traficban in the metrics-json
+     * format: gauges, counters, histograms, meters and timers by name.
+     * <p>
+     * Rates are per second and timer durations in microseconds; histograms
+     * hold nanoseconds.
+     *
+     * @param component only the metrics of this component
+     * @return 200 OK with the metrics
+     */
+    @GET
+    @Path("metrics")
+    @Produces({MediaType.APPLICATION_JSON})
+    public Response getMetrics(@QueryParam("component") String component) {
+        MetricsService metricsService = get(MetricsService.class);
+        MetricFilter filter = (name, metric) -> METRICS_COMPONENTS.stream().anyMatch(c ->
+                (component == null || component.equals(c)) && name.startsWith(c + "."));
+        ObjectMapper metricsMapper = new ObjectMapper().registerModule(
+                new MetricsModule(TimeUnit.SECONDS, TimeUnit.MICROSECONDS, false, filter));
+        return ok(metricsMapper.valueToTree(metricsService.getMetricRegistry())).build();
+    }
+
 
     @JsonInclude(JsonInclude.Include.NON_NULL)
     @JsonPropertyOrder({
+            "id",
             "match",
             "tabla",
             "action",
-            "param"
+            "param",
+            "inPort",
+            "srcMac",
+            "dstMac",
+            "srcIp",
+            "dstIp",
+            "srcPort",
+            "dstPort"
     })
     public static class QosJson {
+        @JsonProperty("id")
+        private String id;
         @JsonProperty("match")
         private String match;
         @JsonProperty("tabla")
@@ -129,6 +750,20 @@ public class AppWebResource extends AbstractWebResource {
         private String action;
         @JsonProperty("param")
         private String param;
+        @JsonProperty("inPort")
+        private String inPort;
+        @JsonProperty("srcMac")
+        private String srcMac;
+        @JsonProperty("dstMac")
+        private String dstMac;
+        @JsonProperty("srcIp")
+        private String srcIp;
+        @JsonProperty("dstIp")
+        private String dstIp;
+        @JsonProperty("srcPort")
+        private String srcPort;
+        @JsonProperty("dstPort")
+        private String dstPort;
         @JsonIgnore
         private Map<String, Object> additionalProperties = new HashMap<String, Object>();
 
@@ -150,6 +785,16 @@ public class AppWebResource extends AbstractWebResource {
             this.param = param;
         }
 
+        @JsonProperty("id")
+        public String getId() {
+            return id;
+        }
+
+        @JsonProperty("id")
+        public void setId(String id) {
+            this.id = id;
+        }
+
         @JsonProperty("match")
         public String getMatch() {
             return match;
@@ -190,6 +835,76 @@ public class AppWebResource extends AbstractWebResource {
             this.param = param;
         }
 
+        @JsonProperty("inPort")
+        public String getInPort() {
+            return inPort;
+        }
+
+        @JsonProperty("inPort")
+        public void setInPort(String inPort) {
+            this.inPort = inPort;
+        }
+
+        @JsonProperty("srcMac")
+        public String getSrcMac() {
+            return srcMac;
+        }
+
+        @JsonProperty("srcMac")
+        public void setSrcMac(String srcMac) {
+            this.srcMac = srcMac;
+        }
+
+        @JsonProperty("dstMac")
+        public String getDstMac() {
+            return dstMac;
+        }
+
+        @JsonProperty("dstMac")
+        public void setDstMac(String dstMac) {
+            this.dstMac = dstMac;
+        }
+
+        @JsonProperty("srcIp")
+        public String getSrcIp() {
+            return srcIp;
+        }
+
+        @JsonProperty("srcIp")
+        public void setSrcIp(String srcIp) {
+            this.srcIp = srcIp;
+        }
+
+        @JsonProperty("dstIp")
+        public String getDstIp() {
+            return dstIp;
+        }
+
+        @JsonProperty("dstIp")
+        public void setDstIp(String dstIp) {
+            this.dstIp = dstIp;
+        }
+
+        @JsonProperty("srcPort")
+        public String getSrcPort() {
+            return srcPort;
+        }
+
+        @JsonProperty("srcPort")
+        public void setSrcPort(String srcPort) {
+            this.srcPort = srcPort;
+        }
+
+        @JsonProperty("dstPort")
+        public String getDstPort() {
+            return dstPort;
+        }
+
+        @JsonProperty("dstPort")
+        public void setDstPort(String dstPort) {
+            this.dstPort = dstPort;
+        }
+
         @JsonAnyGetter
         public Map<String, Object> getAdditionalProperties() {
             return this.additionalProperties;
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+
+import org.junit.After;
+import org.junit.Test;
+import org.onosproject.net.DeviceId;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the per-device backpressure of the fan-out executor.
+ */
+public class DeviceExecutorTest {
+
+    private static final DeviceId DEVICE = DeviceId.deviceId("device:s1");
+    private static final long TIMEOUT_S = 5;
+
+    private final AtomicLong observed = new AtomicLong();
+    private final DeviceExecutor executor = new DeviceExecutor(2, 2, 50, (d, nanos) -> observed.incrementAndGet());
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void unansweredTasksHoldTheirSlot() throws Exception {
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        CompletableFuture<Void> second = new CompletableFuture<>();
+        CompletableFuture<Void> a = executor.submit(DEVICE, () -> first);
+        CompletableFuture<Void> b = executor.submit(DEVICE, () -> second);
+
+        // Both tasks have started, but the device has not answered either
+        assertRejected(executor.submit(DEVICE, () -> CompletableFuture.completedFuture(null)));
+        assertFalse(a.isDone());
+        assertEquals(0, observed.get());
+        assertEquals(2, executor.timings().get(0).pending());
+
+        first.complete(null);
+        a.get(TIMEOUT_S, TimeUnit.SECONDS);
+        assertEquals(1, observed.get());
+        executor.submit(DEVICE, () -> CompletableFuture.completedFuture(null)).get(TIMEOUT_S, TimeUnit.SECONDS);
+        assertFalse(b.isDone());
+    }
+
+    @Test
+    public void failuresReachTheSubmitter() throws Exception {
+        CompletableFuture<Void> future = executor.submit(DEVICE, () -> {
+            throw new IllegalStateException("boom");
+        });
+        try {
+            future.get(TIMEOUT_S, TimeUnit.SECONDS);
+            fail("Expected the task failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(0, executor.timings().get(0).pending());
+    }
+
+    private static void assertRejected(CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get(TIMEOUT_S, TimeUnit.SECONDS);
+            fail("Expected a rejection");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the range to prefix expansion and the entry minimization of the
+ * match compiler.
+ */
+public class MatchCompilerTest {
+
+    private static final int PORT_WIDTH = 16;
+    private static final long PORT_FULL = 0xffff;
+
+    @Test
+    public void fullRangeIsWildcard() {
+        List<MatchCompiler.Ternary> t = port("0-65535");
+        assertEquals(1, t.size());
+        assertEquals(0, t.get(0).mask());
+    }
+
+    @Test
+    public void singleValuesAreExact() {
+        for (String v : new String[]{"0", "1", "32767", "32768", "65534", "65535"}) {
+            List<MatchCompiler.Ternary> t = port(v);
+            assertEquals(v, 1, t.size());
+            assertEquals(v, PORT_FULL, t.get(0).mask());
+            assertEquals(v, Long.parseLong(v), t.get(0).value());
+        }
+        assertEquals(1, port("0-0").size());
+        assertEquals(65535, port("65535-65535").get(0).value());
+    }
+
+    @Test
+    public void edgeRangesNeedMinimalPrefixes() {
+        // One prefix per bit at each end
+        assertEquals(2 * (PORT_WIDTH - 1), port("1-65534").size());
+        assertEquals(PORT_WIDTH, port("1-65535").size());
+        assertEquals(PORT_WIDTH, port("0-65534").size());
+        // 1024/6 2048/5 4096/4 8192/3 16384/2 32768/1
+        assertEquals(6, port("1024-65535").size());
+        assertEquals(1, port("32768-65535").size());
+        assertEquals(1, port("0-32767").size());
+        assertEquals(2, port("32767-32768").size());
+    }
+
+    @Test
+    public void prefixCoverMatchesExactlyTheRange() {
+        Random random = new Random(7);
+        List<long[]> ranges = new ArrayList<>(Arrays.asList(
+                new long[]{0, 0}, new long[]{0, 1}, new long[]{65534, 65535}, new long[]{1, 65534},
+                new long[]{1023, 1025}, new long[]{5000, 5000}));
+        for (int i = 0; i < 40; i++) {
+            long a = random.nextInt(65536);
+            long b = random.nextInt(65536);
+            ranges.add(new long[]{Math.min(a, b), Math.max(a, b)});
+        }
+        for (long[] range : ranges) {
+            List<MatchCompiler.Ternary> t = port(range[0] + "-" + range[1]);
+            assertMatchesExactly(t, range[0], range[1]);
+            assertTrue(range[0] + "-" + range[1], t.size() <= 2 * (PORT_WIDTH - 1));
+        }
+    }
+
+    @Test
+    public void adjacentAndOverlappingItemsAreJoined() {
+        assertEquals(port("0-127").size(), port("0-99,100-127").size());
+        assertEquals(port("10-30").size(), port("10-20,15-30").size());
+        assertEquals(1, port("16/13,24/13").size());
+        assertMatchesExactly(port("80, 443, 8080-8090"), 80, 80, 443, 443, 8080, 8090);
+    }
+
+    @Test
+    public void maskedValuesAreKept() {
+        List<MatchCompiler.Ternary> t = port("1&&&0x0f0f");
+        assertEquals(1, t.size());
+        assertEquals(0x0f0f, t.get(0).mask());
+        // A prefix mask is a range
+        assertEquals(0xff00, port("0x1234&&&0xff00").get(0).mask());
+        assertEquals(0x1200, port("0x1234&&&0xff00").get(0).value());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsValueAboveWidth() {
+        port("65536");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyRange() {
+        port("10-9");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLongPrefix() {
+        port("0/17");
+    }
+
+    @Test
+    public void ipPrefixesAndRanges() {
+        List<MatchCompiler.Ternary> t = MatchCompiler.field("10.0.0.0/8", MatchCompiler.Kind.IP4, 32);
+        assertEquals(1, t.size());
+        assertEquals(0xff000000L, t.get(0).mask());
+        assertEquals(1, MatchCompiler.field("0.0.0.0-255.255.255.255", MatchCompiler.Kind.IP4, 32).size());
+        assertEquals(32, MatchCompiler.field("0.0.0.1-255.255.255.255", MatchCompiler.Kind.IP4, 32).size());
+    }
+
+    @Test
+    public void entriesMergeOneBitApart() {
+        List<List<MatchCompiler.Ternary>> fields = new ArrayList<>();
+        fields.add(port("4,5,6,7"));
+        fields.add(new ArrayList<>());
+        List<MatchCompiler.Ternary[]> entries = MatchCompiler.entries(fields, 16);
+        assertEquals(1, entries.size());
+        assertEquals(PORT_FULL & ~3, entries.get(0)[0].mask());
+        assertEquals(0, entries.get(0)[1].mask());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void entriesAreBounded() {
+        List<List<MatchCompiler.Ternary>> fields = new ArrayList<>();
+        fields.add(port("1,3,5"));
+        fields.add(port("1,3,5"));
+        MatchCompiler.entries(fields, 8);
+    }
+
+    private static List<MatchCompiler.Ternary> port(String spec) {
+        return MatchCompiler.field(spec, MatchCompiler.Kind.NUMBER, PORT_WIDTH);
+    }
+
+    // Checks every port value against the ranges given as lo, hi pairs
+    private static void assertMatchesExactly(List<MatchCompiler.Ternary> ternaries, long... bounds) {
+        for (long v = 0; v <= PORT_FULL; v++) {
+            boolean expected = false;
+            for (int i = 0; i < bounds.length; i += 2) {
+                expected |= v >= bounds[i] && v <= bounds[i + 1];
+            }
+            int matches = 0;
+            for (MatchCompiler.Ternary t : ternaries) {
+                if ((v & t.mask()) == t.value()) {
+                    matches++;
+                }
+            }
+            assertEquals("value " + v, expected ? 1 : 0, matches);
+        }
+    }
+}
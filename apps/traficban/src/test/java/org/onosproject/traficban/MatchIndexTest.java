@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+import org.junit.Test;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.pi.model.PiMatchFieldId;
+import org.onosproject.net.pi.model.PiTableId;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of duplicate and overlap detection in the match index.
+ */
+public class MatchIndexTest {
+
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "org.onosproject.traficban");
+    private static final DeviceId DEVICE = DeviceId.deviceId("device:s1");
+    private static final PiTableId TABLE0 = PiTableId.of("ingress.table0_control.table0");
+    private static final PiMatchFieldId DST_ADDR = PiMatchFieldId.of("hdr.ipv4.dst_addr");
+    private static final PiMatchFieldId PROTOCOL = PiMatchFieldId.of("hdr.ipv4.protocol");
+    private static final int PRIORITY = 100;
+
+    private final MatchIndex index = new MatchIndex();
+
+    // Rule matching an IPv4 destination prefix and, if not negative, a protocol
+    private static FlowRule rule(int priority, int dst, int prefix, int protocol) {
+        long mask = prefix == 0 ? 0 : (0xffffffffL << (32 - prefix)) & 0xffffffffL;
+        PiCriterion.Builder match = PiCriterion.builder().matchTernary(DST_ADDR, dst & mask, mask);
+        if (protocol >= 0) {
+            match.matchTernary(PROTOCOL, protocol, 0xff);
+        }
+        return DefaultFlowRule.builder()
+                .forDevice(DEVICE).fromApp(APP_ID).makePermanent().withPriority(priority)
+                .forTable(TABLE0)
+                .withSelector(DefaultTrafficSelector.builder().matchPi(match.build()).build())
+                .withTreatment(DefaultTrafficTreatment.emptyTreatment())
+                .build();
+    }
+
+    private static FlowRule rule(int dst, int prefix, int protocol) {
+        return rule(PRIORITY, dst, prefix, protocol);
+    }
+
+    @Test
+    public void sameMatchIsADuplicate() {
+        index.add(rule(0x0a000000, 8, 6), "r1");
+        List<RuleConflict> conflicts = index.conflicts(rule(0x0a000000, 8, 6));
+        assertEquals(1, conflicts.size());
+        assertEquals(RuleConflict.Type.DUPLICATE, conflicts.get(0).type());
+        assertEquals("r1", conflicts.get(0).idRule());
+    }
+
+    @Test
+    public void nestedPrefixesOverlap() {
+        index.add(rule(0x0a000000, 8, 6), "r1");
+        List<RuleConflict> conflicts = index.conflicts(rule(0x0a010000, 16, 6));
+        assertEquals(1, conflicts.size());
+        assertEquals(RuleConflict.Type.OVERLAP, conflicts.get(0).type());
+    }
+
+    @Test
+    public void missingFieldIsAWildcard() {
+        index.add(rule(0x0a000000, 8, -1), "r1");
+        List<RuleConflict> conflicts = index.conflicts(rule(0x0a000001, 32, 17));
+        assertEquals(1, conflicts.size());
+        assertEquals(RuleConflict.Type.OVERLAP, conflicts.get(0).type());
+    }
+
+    @Test
+    public void disjointMatchesDoNotConflict() {
+        index.add(rule(0x0a000000, 8, 6), "r1");
+        assertTrue(index.conflicts(rule(0x0b000000, 8, 6)).isEmpty());
+        assertTrue(index.conflicts(rule(0x0a000000, 8, 17)).isEmpty());
+        assertTrue(index.conflicts(rule(0x0a800000, 9, 17)).isEmpty());
+    }
+
+    @Test
+    public void otherPrioritiesDoNotConflict() {
+        index.add(rule(0x0a000000, 8, 6), "r1");
+        assertTrue(index.conflicts(rule(PRIORITY + 1, 0x0a000000, 8, 6)).isEmpty());
+    }
+
+    @Test
+    public void removedRulesNoLongerConflict() {
+        FlowRule rule = rule(0x0a000000, 8, 6);
+        index.add(rule, "r1");
+        // Builds the projection before the removal so that it has to be kept up to date
+        assertEquals(1, index.conflicts(rule(0x0a010000, 16, 6)).size());
+        index.remove(rule);
+        assertTrue(index.conflicts(rule(0x0a010000, 16, 6)).isEmpty());
+        assertTrue(index.conflicts(rule).isEmpty());
+    }
+
+    @Test
+    public void evictedProjectionsAreRebuilt() {
+        int[] hosts = {0x0a000000, 0x0b000000, 0x0c000000};
+        for (int added = 1; added <= hosts.length; added++) {
+            index.add(rule(hosts[added - 1], 32, -1), "h" + added);
+            // Every prefix length queries a different projection of the /32 group
+            for (int prefix = 1; prefix <= 32; prefix++) {
+                long mask = (0xffffffffL << (32 - prefix)) & 0xffffffffL;
+                int expected = 0;
+                for (int h = 0; h < added; h++) {
+                    if ((hosts[h] & mask) == (hosts[0] & mask)) {
+                        expected++;
+                    }
+                }
+                assertEquals("/" + prefix, expected, index.conflicts(rule(hosts[0], prefix, -1)).size());
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.onosproject.traficban.rest.AppWebResource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the journal and snapshot recovery of the policy store.
+ */
+public class PolicyStoreTest {
+
+    private static final String JOURNAL = "policy.log";
+    private static final String SNAPSHOT = "policy.snap";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysJournalAfterRestart() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        PolicyStore store = open(dir);
+        store.putIfAbsent("r1", rule("ipv4.dst_addr=10.0.0.1"));
+        store.putIfAbsent("r2", rule("ipv4.dst_addr=10.0.0.2"));
+        store.remove("r1");
+        store.close();
+
+        Map<String, AppWebResource.QosJson> loaded = contents(open(dir));
+        assertEquals(1, loaded.size());
+        assertEquals("ipv4.dst_addr=10.0.0.2", loaded.get("r2").getMatch());
+        assertEquals("r2", loaded.get("r2").getId());
+    }
+
+    @Test
+    public void cutsTornRecordAtTheEnd() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        PolicyStore store = open(dir);
+        store.putIfAbsent("r1", rule("a"));
+        store.putIfAbsent("r2", rule("b"));
+        store.close();
+
+        Path journal = dir.resolve(JOURNAL);
+        long complete = Files.size(journal);
+        long firstRecord = recordLength(journal, 0);
+        // Keep the first record and part of the second, as a crash mid-write would
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(complete - 3);
+        }
+
+        store = open(dir);
+        assertEquals(1, store.size());
+        assertEquals(firstRecord, Files.size(journal));
+
+        // Appends after the cut land where the torn record was
+        store.putIfAbsent("r3", rule("c"));
+        store.close();
+        Map<String, AppWebResource.QosJson> loaded = contents(open(dir));
+        assertEquals(2, loaded.size());
+        assertTrue(loaded.containsKey("r1"));
+        assertTrue(loaded.containsKey("r3"));
+    }
+
+    @Test
+    public void cutsTornRecordHeader() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        PolicyStore store = open(dir);
+        store.putIfAbsent("r1", rule("a"));
+        store.close();
+
+        Path journal = dir.resolve(JOURNAL);
+        long complete = Files.size(journal);
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 1}));
+        }
+
+        store = open(dir);
+        assertEquals(1, store.size());
+        assertEquals(complete, Files.size(journal));
+    }
+
+    @Test
+    public void stopsAtRecordWithBadCrc() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        PolicyStore store = open(dir);
+        store.putIfAbsent("r1", rule("a"));
+        store.putIfAbsent("r2", rule("b"));
+        store.putIfAbsent("r3", rule("c"));
+        store.close();
+
+        Path journal = dir.resolve(JOURNAL);
+        long first = recordLength(journal, 0);
+        // Flip a payload byte of the second record
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, first + 10);
+            b.put(0, (byte) (b.get(0) ^ 0x5a)).rewind();
+            channel.write(b, first + 10);
+        }
+
+        store = open(dir);
+        // Nothing after the corrupt record is trusted
+        Map<String, AppWebResource.QosJson> loaded = contents(store);
+        assertEquals(1, loaded.size());
+        assertTrue(loaded.containsKey("r1"));
+        assertEquals(first, Files.size(journal));
+    }
+
+    @Test
+    public void clearSurvivesRestart() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        PolicyStore store = open(dir);
+        store.putIfAbsent("r1", rule("a"));
+        store.clear();
+        store.putIfAbsent("r2", rule("b"));
+        store.close();
+
+        Map<String, AppWebResource.QosJson> loaded = contents(open(dir));
+        assertEquals(1, loaded.size());
+        assertNull(loaded.get("r1"));
+    }
+
+    @Test
+    public void compactsIntoSnapshot() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        PolicyStore store = open(dir);
+        store.putIfAbsent("keep", rule("k"));
+        for (int i = 0; i < 2000; i++) {
+            store.putIfAbsent("tmp", rule("t" + i));
+            store.remove("tmp");
+        }
+        store.close();
+
+        assertTrue(Files.exists(dir.resolve(SNAPSHOT)));
+        assertTrue(Files.size(dir.resolve(JOURNAL)) < 2000 * recordLength(dir.resolve(JOURNAL), 0));
+        Map<String, AppWebResource.QosJson> loaded = contents(open(dir));
+        assertEquals(1, loaded.size());
+        assertEquals("k", loaded.get("keep").getMatch());
+    }
+
+    @Test
+    public void memoryOnlyStoreKeepsNothingOnDisk() throws IOException {
+        PolicyStore store = new PolicyStore(null);
+        store.open();
+        assertTrue(store.putIfAbsent("r1", rule("a")));
+        assertEquals(false, store.putIfAbsent("r1", rule("b")));
+        assertEquals("a", store.remove("r1").getMatch());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    private static PolicyStore open(Path dir) throws IOException {
+        PolicyStore store = new PolicyStore(dir);
+        store.open();
+        return store;
+    }
+
+    private static AppWebResource.QosJson rule(String match) {
+        return new AppWebResource.QosJson(match, "ingress.table0_control.table0", "drop", null);
+    }
+
+    private static Map<String, AppWebResource.QosJson> contents(PolicyStore store) {
+        Map<String, AppWebResource.QosJson> contents = new HashMap<>();
+        store.forEach(contents::put);
+        store.close();
+        return contents;
+    }
+
+    // Length of the record at an offset, with its length and CRC header
+    private static long recordLength(Path journal, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            channel.read(header, offset);
+            return 8 + header.getInt(0);
+        }
+    }
+}
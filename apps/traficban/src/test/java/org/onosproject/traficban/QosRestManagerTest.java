@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.DefaultFlowEntry;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowEntry;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleOperation;
+import org.onosproject.net.flow.FlowRuleOperations;
+import org.onosproject.net.flow.criteria.PiCriterion;
+import org.onosproject.net.pi.model.PiMatchFieldId;
+import org.onosproject.net.pi.model.PiTableId;
+import org.onosproject.net.pi.runtime.PiActionProfileGroupId;
+import org.onosproject.net.pi.service.PiPipeconfService;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of the device sync of the REST rules against entries of other
+ * applications on the same device.
+ */
+public class QosRestManagerTest {
+
+    private static final DeviceId DEVICE = DeviceId.deviceId("device:s1");
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "org.onosproject.TockenBucket");
+    private static final ApplicationId WCMP_APP_ID = new DefaultApplicationId(2, WcmpManager.WCMP_APP);
+    private static final PiTableId TABLE0 = PiTableId.of("ingress.table0_control.table0");
+    private static final PiTableId WCMP_TABLE = PiTableId.of("ingress.wcmp_control.wcmp_table");
+
+    private final QosRestManager manager = new QosRestManager();
+
+    @Before
+    public void setUp() throws Exception {
+        manager.pipeconfService = (PiPipeconfService) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{PiPipeconfService.class},
+                (proxy, method, args) -> method.getReturnType() == Optional.class ? Optional.empty() : null);
+        // Set by activate, which needs the whole ONOS core
+        Field appId = QosRestManager.class.getDeclaredField("appId");
+        appId.setAccessible(true);
+        appId.set(manager, APP_ID);
+    }
+
+    @Test
+    public void syncLeavesWcmpEntriesAlone() {
+        List<FlowEntry> entries = Arrays.asList(
+                new DefaultFlowEntry(nextHopRule(1)), new DefaultFlowEntry(nextHopRule(2)));
+        assertNull(manager.syncOperations(DEVICE, entries));
+    }
+
+    @Test
+    public void syncRemovesOnlyStaleRulesOfItsApplication() {
+        FlowRule stale = DefaultFlowRule.builder()
+                .forDevice(DEVICE).fromApp(APP_ID).makePermanent().withPriority(50000)
+                .forTable(TABLE0)
+                .withSelector(DefaultTrafficSelector.builder().matchIPProtocol((byte) 1).build())
+                .withTreatment(DefaultTrafficTreatment.emptyTreatment())
+                .build();
+        List<FlowEntry> entries = Arrays.asList(
+                new DefaultFlowEntry(nextHopRule(1)), new DefaultFlowEntry(stale));
+
+        FlowRuleOperations.Builder builder = manager.syncOperations(DEVICE, entries);
+        List<FlowRuleOperation> operations = new ArrayList<>();
+        builder.build().stages().forEach(operations::addAll);
+        assertEquals(1, operations.size());
+        assertEquals(FlowRuleOperation.Type.REMOVE, operations.get(0).type());
+        assertEquals(stale.id(), operations.get(0).rule().id());
+    }
+
+    // wcmp_table entry as WcmpManager writes it
+    private static FlowRule nextHopRule(int nextHopId) {
+        return DefaultFlowRule.builder()
+                .forDevice(DEVICE).fromApp(WCMP_APP_ID).makePermanent().withPriority(0)
+                .forTable(WCMP_TABLE)
+                .withSelector(DefaultTrafficSelector.builder().matchPi(PiCriterion.builder()
+                        .matchExact(PiMatchFieldId.of("local_metadata.next_hop_id"), nextHopId).build()).build())
+                .withTreatment(DefaultTrafficTreatment.builder()
+                        .piTableAction(PiActionProfileGroupId.of(nextHopId)).build())
+                .build();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.traficban;
+
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.onosproject.traficban.WcmpManager.HYSTERESIS;
+import static org.onosproject.traficban.WcmpManager.MAX_STEP;
+import static org.onosproject.traficban.WcmpManager.MAX_WEIGHT;
+import static org.onosproject.traficban.WcmpManager.step;
+
+/**
+ * Tests of the weight steps of the WCMP rebalancing.
+ */
+public class WcmpManagerTest {
+
+    private static final double[] CAPACITY = {100, 100};
+
+    @Test
+    public void balancedLoadKeepsBaseWeights() {
+        assertNull(step(new int[]{4, 4}, new int[]{4, 4}, new double[]{30, 30}, CAPACITY));
+        assertNull(step(new int[]{4, 4}, new int[]{4, 4}, new double[]{0, 0}, CAPACITY));
+    }
+
+    @Test
+    public void smallDifferenceIsWithinHysteresis() {
+        // Headroom 0.625 and 0.375 want 5 and 3, one off the current weights
+        assertNull(step(new int[]{4, 4}, new int[]{4, 4}, new double[]{37.5, 62.5}, CAPACITY));
+        assertEquals(2, HYSTERESIS);
+    }
+
+    @Test
+    public void stepIsClamped() {
+        // Headroom 1 and 0.05 want 15 and 1; each weight moves MAX_STEP at most
+        int[] next = step(new int[]{8, 8}, new int[]{8, 8}, new double[]{0, 99}, CAPACITY);
+        assertArrayEquals(new int[]{8 + MAX_STEP, 8 - MAX_STEP}, next);
+    }
+
+    @Test
+    public void repeatedStepsSettleWithinHysteresis() {
+        int[] base = {8, 8};
+        double[] load = {0, 99};
+        int[] weights = base.clone();
+        int[] next;
+        int steps = 0;
+        while ((next = step(base, weights, load, CAPACITY)) != null) {
+            weights = next;
+            steps++;
+            assertEquals(16, total(weights));
+        }
+        // 8,8 -> 10,6 -> 12,4 -> 14,2, then 15,1 is one off
+        assertEquals(3, steps);
+        assertArrayEquals(new int[]{14, 2}, weights);
+    }
+
+    @Test
+    public void weightsStayWithinBounds() {
+        int[] next = step(new int[]{16, 16}, new int[]{16, 16}, new double[]{0, 90}, CAPACITY);
+        assertNotNull(next);
+        assertArrayEquals(new int[]{16, 16 - MAX_STEP}, next);
+
+        // A saturated member keeps a weight of 1
+        int[] weights = {1, 16};
+        assertNull(step(new int[]{1, 16}, weights, new double[]{100, 0}, CAPACITY));
+    }
+
+    @Test
+    public void capacityScalesTheTarget() {
+        // Same load, but the first port has ten times the capacity
+        int[] next = step(new int[]{4, 4}, new int[]{4, 4}, new double[]{80, 80}, new double[]{1000, 100});
+        assertArrayEquals(new int[]{6, 2}, next);
+    }
+
+    @Test
+    public void randomStepsKeepInvariants() {
+        Random random = new Random(23);
+        for (int run = 0; run < 1000; run++) {
+            int members = 2 + random.nextInt(7);
+            int[] base = new int[members];
+            int[] current = new int[members];
+            double[] load = new double[members];
+            double[] capacity = new double[members];
+            for (int i = 0; i < members; i++) {
+                base[i] = 1 + random.nextInt(MAX_WEIGHT);
+                current[i] = 1 + random.nextInt(MAX_WEIGHT);
+                capacity[i] = 1 + random.nextInt(1000);
+                load[i] = random.nextDouble() * 1.2 * capacity[i];
+            }
+            int[] next = step(base, current, load, capacity);
+            if (next == null) {
+                continue;
+            }
+            String where = Arrays.toString(base) + " " + Arrays.toString(current);
+            boolean moved = false;
+            for (int i = 0; i < members; i++) {
+                assertTrue(where, next[i] >= 1 && next[i] <= MAX_WEIGHT);
+                assertTrue(where, Math.abs(next[i] - current[i]) <= MAX_STEP);
+                moved |= Math.abs(next[i] - current[i]) >= Math.min(HYSTERESIS, MAX_STEP);
+            }
+            assertTrue(where, moved);
+        }
+    }
+
+    private static int total(int[] weights) {
+        int total = 0;
+        for (int w : weights) {
+            total += w;
+        }
+        return total;
+    }
+}